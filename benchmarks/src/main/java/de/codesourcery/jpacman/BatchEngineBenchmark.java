@@ -0,0 +1,84 @@
+package de.codesourcery.jpacman;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ticks the same batch of games with {@link BatchEngine} and with one {@link GameState} per game.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchEngineBenchmark
+{
+    @Param({"1024"})
+    public int games;
+
+    private BatchEngine batch;
+    private GameState[] states;
+    private int[] inputs;
+    private final Set<PlayingField.Input> input = EnumSet.noneOf(PlayingField.Input.class);
+    private int tick;
+
+    @Setup(Level.Iteration)
+    public void setup()
+    {
+        final Maze maze = Maze.getDefault();
+        batch = new BatchEngine(maze, games);
+        states = new GameState[games];
+        for (int i = 0; i < games; i++) {
+            states[i] = new GameState(maze, i);
+        }
+        inputs = new int[games];
+        tick = 0;
+    }
+
+    private void updateInputs()
+    {
+        // hold each direction for a while, a different one in each game
+        tick++;
+        for (int i = 0; i < games; i++) {
+            inputs[i] = 1 << (((tick >>> 5) + i) & 3);
+        }
+    }
+
+    private void restartFinishedGames()
+    {
+        for (int i = 0; i < games; i++)
+        {
+            if ( batch.isGameOver(i) ) {
+                batch.reset(i, tick + i);
+            }
+            if ( states[i].gameOver ) {
+                states[i].reset(tick + i);
+            }
+        }
+    }
+
+    @Benchmark
+    public void batchTick()
+    {
+        updateInputs();
+        restartFinishedGames();
+        batch.tick(inputs, HeadlessRunner.TICK_SECONDS);
+    }
+
+    @Benchmark
+    public void gameStateTick()
+    {
+        updateInputs();
+        restartFinishedGames();
+        for (int i = 0; i < games; i++)
+        {
+            input.clear();
+            Replay.fromMask(inputs[i], input);
+            states[i].tick(input, HeadlessRunner.TICK_SECONDS);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package de.codesourcery.jpacman;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler always enabled, so every
+ * result also reports the allocation rate (<code>gc.alloc.rate.norm</code> is bytes per operation).
+ *
+ * Accepts the regular JMH command-line options, for example
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar NavGridBenchmark -f 1
+ * </pre>
+ */
+public class BenchmarkRunner
+{
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException
+    {
+        final Options options = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(options).run();
+    }
+}
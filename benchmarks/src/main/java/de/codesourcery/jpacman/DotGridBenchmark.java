@@ -0,0 +1,46 @@
+package de.codesourcery.jpacman;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DotGridBenchmark
+{
+    private DotGrid dots;
+    private int idx;
+
+    @Setup
+    public void setup()
+    {
+        dots = new DotGrid(Maze.getDefault().dotLayout);
+    }
+
+    @Benchmark
+    public int consume()
+    {
+        final int tile = idx;
+        idx = (idx + 1) % (dots.columns * dots.rows);
+        if ( tile == 0 ) {
+            dots.reset();
+        }
+        return dots.consume(dots.tileX(tile), dots.tileY(tile));
+    }
+
+    @Benchmark
+    public boolean allEaten()
+    {
+        return dots.allEaten();
+    }
+
+    @Benchmark
+    public void reset()
+    {
+        dots.reset();
+    }
+}
@@ -0,0 +1,42 @@
+package de.codesourcery.jpacman;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Point;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EntityBenchmark
+{
+    private Player player;
+    private Line line;
+    private int x;
+
+    @Setup
+    public void setup()
+    {
+        player = new Player();
+        final NavGrid navGrid = Maze.getDefault().navGrid;
+        player.location.currentLine = navGrid.lines.get(0);
+        player.location.setPosition(0.5f);
+        line = navGrid.lines.get(0);
+    }
+
+    @Benchmark
+    public Point gridLocation()
+    {
+        return player.gridLocation();
+    }
+
+    @Benchmark
+    public boolean lineContains()
+    {
+        x = (x + 1) & 31;
+        return line.contains(x, line.start.y);
+    }
+}
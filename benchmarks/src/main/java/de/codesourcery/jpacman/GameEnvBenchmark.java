@@ -0,0 +1,46 @@
+package de.codesourcery.jpacman;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GameEnvBenchmark
+{
+    private GameEnv env;
+    private ObservationEncoder encoder;
+    private GameRandom random;
+
+    @Setup(Level.Iteration)
+    public void setup()
+    {
+        env = new GameEnv(Maze.getDefault(), 1, Integer.MAX_VALUE);
+        env.bind(ByteBuffer.allocateDirect(4 * env.getEncoder().size()).order(ByteOrder.nativeOrder()), 0);
+        env.reset(0xdeadbeef);
+        encoder = env.getEncoder();
+        random = new GameRandom(42);
+    }
+
+    @Benchmark
+    public float step()
+    {
+        if ( env.isDone() ) {
+            env.reset(random.nextLong());
+        }
+        // hold each direction for a while, like an agent would
+        return env.step(1 + (env.getSteps() >>> 5) % 4);
+    }
+
+    @Benchmark
+    public void encode()
+    {
+        encoder.encode(env.getState());
+    }
+}
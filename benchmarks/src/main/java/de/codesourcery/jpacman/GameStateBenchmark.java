@@ -0,0 +1,64 @@
+package de.codesourcery.jpacman;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GameStateBenchmark
+{
+    private static final NavGrid.Direction[] DIRECTIONS = NavGrid.Direction.values();
+
+    private HeadlessRunner runner;
+    private GameState state;
+    private GameState fork;
+    private int tick;
+
+    @Setup(Level.Iteration)
+    public void setup()
+    {
+        runner = new HeadlessRunner(InputSource.random(0xdeadbeef, 30), Integer.MAX_VALUE);
+        runner.startGame();
+        state = runner.getState();
+        // somewhere in the middle of a game
+        for (int i = 0; i < 1000 && ! state.gameOver; i++) {
+            runner.tick();
+        }
+        fork = state.copy();
+    }
+
+    @Benchmark
+    public void tick()
+    {
+        if ( state.gameOver ) {
+            runner.startGame();
+        }
+        runner.tick();
+    }
+
+    @Benchmark
+    public boolean maybeMove()
+    {
+        // change direction every 32 calls, otherwise the player gets stuck at the first wall
+        final NavGrid.Direction dir = DIRECTIONS[(tick++ >>> 5) & 3];
+        return GameState.maybeMove(dir, state.player, state.navGrid);
+    }
+
+    @Benchmark
+    public GameState copy()
+    {
+        return state.copy();
+    }
+
+    @Benchmark
+    public GameState restoreFrom()
+    {
+        fork.restoreFrom(state);
+        return fork;
+    }
+}
@@ -0,0 +1,30 @@
+package de.codesourcery.jpacman;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GhostStateTimerBenchmark
+{
+    private GameState state;
+
+    @Setup(Level.Iteration)
+    public void setup()
+    {
+        state = new GameState();
+    }
+
+    @Benchmark
+    public void tick()
+    {
+        // advances through all scatter/chase waves, ending in permanent chase mode
+        state.clock.advance(HeadlessRunner.TICK_SECONDS);
+        state.ghostStateTimer.tick(state);
+    }
+}
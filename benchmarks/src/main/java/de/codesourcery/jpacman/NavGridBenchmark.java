@@ -0,0 +1,42 @@
+package de.codesourcery.jpacman;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Point;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NavGridBenchmark
+{
+    private NavGrid navGrid;
+    private Point[] points;
+    private int idx;
+
+    @Setup
+    public void setup()
+    {
+        navGrid = Maze.getDefault().navGrid;
+        // every tile, including the ones not on any line
+        points = new Point[(navGrid.width + 1) * (navGrid.height + 1)];
+        int i = 0;
+        for (int y = 0; y <= navGrid.height; y++) {
+            for (int x = 0; x <= navGrid.width; x++) {
+                points[i++] = new Point(x, y);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Line> getLines()
+    {
+        final Point p = points[idx];
+        idx = (idx + 1) % points.length;
+        return navGrid.getLines(p);
+    }
+}
@@ -6,8 +6,9 @@ import java.awt.geom.Point2D;
 
 public abstract class AbstractPanel extends JPanel
 {
-    public static final int WIDTH  = 28;
-    public static final int HEIGHT = 31;
+    // size of the maze in tiles
+    protected final int columns;
+    protected final int rows;
 
     protected float stepX;
     protected float stepY;
@@ -15,8 +16,10 @@ public abstract class AbstractPanel extends JPanel
     protected float offsetX;
     protected float offsetY;
 
-    public AbstractPanel()
+    public AbstractPanel(Maze maze)
     {
+        this.columns = maze.columns;
+        this.rows = maze.rows;
         setForeground(Color.BLUE);
         setBackground(Color.BLACK);
         setFocusable(true);
@@ -85,8 +88,8 @@ public abstract class AbstractPanel extends JPanel
 
     protected final void recalcCoords()
     {
-        stepX = getWidth() / (WIDTH+2f);
-        stepY = getHeight() / (HEIGHT+2f);
+        stepX = getWidth() / (columns+2f);
+        stepY = getHeight() / (rows+2f);
         offsetX = stepX;
         offsetY = stepY;
     }
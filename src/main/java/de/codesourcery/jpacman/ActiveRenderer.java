@@ -0,0 +1,234 @@
+package de.codesourcery.jpacman;
+
+import javax.swing.JFrame;
+import java.awt.*;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Actively renders snapshots from a dedicated thread onto a {@link Canvas}
+ * using a {@link BufferStrategy}, instead of relying on Swing's repaint
+ * coalescing.
+ *
+ * Page flipping is requested when the platform supports it. In full-screen exclusive mode
+ * the window takes over the whole screen. The achieved frame rate and the number
+ * of dropped frames (frames that took more than 1.5 times the frame budget) are
+ * shown in the top right corner.
+ */
+public final class ActiveRenderer implements Runnable
+{
+    private static final int DEFAULT_REFRESH_RATE = 60;
+    private static final int BUFFER_COUNT = 2;
+
+    private static final Font STATS_FONT = new Font(Font.MONOSPACED,Font.PLAIN,12);
+
+    private final RenderSnapshot.Exchange snapshots;
+    private final GameRenderer renderer;
+    private final EngineMetrics metrics;
+    private final KeyboardInput keyboard;
+    private final boolean fullScreen;
+
+    private JFrame frame;
+    private Canvas canvas;
+    private GraphicsDevice device;
+    private long frameNanos;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    private volatile double framesPerSecond;
+    private volatile long droppedFrames;
+    private volatile boolean pageFlipping;
+
+    public ActiveRenderer(Maze maze, RenderSnapshot.Exchange snapshots, KeyboardInput keyboard, EngineMetrics metrics, boolean fullScreen)
+    {
+        this.snapshots = snapshots;
+        this.metrics = metrics;
+        this.renderer = new GameRenderer(maze, metrics);
+        this.keyboard = keyboard;
+        this.fullScreen = fullScreen;
+    }
+
+    /**
+     * Opens the window and starts rendering.
+     *
+     * Must be called on the EDT.
+     */
+    public void start()
+    {
+        if ( thread != null ) {
+            throw new IllegalStateException("Already started");
+        }
+
+        device = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
+        final int refreshRate = device.getDisplayMode().getRefreshRate();
+        frameNanos = 1_000_000_000L / (refreshRate == DisplayMode.REFRESH_RATE_UNKNOWN ? DEFAULT_REFRESH_RATE : refreshRate);
+
+        frame = new JFrame("jpacman");
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.setIgnoreRepaint(true);
+
+        canvas = new Canvas();
+        canvas.setIgnoreRepaint(true);
+        canvas.setBackground(Color.BLACK);
+        canvas.setPreferredSize(new Dimension(640,480));
+        canvas.addKeyListener(keyboard);
+        new Camera.Controls(renderer.getCamera()).attach(canvas);
+        canvas.addKeyListener(new KeyAdapter()
+        {
+            @Override
+            public void keyPressed(KeyEvent e)
+            {
+                if ( e.getKeyCode() == KeyEvent.VK_ESCAPE && ActiveRenderer.this.fullScreen ) {
+                    frame.dispatchEvent(new WindowEvent(frame, WindowEvent.WINDOW_CLOSING));
+                }
+            }
+        });
+        frame.getContentPane().add(canvas);
+
+        if ( fullScreen && device.isFullScreenSupported() )
+        {
+            frame.setUndecorated(true);
+            device.setFullScreenWindow(frame);
+        }
+        else
+        {
+            if ( fullScreen ) {
+                System.err.println("Full-screen exclusive mode not supported, using a window");
+            }
+            frame.pack();
+            frame.setLocationRelativeTo(null);
+            frame.setVisible(true);
+        }
+        canvas.requestFocus();
+
+        createBufferStrategy();
+
+        running = true;
+        thread = new Thread(this, "active-renderer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void createBufferStrategy()
+    {
+        final BufferCapabilities flipping = new BufferCapabilities(new ImageCapabilities(true),
+            new ImageCapabilities(true), BufferCapabilities.FlipContents.UNDEFINED);
+        try {
+            canvas.createBufferStrategy(BUFFER_COUNT, flipping);
+        }
+        catch (AWTException e)
+        {
+            // no page flipping available, let AWT pick the best strategy (usually blitting)
+            canvas.createBufferStrategy(BUFFER_COUNT);
+        }
+        pageFlipping = canvas.getBufferStrategy().getCapabilities().isPageFlipping();
+    }
+
+    public void stop() throws InterruptedException
+    {
+        if ( thread != null )
+        {
+            running = false;
+            thread.join();
+            thread = null;
+            if ( device.getFullScreenWindow() == frame ) {
+                device.setFullScreenWindow(null);
+            }
+            frame.dispose();
+        }
+    }
+
+    /**
+     * Returns the frame rate achieved during the last second.
+     */
+    public double getFramesPerSecond() {
+        return framesPerSecond;
+    }
+
+    /**
+     * Returns the number of frames that took more than 1.5 times the frame budget.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public boolean isPageFlipping() {
+        return pageFlipping;
+    }
+
+    @Override
+    public void run()
+    {
+        final BufferStrategy strategy = canvas.getBufferStrategy();
+
+        String statsText = "";
+        long frames = 0;
+        long windowStart = System.nanoTime();
+        long lastFrame = 0;
+        long nextFrame = windowStart;
+        while ( running )
+        {
+            do
+            {
+                do
+                {
+                    final Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+                    try {
+                        renderFrame(g, statsText);
+                    } finally {
+                        g.dispose();
+                    }
+                } while ( strategy.contentsRestored() );
+                strategy.show();
+            } while ( strategy.contentsLost() );
+            Toolkit.getDefaultToolkit().sync();
+
+            final long now = System.nanoTime();
+            if ( lastFrame != 0 && now - lastFrame > frameNanos + frameNanos / 2 ) {
+                droppedFrames++;
+            }
+            lastFrame = now;
+            frames++;
+
+            if ( now - windowStart >= 1_000_000_000L )
+            {
+                framesPerSecond = frames * 1_000_000_000d / (now - windowStart);
+                statsText = String.format("%.1f FPS, %d dropped%s", framesPerSecond, droppedFrames, pageFlipping ? "" : " (no flipping)");
+                frames = 0;
+                windowStart = now;
+            }
+
+            // pace frames ourselves in case show() does not wait for vsync
+            nextFrame += frameNanos;
+            if ( nextFrame - now < 0 ) {
+                nextFrame = now;
+            } else {
+                LockSupport.parkNanos(nextFrame - now);
+            }
+        }
+    }
+
+    private void renderFrame(Graphics2D g, String statsText)
+    {
+        final int width = canvas.getWidth();
+        final int height = canvas.getHeight();
+        final RenderSnapshot snapshot = snapshots.acquire();
+        if ( ! snapshot.isValid() || width <= 0 || height <= 0 )
+        {
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, width, height);
+            return;
+        }
+        final long start = System.nanoTime();
+        renderer.render(g, canvas.getGraphicsConfiguration(), width, height, snapshot);
+        metrics.recordPaint(start, System.nanoTime());
+
+        g.setColor(Color.WHITE);
+        g.setFont(STATS_FONT);
+        g.drawString(statsText, width - g.getFontMetrics().stringWidth(statsText) - 5, 12);
+    }
+}
@@ -0,0 +1,1223 @@
+package de.codesourcery.jpacman;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Plays a batch of games on the same maze in lockstep.
+ *
+ * Instead of one object graph per game, the state of all games is kept in primitive
+ * arrays (struct of arrays) and games are ticked one after the other, so every array is walked
+ * front to back once per tick. The ghosts of a game are adjacent in the ghost arrays
+ * (<code>game * GHOSTS + slot</code>). Movement runs on the nav grid's compiled line and tile
+ * tables (see NavGrid#move(NavGrid, int, float, int, int, int)) and tile coordinates are kept up to
+ * date instead of being derived from line positions, so the hot loops never touch {@link Line} objects.
+ * Ghost AI uses the maze's shared {@link DistanceTable}.
+ *
+ * The rules are the same as in {@link GameState#tick(Set, float)}, and a game in a batch plays
+ * out exactly like a {@link GameState} with the same seed and input. Run
+ * <pre>
+ * java -cp target/jpacman-jar-with-dependencies.jar de.codesourcery.jpacman.BatchEngine --verify
+ * </pre>
+ * to check this on random seeds and input, or without <code>--verify</code> to compare throughput.
+ */
+public final class BatchEngine
+{
+    // ghost slots, same order as GameState#ghosts
+    private static final int BLINKY = 0;
+    private static final int INKY = 1;
+    private static final int CLYDE = 2;
+    private static final int PINKY = 3;
+    private static final int GHOSTS = 4;
+
+    private static final int WAITING = Ghost.Mode.WAITING_AT_SPAWN.ordinal();
+    private static final int RETURNING = Ghost.Mode.RETURNING_TO_SPAWN.ordinal();
+    private static final int CHASING = Ghost.Mode.CHASING.ordinal();
+    private static final int FRIGHTENED = Ghost.Mode.FRIGHTENED.ordinal();
+    private static final int SCATTER = Ghost.Mode.SCATTER.ordinal();
+
+    // directions by ordinal, the opposite direction is always ordinal ^ 1
+    private static final NavGrid.Direction[] DIRECTIONS = NavGrid.Direction.values();
+    private static final int UP = NavGrid.Direction.UP.ordinal();
+    private static final int DOWN = NavGrid.Direction.DOWN.ordinal();
+    private static final int LEFT = NavGrid.Direction.LEFT.ordinal();
+    private static final int RIGHT = NavGrid.Direction.RIGHT.ordinal();
+    private static final int[] TIE_BREAK_ORDER = { UP, LEFT, DOWN, RIGHT };
+
+    // input bits, see Replay#toMask(Set)
+    private static final int INPUT_UP = 1 << PlayingField.Input.UP.ordinal();
+    private static final int INPUT_DOWN = 1 << PlayingField.Input.DOWN.ordinal();
+    private static final int INPUT_LEFT = 1 << PlayingField.Input.LEFT.ordinal();
+    private static final int INPUT_RIGHT = 1 << PlayingField.Input.RIGHT.ordinal();
+    private static final int INPUT_RESTART = 1 << PlayingField.Input.RESTART.ordinal();
+    private static final int INPUT_DEBUG = 1 << PlayingField.Input.DEBUG.ordinal();
+
+    // stages of the global dot counter, see GameState#globalDotLimitReached()
+    private static final int RELEASE_NONE = 0;
+    private static final int RELEASE_PINKY = 1;
+    private static final int RELEASE_INKY = 2;
+    private static final int RELEASE_CLYDE = 3;
+
+    // active dot counter, ghost counters are COUNTER_GHOST + slot
+    private static final int COUNTER_NONE = 0;
+    private static final int COUNTER_GLOBAL = 1;
+    private static final int COUNTER_GHOST = 2;
+
+    private final Maze maze;
+    private final NavGrid navGrid;
+    private final DistanceTable distances;
+    private final DotGrid.Layout dotLayout;
+    private final long[] initialDots;
+    private final int words;
+    private final int spawnLine;
+    private final float spawnPosition;
+
+
+    private final int size;
+
+    // games
+    private final long[] seed;
+    private final long[] random;
+    private final long[] nanos;
+    private final long[] ticks;
+    private final float[] deltaSeconds;
+    private final long[] timeLastDotEaten;
+    private final boolean[] gameOver;
+    private final int[] level;
+    private final boolean[] debugMode;
+    // words * game + word
+    private final long[] dots;
+    private final int[] remainingDots;
+    // dot tile the player was last on, its dot is gone until the dots are reset
+    private final int[] emptiedTile;
+    private final byte[] timerTable;
+    private final byte[] timerPhase;
+    private final float[] timerRemaining;
+    private final int[] globalDotsEaten;
+    private final int[] globalLimit;
+    private final boolean[] globalLimitReached;
+    private final byte[] globalStage;
+    private final byte[] activeCounter;
+
+    // players
+    private final int[] playerLine;
+    private final float[] playerPosition;
+    private final byte[] playerOrientation;
+    private final boolean[] playerMoving;
+    private final int[] score;
+    private final long[] canEatGhostsSince;
+    private final boolean[] canEatGhosts;
+    private final int[] lifes;
+    private final boolean[] bonusLifeAwarded;
+    // tile of the player, kept in sync with playerLine / playerPosition
+    private final int[] playerX;
+    private final int[] playerY;
+
+    // ghosts, game * GHOSTS + slot
+    private final int[] ghostLine;
+    private final float[] ghostPosition;
+    // tile of the ghost, kept in sync with ghostLine / ghostPosition
+    private final int[] ghostX;
+    private final int[] ghostY;
+    private final byte[] ghostOrientation;
+    private final boolean[] ghostMoving;
+    private final byte[] mode;
+    private final byte[] heading;
+    private final int[] decisionX;
+    private final int[] decisionY;
+    private final boolean[] reversePending;
+    private final float[] moveCredit;
+    private final int[] targetX;
+    private final int[] targetY;
+    private final int[] ghostDotsEaten;
+    private final int[] ghostLimit;
+    private final boolean[] ghostLimitReached;
+    // tile index of living ghosts or OccupancyGrid.NONE, see GameState#resolveCollisions()
+    private final int[] occupied;
+
+    // occupied tiles of the game being ticked before its ghosts moved
+    private final int[] occupiedAtTickStart = new int[GHOSTS];
+
+    /**
+     * Creates a batch of games, game <code>i</code> is started with seed <code>i</code>.
+     */
+    public BatchEngine(Maze maze, int size)
+    {
+        if ( size < 1 ) {
+            throw new IllegalArgumentException("Batch size must be >= 1");
+        }
+        this.maze = maze;
+        this.navGrid = maze.navGrid;
+        this.distances = maze.distances;
+        this.dotLayout = maze.dotLayout;
+        this.words = dotLayout.getWordCount();
+        this.initialDots = new long[words];
+        new DotGrid(dotLayout).copyTo(initialDots);
+
+        // see GameState#setLocation()
+        this.spawnLine = navGrid.getLineId(GameState.GHOST_SPAWN_X, GameState.GHOST_SPAWN_Y, 0);
+        this.spawnPosition = clamp(navGrid.getLine(spawnLine).getPosition(GameState.GHOST_SPAWN_X, GameState.GHOST_SPAWN_Y));
+
+        this.size = size;
+        seed = new long[size];
+        random = new long[size];
+        nanos = new long[size];
+        ticks = new long[size];
+        deltaSeconds = new float[size];
+        timeLastDotEaten = new long[size];
+        gameOver = new boolean[size];
+        level = new int[size];
+        debugMode = new boolean[size];
+        dots = new long[size * words];
+        remainingDots = new int[size];
+        emptiedTile = new int[size];
+        timerTable = new byte[size];
+        timerPhase = new byte[size];
+        timerRemaining = new float[size];
+        globalDotsEaten = new int[size];
+        globalLimit = new int[size];
+        globalLimitReached = new boolean[size];
+        globalStage = new byte[size];
+        activeCounter = new byte[size];
+
+        playerLine = new int[size];
+        playerPosition = new float[size];
+        playerOrientation = new byte[size];
+        playerMoving = new boolean[size];
+        score = new int[size];
+        canEatGhostsSince = new long[size];
+        canEatGhosts = new boolean[size];
+        lifes = new int[size];
+        bonusLifeAwarded = new boolean[size];
+        playerX = new int[size];
+        playerY = new int[size];
+
+        final int ghostCount = GHOSTS * size;
+        ghostLine = new int[ghostCount];
+        ghostPosition = new float[ghostCount];
+        ghostX = new int[ghostCount];
+        ghostY = new int[ghostCount];
+        ghostOrientation = new byte[ghostCount];
+        ghostMoving = new boolean[ghostCount];
+        mode = new byte[ghostCount];
+        heading = new byte[ghostCount];
+        decisionX = new int[ghostCount];
+        decisionY = new int[ghostCount];
+        reversePending = new boolean[ghostCount];
+        moveCredit = new float[ghostCount];
+        targetX = new int[ghostCount];
+        targetY = new int[ghostCount];
+        ghostDotsEaten = new int[ghostCount];
+        ghostLimit = new int[ghostCount];
+        ghostLimitReached = new boolean[ghostCount];
+        occupied = new int[ghostCount];
+
+
+        for (int game = 0; game < size; game++) {
+            reset(game, game);
+        }
+    }
+
+    // index into the ghost arrays
+    private static int ghost(int game, int slot) {
+        return game * GHOSTS + slot;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Maze getMaze() {
+        return maze;
+    }
+
+    public long getSeed(int game) {
+        return seed[game];
+    }
+
+    public int getScore(int game) {
+        return score[game];
+    }
+
+    public int getLifes(int game) {
+        return lifes[game];
+    }
+
+    public int getLevel(int game) {
+        return level[game];
+    }
+
+    public boolean isGameOver(int game) {
+        return gameOver[game];
+    }
+
+    public int getRemainingDots(int game) {
+        return remainingDots[game];
+    }
+
+    // ---------------------------------------------------------------- random numbers, see GameRandom
+
+    private long nextLong(int game) {
+        return GameRandom.mix(random[game] += GameRandom.GOLDEN_GAMMA);
+    }
+
+    private int nextInt(int game, int bound) {
+        return GameRandom.toInt(nextLong(game), bound);
+    }
+
+    private float nextFloat(int game) {
+        return GameRandom.toFloat(nextLong(game));
+    }
+
+    // ---------------------------------------------------------------- game lifecycle
+
+    /**
+     * Starts a new game, see {@link GameState#reset(long)}.
+     */
+    public void reset(int game, long seed)
+    {
+        this.seed[game] = seed;
+        random[game] = seed;
+        nanos[game] = 0;
+        ticks[game] = 0;
+        deltaSeconds[game] = 0;
+        timeLastDotEaten[game] = 0;
+        level[game] = 1;
+        gameOver[game] = false;
+        resetDots(game);
+
+        lifes[game] = 3;
+        bonusLifeAwarded[game] = false;
+        canEatGhostsSince[game] = 0;
+        canEatGhosts[game] = false;
+        score[game] = 0;
+        playerMoving[game] = false;
+        assignRandomLocation(game);
+
+        for (int slot = 0; slot < GHOSTS; slot++)
+        {
+            final int ghost = ghost(game, slot);
+            ghostDotsEaten[ghost] = 0;
+            ghostLimitReached[ghost] = false;
+        }
+        resetGhosts(game);
+        updateDotCounterLimits(game);
+    }
+
+    private void resetDots(int game)
+    {
+        System.arraycopy(initialDots, 0, dots, game * words, words);
+        remainingDots[game] = dotLayout.dotCount;
+        emptiedTile[game] = -1;
+    }
+
+    private void assignRandomLocation(int game)
+    {
+        final int line = nextInt(game, navGrid.lines.size());
+        playerLine[game] = line;
+        playerPosition[game] = clamp(nextFloat(game));
+        playerOrientation[game] = (byte) (navGrid.lineHoriz[line] ? LEFT : UP);
+        playerX[game] = tileX(line, playerPosition[game]);
+        playerY[game] = tileY(line, playerPosition[game]);
+    }
+
+    // same as LocationInfo#setPosition(), without Math.min()/max() handling of -0.0
+    private static float clamp(float position) {
+        return position <= 0f ? 0f : position > 1.0f ? 1.0f : position;
+    }
+
+    private void resetGhosts(int game)
+    {
+        for (int slot = 0; slot < GHOSTS; slot++)
+        {
+            final int ghost = ghost(game, slot);
+            ghostLine[ghost] = spawnLine;
+            ghostPosition[ghost] = spawnPosition;
+            ghostX[ghost] = GameState.GHOST_SPAWN_X;
+            ghostY[ghost] = GameState.GHOST_SPAWN_Y;
+            respawn(ghost, slot == BLINKY ? SCATTER : WAITING);
+            occupied[ghost] = occupancyTile(ghost);
+        }
+        difficultyChanged(game);
+
+        activeCounter[game] = COUNTER_GLOBAL;
+        globalDotsEaten[game] = 0;
+        globalLimit[game] = 7;
+        globalLimitReached[game] = false;
+        globalStage[game] = RELEASE_PINKY;
+    }
+
+    private void respawn(int ghost, int newMode)
+    {
+        mode[ghost] = (byte) newMode;
+        heading[ghost] = (byte) LEFT;
+        ghostOrientation[ghost] = (byte) LEFT;
+        decisionX[ghost] = decisionY[ghost] = -1;
+        reversePending[ghost] = false;
+        moveCredit[ghost] = 0;
+        ghostMoving[ghost] = false;
+    }
+
+    // see GameState#updateDotCounterLimits()
+    private void updateDotCounterLimits(int game)
+    {
+        if ( level[game] == 1 )
+        {
+            setGhostLimit(PINKY, game, 0);
+            setGhostLimit(INKY, game, 30);
+            setGhostLimit(CLYDE, game, 60);
+        }
+        else if ( level[game] == 2 )
+        {
+            setGhostLimit(INKY, game, 0);
+            setGhostLimit(CLYDE, game, 50);
+        }
+        else if ( level[game] >= 3 )
+        {
+            setGhostLimit(PINKY, game, 0);
+            setGhostLimit(INKY, game, 0);
+            setGhostLimit(CLYDE, game, 0);
+        }
+    }
+
+    private void setGhostLimit(int slot, int game, int limit)
+    {
+        ghostLimit[ghost(game, slot)] = limit;
+        ghostLimitReached[ghost(game, slot)] = false;
+    }
+
+    private void difficultyChanged(int game)
+    {
+        final int table = GhostStateTimer.tableFor(level[game]);
+        timerTable[game] = (byte) table;
+        timerPhase[game] = 0;
+        timerRemaining[game] = GhostStateTimer.DURATIONS[table][0];
+        setModeOfLivingGhosts(game, GhostStateTimer.MODES[0].ordinal());
+    }
+
+    private void advanceToNextLevel(int game)
+    {
+        canEatGhosts[game] = false;
+        level[game]++;
+        resetDots(game);
+        resetGhosts(game);
+        assignRandomLocation(game);
+        globalDotsEaten[game] = 0;
+        globalLimitReached[game] = false;
+        activeCounter[game] = COUNTER_GLOBAL;
+        difficultyChanged(game);
+    }
+
+    // ---------------------------------------------------------------- ticking
+
+    /**
+     * Advances all games by one tick.
+     *
+     * @param inputs input of each game as a bitmask (see {@link Replay#toMask(Set)})
+     */
+    public void tick(int[] inputs, float elapsedSeconds)
+    {
+        if ( elapsedSeconds < 0 ) {
+            throw new IllegalArgumentException("Time cannot run backwards: "+elapsedSeconds);
+        }
+        final long elapsedNanos = Math.round( elapsedSeconds * 1_000_000_000d );
+        for (int game = 0; game < size; game++)
+        {
+            final int playerStartTile = tileIndex(playerX[game], playerY[game]);
+            if ( tickPlayer(game, inputs[game], elapsedSeconds, elapsedNanos) )
+            {
+                for (int slot = 0, ghost = ghost(game, 0); slot < GHOSTS; slot++, ghost++)
+                {
+                    occupiedAtTickStart[slot] = occupied[ghost];
+                    tickGhost(slot, ghost, game);
+                }
+                resolveCollisions(game, playerStartTile);
+                tickTimers(game, elapsedSeconds);
+            }
+        }
+    }
+
+    private long millis(int game) {
+        return nanos[game] / 1_000_000;
+    }
+
+    // returns whether the ghosts and timers still need to be ticked
+    private boolean tickPlayer(int game, int input, float elapsedSeconds, long elapsedNanos)
+    {
+        deltaSeconds[game] = elapsedSeconds;
+        nanos[game] += elapsedNanos;
+        ticks[game]++;
+        playerMoving[game] = false;
+
+        if ( gameOver[game] ) {
+            return false;
+        }
+
+        if ( input != 0 )
+        {
+            if ( (input & INPUT_DEBUG) != 0 ) {
+                debugMode[game] = ! debugMode[game];
+                return false;
+            }
+            if ( (input & INPUT_RESTART) != 0 )
+            {
+                reset(game, nextLong(game));
+                return false;
+            }
+
+            boolean dotEaten = false;
+            if ( (input & INPUT_UP) != 0 && movePlayer(game, UP) ) {
+                dotEaten = playerMoved(game);
+            }
+            else if ( (input & INPUT_DOWN) != 0 && movePlayer(game, DOWN) ) {
+                dotEaten = playerMoved(game);
+            }
+            else if ( (input & INPUT_LEFT) != 0 && movePlayer(game, LEFT) ) {
+                dotEaten = playerMoved(game);
+            }
+            else if ( (input & INPUT_RIGHT) != 0 && movePlayer(game, RIGHT) ) {
+                dotEaten = playerMoved(game);
+            }
+
+            if ( dotEaten )
+            {
+                if ( remainingDots[game] == 0 ) {
+                    advanceToNextLevel(game);
+                }
+            }
+            else
+            {
+                final long threshold = level[game] < 5 ? 4000 : 3000;
+                if ( millis(game) - timeLastDotEaten[game] > threshold )
+                {
+                    timeLastDotEaten[game] = millis(game);
+                    forceReleaseGhost(game);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private boolean movePlayer(int game, int direction)
+    {
+        final long moved = NavGrid.move(navGrid, playerLine[game], playerPosition[game], direction, playerX[game], playerY[game]);
+        final int outcome = NavGrid.outcome(moved);
+        if ( outcome == NavGrid.BLOCKED ) {
+            return false;
+        }
+        final int line = NavGrid.movedLine(moved);
+        final float position = NavGrid.movedPosition(moved);
+        playerLine[game] = line;
+        playerPosition[game] = position;
+        playerX[game] = tileX(line, position);
+        playerY[game] = tileY(line, position);
+        if ( outcome == NavGrid.TURNED ) {
+            playerOrientation[game] = (byte) direction;
+        }
+        return true;
+    }
+
+    // same as Line#gridX(), the span is 0 on vertical lines
+    private int tileX(int line, float position) {
+        return navGrid.lineX[line] + round(navGrid.lineSpanX[line] * position);
+    }
+
+    // same as Line#gridY(), the span is 0 on horizontal lines
+    private int tileY(int line, float position) {
+        return navGrid.lineY[line] + round(navGrid.lineSpanY[line] * position);
+    }
+
+    /*
+     * Math.round() for values in [0, 2^31), where it's the same as truncating value + 0.5.
+     * The sum is exact in double precision, so this can't round up values just below x.5
+     * like a float addition would.
+     */
+    private static int round(float value) {
+        return (int) (value + 0.5d);
+    }
+
+    private int playerGridX(int game) {
+        return playerX[game];
+    }
+
+    private int playerGridY(int game) {
+        return playerY[game];
+    }
+
+    private int tileIndex(int x, int y) {
+        return y * maze.columns + x;
+    }
+
+    private int occupancyTile(int ghost) {
+        return isAlive(ghost) ? tileIndex(ghostGridX(ghost), ghostGridY(ghost)) : OccupancyGrid.NONE;
+    }
+
+    private int ghostGridX(int ghost) {
+        return ghostX[ghost];
+    }
+
+    private int ghostGridY(int ghost) {
+        return ghostY[ghost];
+    }
+
+    // return: true if a dot was consumed
+    private boolean playerMoved(int game)
+    {
+        playerMoving[game] = true;
+
+        final int x = playerGridX(game);
+        final int y = playerGridY(game);
+        if ( x < 0 || y < 0 || x >= dotLayout.columns || y >= dotLayout.rows ) {
+            return false;
+        }
+        final int tile = y * dotLayout.columns + x;
+        if ( tile == emptiedTile[game] ) {
+            // most moves stay on the same tile, don't look at the dots again
+            return false;
+        }
+        emptiedTile[game] = tile;
+        final int word = game * words + (tile >>> 6);
+        final long mask = 1L << tile;
+        if ( (dots[word] & mask) == 0 ) {
+            return false;
+        }
+        dots[word] &= ~mask;
+        remainingDots[game]--;
+
+        timeLastDotEaten[game] = millis(game);
+        if ( dotLayout.isEnergizer(x, y) )
+        {
+            incScore(game, 50);
+            if ( level[game] < 19 )
+            {
+                canEatGhosts[game] = true;
+                canEatGhostsSince[game] = millis(game);
+                setModeOfLivingGhosts(game, FRIGHTENED);
+            }
+        } else {
+            incScore(game, 10);
+        }
+
+        final int active = activeCounter[game];
+        if ( active == COUNTER_GLOBAL )
+        {
+            if ( ++globalDotsEaten[game] >= globalLimit[game] && ! globalLimitReached[game] )
+            {
+                globalLimitReached[game] = true;
+                globalDotLimitReached(game);
+            }
+        }
+        else if ( active >= COUNTER_GHOST )
+        {
+            final int ghost = ghost(game, active - COUNTER_GHOST);
+            if ( ++ghostDotsEaten[ghost] >= ghostLimit[ghost] ) {
+                ghostLimitReached[ghost] = true;
+            }
+        }
+        return true;
+    }
+
+    private void incScore(int game, int points)
+    {
+        score[game] += points;
+        if ( score[game] >= 10000 && ! bonusLifeAwarded[game] )
+        {
+            lifes[game]++;
+            bonusLifeAwarded[game] = true;
+        }
+    }
+
+    private void globalDotLimitReached(int game)
+    {
+        switch( globalStage[game] )
+        {
+            case RELEASE_PINKY:
+                enableGhostFromSpawn(game, PINKY);
+                globalLimit[game] = 17;
+                globalLimitReached[game] = false;
+                globalStage[game] = RELEASE_INKY;
+                break;
+            case RELEASE_INKY:
+                enableGhostFromSpawn(game, INKY);
+                globalLimit[game] = 32;
+                globalLimitReached[game] = false;
+                globalStage[game] = RELEASE_CLYDE;
+                break;
+            case RELEASE_CLYDE:
+                enableGhostFromSpawn(game, CLYDE);
+                activeCounter[game] = COUNTER_NONE;
+                break;
+            default:
+        }
+    }
+
+    private void enableGhostFromSpawn(int game, int slot)
+    {
+        if ( ghostFromSpawn(game) == slot )
+        {
+            final int ghost = ghost(game, slot);
+            setMode(ghost, SCATTER);
+            selectTargetTile(slot, ghost, game);
+        }
+    }
+
+    // return: slot of the ghost waiting at the spawn whose counter is preferred, or -1
+    private int ghostFromSpawn(int game)
+    {
+        if ( mode[ghost(game, PINKY)] == WAITING ) {
+            return PINKY;
+        }
+        if ( mode[ghost(game, INKY)] == WAITING ) {
+            return INKY;
+        }
+        if ( mode[ghost(game, CLYDE)] == WAITING ) {
+            return CLYDE;
+        }
+        return -1;
+    }
+
+    private void forceReleaseGhost(int game)
+    {
+        final int slot = ghostFromSpawn(game);
+        if ( slot != -1 )
+        {
+            final int ghost = ghost(game, slot);
+            setMode(ghost, CHASING);
+            selectTargetTile(slot, ghost, game);
+            final int next = ghostFromSpawn(game);
+            if ( next != -1 ) {
+                activeCounter[game] = (byte) (COUNTER_GHOST + next);
+            }
+        }
+    }
+
+    private boolean isAlive(int ghost) {
+        return mode[ghost] != WAITING && mode[ghost] != RETURNING;
+    }
+
+    // see Ghost#setMode()
+    private void setMode(int ghost, int newMode)
+    {
+        final int current = mode[ghost];
+        if ( newMode != current && (current == SCATTER || current == CHASING) &&
+             (newMode == SCATTER || newMode == CHASING || newMode == FRIGHTENED) )
+        {
+            reversePending[ghost] = true;
+        }
+        mode[ghost] = (byte) newMode;
+    }
+
+    private void setModeOfLivingGhosts(int game, int newMode)
+    {
+        for (int ghost = ghost(game, 0), end = ghost + GHOSTS; ghost < end; ghost++)
+        {
+            if ( isAlive(ghost) ) {
+                setMode(ghost, newMode);
+            }
+        }
+    }
+
+    private void tickGhost(int slot, int ghost, int game)
+    {
+        ghostMoving[ghost] = false;
+        if ( mode[ghost] != WAITING )
+        {
+            moveCredit[ghost] += speed(mode[ghost]);
+            while ( moveCredit[ghost] >= 1f )
+            {
+                moveCredit[ghost] -= 1f;
+                stepGhost(slot, ghost, game);
+
+                if ( mode[ghost] == RETURNING && ghostGridX(ghost) == GameState.GHOST_SPAWN_X && ghostGridY(ghost) == GameState.GHOST_SPAWN_Y )
+                {
+                    setMode(ghost, currentTimerMode(game));
+                    decisionX[ghost] = decisionY[ghost] = -1;
+                    moveCredit[ghost] = 0;
+                    break;
+                }
+            }
+        }
+
+        occupied[ghost] = occupancyTile(ghost);
+    }
+
+    // same as GameState#resolveCollisions(), without the spatial hash since a game only has four ghosts
+    private void resolveCollisions(int game, int from)
+    {
+        final int to = tileIndex(playerX[game], playerY[game]);
+        final boolean playerMoved = from != to;
+        for (int slot = 0, ghost = ghost(game, 0); slot < GHOSTS; slot++, ghost++)
+        {
+            final int tile = occupied[ghost];
+            final int previous = occupiedAtTickStart[slot];
+            final boolean sameTile = tile == to && ( playerMoved || tile != previous );
+            final boolean crossing = playerMoved && tile != OccupancyGrid.NONE && tile == from && previous == to;
+            if ( sameTile || crossing )
+            {
+                if ( mode[ghost] == FRIGHTENED )
+                {
+                    ghostEaten(slot, ghost, game);
+                    occupied[ghost] = OccupancyGrid.NONE;
+                }
+                else
+                {
+                    playerDeath(game);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static float speed(int mode)
+    {
+        if ( mode == FRIGHTENED ) {
+            return Ghost.SPEED_FRIGHTENED;
+        }
+        return mode == RETURNING ? Ghost.SPEED_RETURNING : Ghost.SPEED_NORMAL;
+    }
+
+    private void stepGhost(int slot, int ghost, int game)
+    {
+        final int x = ghostGridX(ghost);
+        final int y = ghostGridY(ghost);
+        if ( reversePending[ghost] )
+        {
+            reversePending[ghost] = false;
+            heading[ghost] ^= 1;
+            decisionX[ghost] = x;
+            decisionY[ghost] = y;
+        }
+        else if ( x != decisionX[ghost] || y != decisionY[ghost] )
+        {
+            heading[ghost] = (byte) chooseDirection(slot, ghost, game, x, y);
+            decisionX[ghost] = x;
+            decisionY[ghost] = y;
+        }
+
+        final long moved = NavGrid.move(navGrid, ghostLine[ghost], ghostPosition[ghost], heading[ghost], x, y);
+        final int outcome = NavGrid.outcome(moved);
+        if ( outcome != NavGrid.BLOCKED )
+        {
+            final int line = NavGrid.movedLine(moved);
+            final float position = NavGrid.movedPosition(moved);
+            ghostLine[ghost] = line;
+            ghostPosition[ghost] = position;
+            ghostX[ghost] = tileX(line, position);
+            ghostY[ghost] = tileY(line, position);
+            if ( outcome == NavGrid.TURNED ) {
+                ghostOrientation[ghost] = heading[ghost];
+            }
+            ghostMoving[ghost] = true;
+        } else {
+            decisionX[ghost] = decisionY[ghost] = -1;
+        }
+    }
+
+    // see Ghost#chooseDirection()
+    private int chooseDirection(int slot, int ghost, int game, int x, int y)
+    {
+        final int node = distances.nodeAt(x, y);
+        if ( node == -1 ) {
+            return heading[ghost];
+        }
+
+        if ( mode[ghost] == RETURNING )
+        {
+            final NavGrid.Direction hop = distances.nextHopHome(node);
+            return hop != null ? hop.ordinal() : heading[ghost];
+        }
+
+        final int reverse = heading[ghost] ^ 1;
+        if ( mode[ghost] == FRIGHTENED )
+        {
+            int candidates = 0;
+            for (int d : TIE_BREAK_ORDER) {
+                if ( d != reverse && distances.neighbour(node, DIRECTIONS[d]) != -1 ) {
+                    candidates++;
+                }
+            }
+            if ( candidates == 0 ) {
+                return reverse;
+            }
+            int pick = nextInt(game, candidates);
+            for (int d : TIE_BREAK_ORDER) {
+                if ( d != reverse && distances.neighbour(node, DIRECTIONS[d]) != -1 && pick-- == 0 ) {
+                    return d;
+                }
+            }
+        }
+
+        selectTargetTile(slot, ghost, game);
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        for (int d : TIE_BREAK_ORDER)
+        {
+            final int neighbour = distances.neighbour(node, DIRECTIONS[d]);
+            if ( d != reverse && neighbour != -1 )
+            {
+                final long distance = distances.distanceToTarget(neighbour, targetX[ghost], targetY[ghost]);
+                if ( distance < bestDistance )
+                {
+                    best = d;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return best != -1 ? best : reverse;
+    }
+
+    // see Ghost#selectTargetTile()
+    private void selectTargetTile(int slot, int ghost, int game)
+    {
+        final int m = mode[ghost];
+        if ( m == SCATTER ) {
+            setScatterTarget(slot, ghost);
+        }
+        else if ( m == CHASING ) {
+            setChaseTarget(slot, ghost, game);
+        }
+        else if ( m == RETURNING ) {
+            setTarget(ghost, GameState.GHOST_SPAWN_X, GameState.GHOST_SPAWN_Y);
+        }
+    }
+
+    private void setTarget(int ghost, int x, int y)
+    {
+        targetX[ghost] = x;
+        targetY[ghost] = y;
+    }
+
+    private void setScatterTarget(int slot, int ghost)
+    {
+        switch( slot )
+        {
+            case BLINKY: setTarget(ghost, navGrid.width - 2, -3); break;
+            case PINKY:  setTarget(ghost, 2, -3); break;
+            case INKY:   setTarget(ghost, navGrid.width, navGrid.height + 3); break;
+            default:     setTarget(ghost, 0, navGrid.height + 3); break;
+        }
+    }
+
+    private void setChaseTarget(int slot, int ghost, int game)
+    {
+        final int px = playerGridX(game);
+        final int py = playerGridY(game);
+        final NavGrid.Direction dir = DIRECTIONS[playerOrientation[game]];
+        switch( slot )
+        {
+            case BLINKY:
+                setTarget(ghost, px, py);
+                break;
+            case PINKY:
+                setTarget(ghost, px + 4 * dir.dx - (dir == NavGrid.Direction.UP ? 4 : 0), py + 4 * dir.dy);
+                break;
+            case INKY:
+                final int aheadX = px + 2 * dir.dx - (dir == NavGrid.Direction.UP ? 2 : 0);
+                final int aheadY = py + 2 * dir.dy;
+                final int blinky = ghost(game, BLINKY);
+                setTarget(ghost, 2 * aheadX - ghostGridX(blinky), 2 * aheadY - ghostGridY(blinky));
+                break;
+            default:
+                final int dx = ghostGridX(ghost) - px;
+                final int dy = ghostGridY(ghost) - py;
+                if ( dx * dx + dy * dy >= 64 ) {
+                    setTarget(ghost, px, py);
+                } else {
+                    setScatterTarget(slot, ghost);
+                }
+        }
+    }
+
+    private void ghostEaten(int slot, int ghost, int game)
+    {
+        setMode(ghost, RETURNING);
+        if ( activeCounter[game] == COUNTER_NONE )
+        {
+            activeCounter[game] = (byte) (COUNTER_GHOST + slot);
+            ghostDotsEaten[ghost] = 0;
+            ghostLimitReached[ghost] = false;
+        }
+    }
+
+    private void playerDeath(int game)
+    {
+        lifes[game]--;
+        if ( lifes[game] == 0 ) {
+            gameOver[game] = true;
+        }
+        else
+        {
+            canEatGhosts[game] = false;
+            resetGhosts(game);
+        }
+    }
+
+    private int currentTimerMode(int game) {
+        return GhostStateTimer.MODES[timerPhase[game]].ordinal();
+    }
+
+    private void tickTimers(int game, float elapsedSeconds)
+    {
+        if ( canEatGhosts[game] )
+        {
+            if ( millis(game) - canEatGhostsSince[game] >= 4000 )
+            {
+                canEatGhosts[game] = false;
+                setModeOfLivingGhosts(game, currentTimerMode(game));
+            }
+            return;
+        }
+
+        // see GhostStateTimer#tick()
+        final float[] durations = GhostStateTimer.DURATIONS[timerTable[game]];
+        if ( timerPhase[game] == durations.length - 1 ) {
+            return;
+        }
+        timerRemaining[game] -= elapsedSeconds;
+        if ( timerRemaining[game] <= 0 )
+        {
+            timerPhase[game]++;
+            timerRemaining[game] = durations[timerPhase[game]];
+            setModeOfLivingGhosts(game, currentTimerMode(game));
+        }
+    }
+
+    // ---------------------------------------------------------------- state export
+
+    /**
+     * Writes the state of a game in the format of {@link GameState#writeState(DataOutput)},
+     * so it can be continued by a regular {@link GameState}.
+     */
+    public void writeState(int game, DataOutput out) throws IOException
+    {
+        out.writeLong(seed[game]);
+        out.writeLong(random[game]);
+        out.writeLong(nanos[game]);
+        out.writeLong(ticks[game]);
+        out.writeFloat(deltaSeconds[game]);
+        out.writeLong(timeLastDotEaten[game]);
+        out.writeBoolean(gameOver[game]);
+        out.writeInt(level[game]);
+        out.writeBoolean(debugMode[game]);
+        for (int i = 0; i < words; i++) {
+            out.writeLong(dots[game * words + i]);
+        }
+        out.writeByte(timerTable[game]);
+        out.writeByte(timerPhase[game]);
+        out.writeFloat(timerRemaining[game]);
+
+        out.writeInt(globalDotsEaten[game]);
+        out.writeInt(globalLimit[game]);
+        out.writeBoolean(globalLimitReached[game]);
+        out.writeByte(globalStage[game]);
+        out.writeByte(activeCounter[game]);
+
+        out.writeInt(playerLine[game]);
+        out.writeFloat(playerPosition[game]);
+        out.writeByte(playerOrientation[game]);
+        out.writeBoolean(playerMoving[game]);
+        out.writeInt(score[game]);
+        out.writeLong(canEatGhostsSince[game]);
+        out.writeBoolean(canEatGhosts[game]);
+        out.writeInt(lifes[game]);
+        out.writeBoolean(bonusLifeAwarded[game]);
+
+        for (int slot = 0; slot < GHOSTS; slot++)
+        {
+            final int ghost = ghost(game, slot);
+            out.writeInt(ghostLine[ghost]);
+            out.writeFloat(ghostPosition[ghost]);
+            out.writeByte(ghostOrientation[ghost]);
+            out.writeBoolean(ghostMoving[ghost]);
+            out.writeByte(mode[ghost]);
+            out.writeByte(heading[ghost]);
+            out.writeInt(decisionX[ghost]);
+            out.writeInt(decisionY[ghost]);
+            out.writeBoolean(reversePending[ghost]);
+            out.writeFloat(moveCredit[ghost]);
+            out.writeInt(targetX[ghost]);
+            out.writeInt(targetY[ghost]);
+            out.writeInt(ghostDotsEaten[ghost]);
+            out.writeInt(ghostLimit[ghost]);
+            out.writeBoolean(ghostLimitReached[ghost]);
+        }
+    }
+
+    // ---------------------------------------------------------------- command line
+
+    // random input that holds a direction for a while and rarely restarts or toggles debug mode
+    private static int randomInput(GameRandom rnd, int previous)
+    {
+        final int direction = previous & (INPUT_UP | INPUT_DOWN | INPUT_LEFT | INPUT_RIGHT);
+        int input = direction == 0 || rnd.nextInt(30) == 0 ? 1 << rnd.nextInt(4) : direction;
+        if ( rnd.nextInt(20_000) == 0 ) {
+            input |= INPUT_RESTART;
+        }
+        if ( rnd.nextInt(5_000) == 0 ) {
+            input |= INPUT_DEBUG;
+        }
+        return input;
+    }
+
+    /**
+     * Plays the same games with a batch and with individual {@link GameState}s and
+     * compares their complete state after every tick.
+     *
+     * @return number of mismatches (0 means the engines behave identically)
+     */
+    public static int verify(Maze maze, int games, int ticks, long baseSeed)
+    {
+        final BatchEngine batch = new BatchEngine(maze, games);
+        final GameState[] states = new GameState[games];
+        final GameRandom[] inputRandoms = new GameRandom[games];
+        for (int i = 0; i < games; i++)
+        {
+            batch.reset(i, baseSeed + i);
+            states[i] = new GameState(maze, baseSeed + i);
+            inputRandoms[i] = new GameRandom(~(baseSeed + i));
+        }
+
+        final int[] inputs = new int[games];
+        final Set<PlayingField.Input> input = EnumSet.noneOf(PlayingField.Input.class);
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        int mismatches = 0;
+        try
+        {
+            for (int tick = 0; tick < ticks; tick++)
+            {
+                for (int i = 0; i < games; i++)
+                {
+                    if ( batch.isGameOver(i) ) {
+                        // keep games running
+                        batch.reset(i, baseSeed + i + tick);
+                        states[i].reset(baseSeed + i + tick);
+                    }
+                    inputs[i] = randomInput(inputRandoms[i], inputs[i]);
+                }
+                batch.tick(inputs, HeadlessRunner.TICK_SECONDS);
+                for (int i = 0; i < games; i++)
+                {
+                    input.clear();
+                    Replay.fromMask(inputs[i], input);
+                    states[i].tick(input, HeadlessRunner.TICK_SECONDS);
+
+                    expected.reset();
+                    actual.reset();
+                    states[i].writeState(new DataOutputStream(expected));
+                    batch.writeState(i, new DataOutputStream(actual));
+                    if ( ! Arrays.equals(expected.toByteArray(), actual.toByteArray()) )
+                    {
+                        if ( mismatches++ < 10 ) {
+                            System.err.println("MISMATCH: game "+i+" (seed "+states[i].getSeed()+") differs after tick "+tick);
+                        }
+                        // continue from the reference state to find more differences
+                        batch.reset(i, states[i].getSeed());
+                        states[i].reset();
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return mismatches;
+    }
+
+    private static void printUsage()
+    {
+        System.out.println("Usage: BatchEngine [options]\n\n" +
+            "--games <count>          number of games in the batch (default: 10000)\n" +
+            "--ticks <count>          number of ticks to run (default: 2000)\n" +
+            "--seed <number>          base seed for games and random input (default: 0xdeadbeef)\n" +
+            "--verify                 compare every tick against GameState instead of measuring throughput\n" +
+            "--help                   print this help");
+    }
+
+    public static void main(String[] args)
+    {
+        System.setProperty("java.awt.headless", "true");
+
+        int games = 10_000;
+        int ticks = 2000;
+        long seed = 0xdeadbeef;
+        boolean verify = false;
+        for (int i = 0; i < args.length; i++)
+        {
+            switch (args[i])
+            {
+                case "--games":  games = Integer.parseInt(args[++i]); break;
+                case "--ticks":  ticks = Integer.parseInt(args[++i]); break;
+                case "--seed":   seed = Long.decode(args[++i]); break;
+                case "--verify": verify = true; break;
+                case "--help":
+                    printUsage();
+                    return;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    printUsage();
+                    System.exit(1);
+            }
+        }
+
+        final Maze maze = Maze.getDefault();
+        if ( verify )
+        {
+            final int mismatches = verify(maze, games, ticks, seed);
+            if ( mismatches > 0 ) {
+                System.err.println("FAILED: "+mismatches+" mismatches");
+                System.exit(1);
+            }
+            System.out.println("OK: "+games+" games behaved identically for "+ticks+" ticks");
+            return;
+        }
+
+        // same games and input for both engines, two rounds so the second one runs JIT-compiled
+        final int[][] inputs = new int[ticks][games];
+        final GameRandom rnd = new GameRandom(seed);
+        for (int t = 0; t < ticks; t++) {
+            for (int i = 0; i < games; i++) {
+                inputs[t][i] = randomInput(rnd, t == 0 ? 0 : inputs[t - 1][i]) & ~(INPUT_RESTART | INPUT_DEBUG);
+            }
+        }
+        for (int round = 1; round <= 2; round++)
+        {
+            final GameState[] states = new GameState[games];
+            for (int i = 0; i < games; i++) {
+                states[i] = new GameState(maze, seed + i);
+            }
+            final Set<PlayingField.Input> input = EnumSet.noneOf(PlayingField.Input.class);
+            long start = System.nanoTime();
+            for (int t = 0; t < ticks; t++)
+            {
+                for (int i = 0; i < games; i++)
+                {
+                    input.clear();
+                    Replay.fromMask(inputs[t][i], input);
+                    states[i].tick(input, HeadlessRunner.TICK_SECONDS);
+                }
+            }
+            final long objectNanos = System.nanoTime() - start;
+
+            final BatchEngine batch = new BatchEngine(maze, games);
+            for (int i = 0; i < games; i++) {
+                batch.reset(i, seed + i);
+            }
+            start = System.nanoTime();
+            for (int t = 0; t < ticks; t++) {
+                batch.tick(inputs[t], HeadlessRunner.TICK_SECONDS);
+            }
+            final long batchNanos = System.nanoTime() - start;
+
+            final double total = (double) games * ticks;
+            System.out.println(String.format("Round %d: GameState %.0f ticks/s, BatchEngine %.0f ticks/s (%.2fx)", round,
+                total * 1e9 / objectNanos, total * 1e9 / batchNanos, objectNanos / (double) batchNanos));
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package de.codesourcery.jpacman;
+
+import java.awt.Component;
+import java.awt.event.*;
+
+/**
+ * Zoom level and scroll position of the view onto a maze.
+ *
+ * By default the whole maze is fitted into the output area, just like the fixed-size layout used to. Mazes that
+ * would end up with tiny tiles start zoomed in instead. Whenever the maze is larger than the output area, the
+ * camera keeps the player centered (offset by however far the user panned) without scrolling past the maze's edges.
+ *
+ * Zoom and pan are changed by the UI thread (see {@link Controls}), the layout is recomputed by the renderer
+ * once per frame with {@link #update(int, int, int, int, float, float)}.
+ */
+public final class Camera
+{
+    // tiles never get smaller than this, which bounds the number of chunks visible at once
+    public static final float MIN_TILE_PIXELS = 2f;
+    public static final float MAX_TILE_PIXELS = 128f;
+    // mazes that would have tiles smaller than half this size when fitted start zoomed in to it
+    public static final float DEFAULT_TILE_PIXELS = 16f;
+
+    private static final float ZOOM_FACTOR = 1.25f;
+    // tiles to pan per key press
+    private static final float PAN_TILES = 4f;
+
+    // set by the UI thread, zoom steps relative to the default zoom and pan offset in tiles
+    private int zoomSteps;
+    private float panX;
+    private float panY;
+
+    // layout computed by update()
+    private float scaleX = 1;
+    private float scaleY = 1;
+    private int scrollX;
+    private int scrollY;
+
+    /**
+     * Recomputes the layout for the next frame.
+     *
+     * @param width width of the output area
+     * @param height height of the output area
+     * @param columns width of the maze in tiles
+     * @param rows height of the maze in tiles
+     * @param focusX X coordinate (in grid units) to center on when the maze doesn't fit
+     * @param focusY Y coordinate (in grid units) to center on when the maze doesn't fit
+     */
+    public synchronized void update(int width, int height, int columns, int rows, float focusX, float focusY)
+    {
+        // leave a margin of one tile around the maze
+        final float fitX = width / (columns + 2f);
+        final float fitY = height / (rows + 2f);
+        final float fit = Math.min(fitX, fitY);
+
+        final float initial = fit < DEFAULT_TILE_PIXELS / 2 ? DEFAULT_TILE_PIXELS : fit;
+        final float min = Math.max(MIN_TILE_PIXELS, fit);
+        final float max = Math.max(MAX_TILE_PIXELS, fit);
+        float scale = initial * (float) Math.pow(ZOOM_FACTOR, zoomSteps);
+        if ( scale < min || scale > max )
+        {
+            // don't let zooming beyond the limits pile up steps
+            scale = Math.max(min, Math.min(max, scale));
+            zoomSteps = (int) Math.round(Math.log(scale / initial) / Math.log(ZOOM_FACTOR));
+        }
+
+        // at the fitted size tiles are stretched to fill the output area, they become square as the zoom grows
+        scaleX = Math.max(fitX, scale);
+        scaleY = Math.max(fitY, scale);
+
+        panX = Math.max(-columns, Math.min(columns, panX));
+        panY = Math.max(-rows, Math.min(rows, panY));
+        scrollX = scroll(width, (columns + 2) * scaleX, toWorldX(focusX + panX));
+        scrollY = scroll(height, (rows + 2) * scaleY, toWorldY(focusY + panY));
+    }
+
+    private static int scroll(int viewSize, float worldSize, int focus)
+    {
+        if ( worldSize <= viewSize ) {
+            // center
+            return Math.round((worldSize - viewSize) / 2);
+        }
+        return Math.max(0, Math.min((int) worldSize - viewSize, focus - viewSize / 2));
+    }
+
+    public synchronized void zoom(int steps) {
+        zoomSteps += steps;
+    }
+
+    /**
+     * Moves the view.
+     *
+     * @param dx tiles to move to the right
+     * @param dy tiles to move down
+     */
+    public synchronized void pan(float dx, float dy)
+    {
+        panX += dx;
+        panY += dy;
+    }
+
+    /**
+     * Returns to the default zoom, centered on the player.
+     */
+    public synchronized void reset()
+    {
+        zoomSteps = 0;
+        panX = panY = 0;
+    }
+
+    /**
+     * Returns the width of a tile in pixels.
+     */
+    public synchronized float getScaleX() {
+        return scaleX;
+    }
+
+    /**
+     * Returns the height of a tile in pixels.
+     */
+    public synchronized float getScaleY() {
+        return scaleY;
+    }
+
+    // position in the image of the whole maze
+    synchronized int toWorldX(float gridX) {
+        return (int) Math.floor( (gridX + 1) * scaleX );
+    }
+
+    synchronized int toWorldY(float gridY) {
+        return (int) Math.floor( (gridY + 1) * scaleY );
+    }
+
+    synchronized int getScrollX() {
+        return scrollX;
+    }
+
+    synchronized int getScrollY() {
+        return scrollY;
+    }
+
+    public synchronized int toViewX(float gridX) {
+        return toWorldX(gridX) - scrollX;
+    }
+
+    public synchronized int toViewY(float gridY) {
+        return toWorldY(gridY) - scrollY;
+    }
+
+    /**
+     * Returns the column of the tile under a point of the output area.
+     */
+    public synchronized int toGridX(int viewX) {
+        return (int) Math.floor( (viewX + scrollX) / scaleX - 0.5f );
+    }
+
+    /**
+     * Returns the row of the tile under a point of the output area.
+     */
+    public synchronized int toGridY(int viewY) {
+        return (int) Math.floor( (viewY + scrollY) / scaleY - 0.5f );
+    }
+
+    /**
+     * Zooms with '+'/'-' or the mouse wheel, pans with the cursor keys or by dragging
+     * with the mouse and resets with HOME.
+     */
+    public static final class Controls extends MouseAdapter implements KeyListener
+    {
+        private final Camera camera;
+        private int dragX;
+        private int dragY;
+
+        public Controls(Camera camera) {
+            this.camera = camera;
+        }
+
+        /**
+         * Registers these controls with a component.
+         */
+        public void attach(Component component)
+        {
+            component.addKeyListener(this);
+            component.addMouseListener(this);
+            component.addMouseMotionListener(this);
+            component.addMouseWheelListener(this);
+        }
+
+        @Override
+        public void keyPressed(KeyEvent e)
+        {
+            switch ( e.getKeyCode() )
+            {
+                case KeyEvent.VK_PLUS:
+                case KeyEvent.VK_ADD:
+                case KeyEvent.VK_EQUALS:
+                    camera.zoom(1);
+                    break;
+                case KeyEvent.VK_MINUS:
+                case KeyEvent.VK_SUBTRACT:
+                    camera.zoom(-1);
+                    break;
+                case KeyEvent.VK_LEFT:
+                    camera.pan(-PAN_TILES, 0);
+                    break;
+                case KeyEvent.VK_RIGHT:
+                    camera.pan(PAN_TILES, 0);
+                    break;
+                case KeyEvent.VK_UP:
+                    camera.pan(0, -PAN_TILES);
+                    break;
+                case KeyEvent.VK_DOWN:
+                    camera.pan(0, PAN_TILES);
+                    break;
+                case KeyEvent.VK_HOME:
+                    camera.reset();
+                    break;
+                default:
+            }
+        }
+
+        @Override
+        public void keyReleased(KeyEvent e) {
+        }
+
+        @Override
+        public void keyTyped(KeyEvent e) {
+        }
+
+        @Override
+        public void mouseWheelMoved(MouseWheelEvent e) {
+            camera.zoom(-e.getWheelRotation());
+        }
+
+        @Override
+        public void mousePressed(MouseEvent e)
+        {
+            dragX = e.getX();
+            dragY = e.getY();
+        }
+
+        @Override
+        public void mouseDragged(MouseEvent e)
+        {
+            camera.pan((dragX - e.getX()) / camera.getScaleX(), (dragY - e.getY()) / camera.getScaleY());
+            dragX = e.getX();
+            dragY = e.getY();
+        }
+    }
+}
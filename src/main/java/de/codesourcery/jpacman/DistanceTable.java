@@ -0,0 +1,433 @@
+package de.codesourcery.jpacman;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Shortest-path distances and next hops between the walkable tiles of a {@link NavGrid}.
+ *
+ * Computed once per maze with a breadth-first search from every walkable tile,
+ * so path-finding during the game is a table lookup. Instances are immutable.
+ *
+ * The two all-pairs tables grow with the square of the number of walkable tiles, so they're kept in
+ * buffers: tables of compiled mazes (see {@link MazeFile}) are used in place without copying.
+ * Mazes with more than {@link #MAX_ALL_PAIRS_NODES} walkable tiles get no all-pairs tables,
+ * ghosts then compare moves by straight-line distance to their target like in the arcade game
+ * (see {@link #distanceToTarget(int, int, int)}). The way back to the ghost house is always a
+ * single search from there (see {@link #nextHopHome(int)}), so memory stays linear in the maze size.
+ */
+public final class DistanceTable
+{
+    /**
+     * Largest number of walkable tiles that all-pairs tables are computed for (48 MB of tables).
+     */
+    public static final int MAX_ALL_PAIRS_NODES = 4096;
+
+    // direction preference when several moves are equally good, as in the arcade game
+    private static final NavGrid.Direction[] TIE_BREAK_ORDER = {
+        NavGrid.Direction.UP, NavGrid.Direction.LEFT, NavGrid.Direction.DOWN, NavGrid.Direction.RIGHT
+    };
+
+    private static final NavGrid.Direction[] DIRECTIONS = NavGrid.Direction.values();
+
+    private final int columns;
+    private final int rows;
+    private final int nodeCount;
+
+    // node index for each tile, -1 if the tile is not walkable
+    private final int[] nodeByTile;
+    // nearest node for each tile, walkable or not
+    private final int[] nearestNodeByTile;
+    private final int[] nodeX;
+    private final int[] nodeY;
+    // neighbours[node*4 + direction.ordinal()], -1 if there is none
+    private final int[] neighbours;
+
+    // distances[target*nodeCount + node], in tiles, null above MAX_ALL_PAIRS_NODES
+    private final ShortBuffer distances;
+    // nextHop[target*nodeCount + node], Direction ordinal or -1 if node == target, null above MAX_ALL_PAIRS_NODES
+    private final ByteBuffer nextHop;
+
+    // the ghost house (GameState#GHOST_SPAWN_X/Y) and the distance of every node from it, Integer.MAX_VALUE if not connected
+    private final int homeNode;
+    private final int[] homeDistances;
+
+    public DistanceTable(NavGrid navGrid)
+    {
+        this.columns = navGrid.getColumns();
+        this.rows = navGrid.getRows();
+
+        nodeByTile = new int[columns * rows];
+        Arrays.fill(nodeByTile, -1);
+        int count = 0;
+        for (int y = 0; y < rows; y++)
+        {
+            for (int x = 0; x < columns; x++)
+            {
+                if ( navGrid.getDirections(x, y) != 0 || navGrid.getTunnelDirections(x, y) != 0 ) {
+                    nodeByTile[y * columns + x] = count++;
+                }
+            }
+        }
+        nodeCount = count;
+        nodeX = new int[count];
+        nodeY = new int[count];
+        neighbours = new int[count * 4];
+        Arrays.fill(neighbours, -1);
+
+        for (int y = 0; y < rows; y++)
+        {
+            for (int x = 0; x < columns; x++)
+            {
+                final int node = nodeByTile[y * columns + x];
+                if ( node == -1 ) {
+                    continue;
+                }
+                nodeX[node] = x;
+                nodeY[node] = y;
+                final int dirs = navGrid.getDirections(x, y);
+                final int tunnels = navGrid.getTunnelDirections(x, y);
+                for (NavGrid.Direction d : DIRECTIONS)
+                {
+                    int neighbour = -1;
+                    if ( (dirs & d.mask) != 0 ) {
+                        neighbour = nodeAt(x + d.dx, y + d.dy);
+                    }
+                    else if ( (tunnels & d.mask) != 0 )
+                    {
+                        final NavGrid.Tunnel tunnel = navGrid.getTunnel(x, y, d);
+                        final Line exit = navGrid.getLine(tunnel.exitLineId);
+                        neighbour = nodeAt(exit.gridX(tunnel.exitPosition), exit.gridY(tunnel.exitPosition));
+                    }
+                    neighbours[node * 4 + d.ordinal()] = neighbour;
+                }
+            }
+        }
+
+        if ( count <= MAX_ALL_PAIRS_NODES )
+        {
+            final short[] distances = new short[count * count];
+            final byte[] nextHop = new byte[count * count];
+            final int[] queue = new int[count];
+            final int[] row = new int[count];
+            for (int target = 0; target < count; target++) {
+                search(target, queue, row, distances, nextHop);
+            }
+            this.distances = ShortBuffer.wrap(distances);
+            this.nextHop = ByteBuffer.wrap(nextHop);
+        }
+        else
+        {
+            this.distances = null;
+            this.nextHop = null;
+        }
+
+        nearestNodeByTile = computeNearestNodes();
+        homeNode = nodeAt(GameState.GHOST_SPAWN_X, GameState.GHOST_SPAWN_Y);
+        homeDistances = computeHomeDistances();
+    }
+
+    // see readCompiled()
+    private DistanceTable(int columns, int rows, int nodeCount, int[] nodeByTile, int[] nearestNodeByTile,
+                          int[] nodeX, int[] nodeY, int[] neighbours, ShortBuffer distances, ByteBuffer nextHop)
+    {
+        this.columns = columns;
+        this.rows = rows;
+        this.nodeCount = nodeCount;
+        this.nodeByTile = nodeByTile;
+        this.nearestNodeByTile = nearestNodeByTile;
+        this.nodeX = nodeX;
+        this.nodeY = nodeY;
+        this.neighbours = neighbours;
+        this.distances = distances;
+        this.nextHop = nextHop;
+        this.homeNode = nodeAt(GameState.GHOST_SPAWN_X, GameState.GHOST_SPAWN_Y);
+        this.homeDistances = computeHomeDistances();
+    }
+
+    // fills the all-pairs table rows of a target node
+    private void search(int target, int[] queue, int[] row, short[] distances, byte[] nextHop)
+    {
+        search(target, queue, row);
+        final int offset = target * nodeCount;
+        for (int node = 0; node < nodeCount; node++)
+        {
+            final boolean connected = row[node] != Integer.MAX_VALUE;
+            distances[offset + node] = connected ? (short) row[node] : Short.MAX_VALUE;
+            nextHop[offset + node] = connected ? (byte) firstStep(node, row) : -1;
+        }
+    }
+
+    // breadth-first search outwards from a target node, links are symmetric
+    private void search(int target, int[] queue, int[] distances)
+    {
+        Arrays.fill(distances, Integer.MAX_VALUE);
+        distances[target] = 0;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = target;
+        while ( head < tail )
+        {
+            final int node = queue[head++];
+            final int dist = distances[node];
+            for (NavGrid.Direction d : DIRECTIONS)
+            {
+                final int neighbour = neighbours[node * 4 + d.ordinal()];
+                if ( neighbour != -1 && distances[neighbour] == Integer.MAX_VALUE )
+                {
+                    distances[neighbour] = dist + 1;
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+    }
+
+    // direction ordinal of the first step towards the target of a search, -1 at the target
+    private int firstStep(int node, int[] distances)
+    {
+        for (NavGrid.Direction d : TIE_BREAK_ORDER)
+        {
+            final int neighbour = neighbours[node * 4 + d.ordinal()];
+            if ( neighbour != -1 && distances[neighbour] == distances[node] - 1 ) {
+                return d.ordinal();
+            }
+        }
+        return -1;
+    }
+
+    private int[] computeHomeDistances()
+    {
+        final int[] result = new int[nodeCount];
+        if ( homeNode == -1 ) {
+            Arrays.fill(result, Integer.MAX_VALUE);
+        } else {
+            search(homeNode, new int[nodeCount], result);
+        }
+        return result;
+    }
+
+    // multi-source breadth-first search over all tiles, ignoring walls
+    private int[] computeNearestNodes()
+    {
+        final int[] result = new int[columns * rows];
+        Arrays.fill(result, -1);
+        final int[] queue = new int[columns * rows];
+        int head = 0;
+        int tail = 0;
+        for (int tile = 0; tile < result.length; tile++)
+        {
+            if ( nodeByTile[tile] != -1 )
+            {
+                result[tile] = nodeByTile[tile];
+                queue[tail++] = tile;
+            }
+        }
+        while ( head < tail )
+        {
+            final int tile = queue[head++];
+            final int x = tile % columns;
+            final int y = tile / columns;
+            for (NavGrid.Direction d : TIE_BREAK_ORDER)
+            {
+                final int nx = x + d.dx;
+                final int ny = y + d.dy;
+                if ( nx >= 0 && ny >= 0 && nx < columns && ny < rows && result[ny * columns + nx] == -1 )
+                {
+                    result[ny * columns + nx] = result[tile];
+                    queue[tail++] = ny * columns + nx;
+                }
+            }
+        }
+        return result;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Returns the node of a walkable tile.
+     *
+     * @return node or -1 if the tile is not walkable
+     */
+    public int nodeAt(int x, int y)
+    {
+        if ( x < 0 || y < 0 || x >= columns || y >= rows ) {
+            return -1;
+        }
+        return nodeByTile[y * columns + x];
+    }
+
+    /**
+     * Returns the walkable node closest to any tile coordinate, tiles outside
+     * of the maze are clamped to its border first.
+     */
+    public int nearestNode(int x, int y)
+    {
+        final int cx = Math.max(0, Math.min(columns - 1, x));
+        final int cy = Math.max(0, Math.min(rows - 1, y));
+        return nearestNodeByTile[cy * columns + cx];
+    }
+
+    public int nodeX(int node) {
+        return nodeX[node];
+    }
+
+    public int nodeY(int node) {
+        return nodeY[node];
+    }
+
+    /**
+     * Returns the node reached by moving one tile from a node in a given direction (following tunnels).
+     *
+     * @return node or -1 if there's no way to go
+     */
+    public int neighbour(int node, NavGrid.Direction direction) {
+        return neighbours[node * 4 + direction.ordinal()];
+    }
+
+    /**
+     * Returns whether this maze is small enough to have all-pairs tables,
+     * see {@link #distance(int, int)} and {@link #nextHop(int, int)}.
+     */
+    public boolean hasAllPairs() {
+        return distances != null;
+    }
+
+    /**
+     * Returns the length of the shortest path between two nodes in tiles,
+     * or {@link Short#MAX_VALUE} if they're not connected.
+     *
+     * @throws IllegalStateException if there are no all-pairs tables
+     */
+    public int distance(int from, int to) {
+        return checkAllPairs().get(to * nodeCount + from);
+    }
+
+    /**
+     * Returns the first step on the shortest path between two nodes.
+     *
+     * @return direction or <code>null</code> if the nodes are the same or not connected
+     * @throws IllegalStateException if there are no all-pairs tables
+     */
+    public NavGrid.Direction nextHop(int from, int to)
+    {
+        checkAllPairs();
+        final int dir = nextHop.get(to * nodeCount + from);
+        return dir == -1 ? null : DIRECTIONS[dir];
+    }
+
+    private ShortBuffer checkAllPairs()
+    {
+        if ( distances == null ) {
+            throw new IllegalStateException("No all-pairs tables for mazes with more than "+MAX_ALL_PAIRS_NODES+" walkable tiles");
+        }
+        return distances;
+    }
+
+    /**
+     * Returns how far a node is from a target tile, for comparing moves towards it.
+     *
+     * With all-pairs tables this is the length of the shortest path to the node nearest to the target
+     * (see {@link #nearestNode(int, int)}), otherwise the squared straight-line distance to the target tile.
+     */
+    public long distanceToTarget(int from, int targetX, int targetY)
+    {
+        if ( distances != null ) {
+            return distances.get(nearestNode(targetX, targetY) * nodeCount + from);
+        }
+        final long dx = nodeX[from] - targetX;
+        final long dy = nodeY[from] - targetY;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Returns the first step on the shortest path from a node to the ghost house.
+     *
+     * @return direction or <code>null</code> if the node is the ghost house or not connected to it
+     */
+    public NavGrid.Direction nextHopHome(int from)
+    {
+        if ( homeDistances[from] == Integer.MAX_VALUE ) {
+            return null;
+        }
+        final int dir = firstStep(from, homeDistances);
+        return dir == -1 ? null : DIRECTIONS[dir];
+    }
+
+    /**
+     * Writes the tables, see {@link MazeFile}.
+     * <pre>
+     * int columns, int rows, int nodeCount, int[tiles] nodeByTile, int[tiles] nearestNodeByTile,
+     * int[nodes] nodeX, int[nodes] nodeY, int[nodes * 4] neighbours,
+     * int allPairs (1 if the all-pairs tables follow, 0 for mazes with more than MAX_ALL_PAIRS_NODES walkable tiles),
+     * short[nodes * nodes] distances (aligned), byte[nodes * nodes] nextHop (aligned)
+     * </pre>
+     */
+    void writeCompiled(MazeFile.Output out)
+    {
+        out.putInt(columns);
+        out.putInt(rows);
+        out.putInt(nodeCount);
+        out.putInts(nodeByTile);
+        out.putInts(nearestNodeByTile);
+        out.putInts(nodeX);
+        out.putInts(nodeY);
+        out.putInts(neighbours);
+        out.putInt(hasAllPairs() ? 1 : 0);
+        out.align();
+        if ( hasAllPairs() )
+        {
+            out.putShorts(distances);
+            out.align();
+            out.putBytes(nextHop);
+            out.align();
+        }
+    }
+
+    static DistanceTable readCompiled(ByteBuffer in, NavGrid navGrid)
+    {
+        final int columns = in.getInt();
+        final int rows = in.getInt();
+        final int nodeCount = in.getInt();
+        final int tiles = columns * rows;
+        if ( columns != navGrid.getColumns() || rows != navGrid.getRows() || nodeCount < 0 || nodeCount > tiles ) {
+            throw new IllegalArgumentException("Distance table does not match nav grid");
+        }
+        final int[] nodeByTile = MazeFile.getInts(in, tiles);
+        final int[] nearestNodeByTile = MazeFile.getInts(in, tiles);
+        final int[] nodeX = MazeFile.getInts(in, nodeCount);
+        final int[] nodeY = MazeFile.getInts(in, nodeCount);
+        final int[] neighbours = MazeFile.getInts(in, nodeCount * 4);
+        checkNodes(nodeByTile, nodeCount);
+        checkNodes(nearestNodeByTile, nodeCount);
+        checkNodes(neighbours, nodeCount);
+        final int allPairs = in.getInt();
+        if ( allPairs != (nodeCount <= MAX_ALL_PAIRS_NODES ? 1 : 0) ) {
+            throw new IllegalArgumentException("Invalid all-pairs flag "+allPairs+" for "+nodeCount+" walkable tiles");
+        }
+        MazeFile.align(in);
+        ShortBuffer distances = null;
+        ByteBuffer nextHop = null;
+        if ( allPairs == 1 )
+        {
+            distances = MazeFile.slice(in, 2 * nodeCount * nodeCount).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+            MazeFile.align(in);
+            nextHop = MazeFile.slice(in, nodeCount * nodeCount);
+            MazeFile.align(in);
+        }
+        return new DistanceTable(columns, rows, nodeCount, nodeByTile, nearestNodeByTile, nodeX, nodeY, neighbours, distances, nextHop);
+    }
+
+    private static void checkNodes(int[] nodes, int nodeCount)
+    {
+        for (int node : nodes)
+        {
+            if ( node < -1 || node >= nodeCount ) {
+                throw new IllegalArgumentException("Invalid node: "+node);
+            }
+        }
+    }
+}
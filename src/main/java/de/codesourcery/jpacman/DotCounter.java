@@ -1,39 +1,59 @@
 package de.codesourcery.jpacman;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class DotCounter
 {
     public int dotsEaten;
     private int limit;
     public boolean limitReached;
-    public Runnable limitAction;
-
-    public DotCounter() {
-    }
-
-    public DotCounter(Runnable limitAction) {
-        this.limitAction = limitAction;
-    }
 
     public void setLimit(int limit) {
         this.limit = limit;
         this.limitReached = false;
     }
 
-    public void dotEaten()
+    /**
+     * Counts an eaten dot.
+     *
+     * @return <code>true</code> if this dot made the counter reach its limit
+     */
+    public boolean dotEaten()
     {
         dotsEaten++;
         if ( dotsEaten >= limit && ! limitReached )
         {
             limitReached=true;
-            if ( limitAction != null )
-            {
-                limitAction.run();
-            }
+            return true;
         }
+        return false;
     }
 
     public void reset() {
         dotsEaten = 0;
         limitReached = false;
     }
+
+    public void copyFrom(DotCounter other)
+    {
+        dotsEaten = other.dotsEaten;
+        limit = other.limit;
+        limitReached = other.limitReached;
+    }
+
+    void writeState(DataOutput out) throws IOException
+    {
+        out.writeInt(dotsEaten);
+        out.writeInt(limit);
+        out.writeBoolean(limitReached);
+    }
+
+    void readState(DataInput in) throws IOException
+    {
+        dotsEaten = in.readInt();
+        limit = in.readInt();
+        limitReached = in.readBoolean();
+    }
 }
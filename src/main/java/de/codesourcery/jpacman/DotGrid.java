@@ -2,41 +2,72 @@ package de.codesourcery.jpacman;
 
 import java.awt.Point;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 public class DotGrid
 {
-    public final List<Dot> dots = new ArrayList<>();
+    // return values of consume()
+    public static final int NONE = 0;
+    public static final int DOT = 1;
+    public static final int ENERGIZER = 2;
 
-    public static final class Dot extends Point
-    {
-        public final boolean isEnergizer;
-        public boolean isEaten;
+    private final Layout layout;
 
-        public Dot(int x,int y,boolean isEnergizer) {
-            super(x,y);
-            this.isEnergizer = isEnergizer;
-        }
-    }
+    public final int columns;
+    public final int rows;
 
-    public DotGrid()
-    {
-        reset();
-    }
+    // bit set == dot not eaten yet, indexed by tileIndex(x,y)
+    private final long[] dots;
+    private int remainingCount;
 
-    public boolean allEaten()
+    /**
+     * Immutable dot layout, shared by all games played on the same {@link Maze}.
+     */
+    public static final class Layout
     {
-        return dots.stream().allMatch(x -> x.isEaten);
-    }
+        public final int columns;
+        public final int rows;
+        private final long[] dots;
+        private final long[] energizers;
+        public final int dotCount;
 
-    public void reset()
-    {
-        dots.clear();
-        try ( final InputStream file = NavGrid.class.getResourceAsStream("/dots.txt") ) {
-            if ( file == null ) {
-                throw new RuntimeException("Failed to load dots");
+        private Layout(int columns, int rows, long[] dots, long[] energizers, int dotCount)
+        {
+            this.columns = columns;
+            this.rows = rows;
+            this.dots = dots;
+            this.energizers = energizers;
+            this.dotCount = dotCount;
+        }
+
+        /**
+         * Parses a classpath resource with one dot per row in the form <code>x,y</code>,
+         * energizers have a third column.
+         */
+        public static Layout load(String resource)
+        {
+            try ( final InputStream file = DotGrid.class.getResourceAsStream(resource) ) {
+                if ( file == null ) {
+                    throw new RuntimeException("Failed to load dots");
+                }
+                return load(file);
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
             }
+        }
+
+        /**
+         * Parses dots in the format of {@link #load(String)}.
+         */
+        public static Layout load(InputStream file) throws IOException
+        {
+            final List<int[]> parsed = new ArrayList<>();
+            int maxX = 0;
+            int maxY = 0;
             final BufferedReader reader = new BufferedReader(new InputStreamReader(file) );
             String line;
             while ( ( line = reader.readLine() ) != null) {
@@ -48,28 +79,262 @@ public class DotGrid
                     System.out.println("Energizer @ "+x+","+y);
                     isEnergizer = true;
                 }
-                dots.add(new Dot(x, y, isEnergizer));
+                parsed.add( new int[] { x, y, isEnergizer ? 1 : 0 } );
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+            }
+
+            final int columns = maxX + 1;
+            final int rows = maxY + 1;
+            final long[] dots = new long[wordCount(columns * rows)];
+            final long[] energizers = new long[dots.length];
+            int dotCount = 0;
+            for (int[] dot : parsed)
+            {
+                final int tile = dot[1] * columns + dot[0];
+                if ( ! isSet(dots, tile) )
+                {
+                    dots[tile >>> 6] |= 1L << tile;
+                    dotCount++;
+                }
+                if ( dot[2] != 0 ) {
+                    energizers[tile >>> 6] |= 1L << tile;
+                }
             }
+            return new Layout(columns, rows, dots, energizers, dotCount);
         }
-        catch (IOException e)
+
+        /**
+         * Returns the number of <code>long</code>s in a dot bitset for this layout.
+         */
+        public int getWordCount() {
+            return dots.length;
+        }
+
+        public boolean isEnergizer(int x, int y)
         {
-            throw new RuntimeException(e);
+            return x >= 0 && y >= 0 && x < columns && y < rows && isSet(energizers, y * columns + x);
+        }
+
+        // see Maze#fingerprint
+        long hash(long hash)
+        {
+            hash = Maze.hash(hash, columns);
+            hash = Maze.hash(hash, rows);
+            for (int i = 0; i < dots.length; i++)
+            {
+                hash = Maze.hash(hash, dots[i]);
+                hash = Maze.hash(hash, energizers[i]);
+            }
+            return hash;
+        }
+
+        /**
+         * Writes this layout, see {@link MazeFile}.
+         * <pre>
+         * int columns, int rows, int dotCount, int words, long[words] dots, long[words] energizers
+         * </pre>
+         */
+        void writeCompiled(MazeFile.Output out)
+        {
+            out.putInt(columns);
+            out.putInt(rows);
+            out.putInt(dotCount);
+            out.putInt(dots.length);
+            out.putLongs(dots);
+            out.putLongs(energizers);
+        }
+
+        static Layout readCompiled(ByteBuffer in)
+        {
+            final int columns = in.getInt();
+            final int rows = in.getInt();
+            final int dotCount = in.getInt();
+            final int words = in.getInt();
+            if ( columns < 0 || rows < 0 || words != wordCount(Math.multiplyExact(columns, rows)) ) {
+                throw new IllegalArgumentException("Invalid dot layout "+columns+"x"+rows);
+            }
+            final long[] dots = MazeFile.getLongs(in, words);
+            final long[] energizers = MazeFile.getLongs(in, words);
+            int count = 0;
+            for (long word : dots) {
+                count += Long.bitCount(word);
+            }
+            if ( count != dotCount ) {
+                throw new IllegalArgumentException("Dot count mismatch");
+            }
+            return new Layout(columns, rows, dots, energizers, dotCount);
         }
     }
 
-    public Dot consume(Point p)
+    public DotGrid(Layout layout)
     {
-        for ( Dot d : dots )
+        this.layout = layout;
+        this.columns = layout.columns;
+        this.rows = layout.rows;
+        this.dots = new long[layout.dots.length];
+        reset();
+    }
+
+    private static int wordCount(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    private static boolean isSet(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private boolean isOnGrid(int x, int y) {
+        return x >= 0 && y >= 0 && x < columns && y < rows;
+    }
+
+    public boolean allEaten()
+    {
+        return remainingCount == 0;
+    }
+
+    public int getRemainingCount() {
+        return remainingCount;
+    }
+
+    public int getTotalCount() {
+        return layout.dotCount;
+    }
+
+    public void reset()
+    {
+        System.arraycopy(layout.dots, 0, dots, 0, dots.length);
+        remainingCount = layout.dotCount;
+    }
+
+    public int tileX(int tile) {
+        return tile % columns;
+    }
+
+    public int tileY(int tile) {
+        return tile / columns;
+    }
+
+    /**
+     * Returns the first tile index greater than or equal to <code>fromTile</code>
+     * that still holds a dot.
+     *
+     * @return tile index or -1 if there are no more dots
+     */
+    public int nextDot(int fromTile)
+    {
+        return nextSetBit(dots, fromTile);
+    }
+
+    static int nextSetBit(long[] bits, int fromIndex)
+    {
+        int word = fromIndex >>> 6;
+        if ( word >= bits.length ) {
+            return -1;
+        }
+        long current = bits[word] & (-1L << fromIndex);
+        while ( true )
         {
-            if ( d.x == p.x && d.y == p.y )
-            {
-                if ( d.isEaten ) {
-                    return null;
-                }
-                d.isEaten = true;
-                return d;
+            if ( current != 0 ) {
+                return (word << 6) + Long.numberOfTrailingZeros(current);
+            }
+            if ( ++word == bits.length ) {
+                return -1;
             }
+            current = bits[word];
+        }
+    }
+
+    /**
+     * Returns the number of <code>long</code>s needed to hold a copy of the dot bitset.
+     *
+     * @see #copyTo(long[])
+     */
+    public int getWordCount() {
+        return dots.length;
+    }
+
+    /**
+     * Returns 64 bits of the bitset of remaining dots.
+     *
+     * @see #copyTo(long[])
+     */
+    public long getWord(int index) {
+        return dots[index];
+    }
+
+    /**
+     * Copies the bitset of remaining dots (one bit per tile index).
+     */
+    public void copyTo(long[] destination)
+    {
+        System.arraycopy(dots, 0, destination, 0, dots.length);
+    }
+
+    /**
+     * Copies the remaining dots of another grid with the same layout.
+     */
+    public void copyFrom(DotGrid other)
+    {
+        if ( other.layout != layout ) {
+            throw new IllegalArgumentException("Dot grids have different layouts");
+        }
+        System.arraycopy(other.dots, 0, dots, 0, dots.length);
+        remainingCount = other.remainingCount;
+    }
+
+    void writeState(DataOutput out) throws IOException
+    {
+        for (long word : dots) {
+            out.writeLong(word);
+        }
+    }
+
+    void readState(DataInput in) throws IOException
+    {
+        int remaining = 0;
+        for (int i = 0; i < dots.length; i++)
+        {
+            // ignore bits for tiles that never had a dot
+            dots[i] = in.readLong() & layout.dots[i];
+            remaining += Long.bitCount(dots[i]);
+        }
+        remainingCount = remaining;
+    }
+
+    public boolean hasDot(int x, int y)
+    {
+        return isOnGrid(x, y) && isSet(dots, y * columns + x);
+    }
+
+    public boolean isEnergizer(int x, int y)
+    {
+        return layout.isEnergizer(x, y);
+    }
+
+    public int consume(Point p)
+    {
+        return consume(p.x, p.y);
+    }
+
+    /**
+     * Eats the dot at a given tile (if any).
+     *
+     * @return {@link #NONE} if there was no dot left at this location, {@link #DOT} or {@link #ENERGIZER}
+     */
+    public int consume(int x, int y)
+    {
+        if ( ! isOnGrid(x, y) ) {
+            return NONE;
+        }
+        final int tile = y * columns + x;
+        final int word = tile >>> 6;
+        final long mask = 1L << tile;
+        if ( (dots[word] & mask) == 0 ) {
+            return NONE;
         }
-        return null;
+        dots[word] &= ~mask;
+        remainingCount--;
+        return (layout.energizers[word] & mask) != 0 ? ENERGIZER : DOT;
     }
 }
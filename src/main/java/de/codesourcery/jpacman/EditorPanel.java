@@ -15,6 +15,8 @@ public class EditorPanel extends AbstractPanel
     private static final boolean DRAW_GRID = false;
 
     private List<Line> lines = new ArrayList<>();
+    // hit-testing for 'lines'
+    private final LineIndex lineIndex = new LineIndex();
     private List<Line> background = new ArrayList<>();
     private List<Point> dots = new ArrayList<>();
 
@@ -25,7 +27,9 @@ public class EditorPanel extends AbstractPanel
 
     public EditorPanel() throws IOException
     {
+        super(Maze.getDefault());
         background.addAll( loadLines() );
+        lineIndex.setLines(lines);
 
         // load dots
         File file = new File("/home/tobi/intellij_workspace/jpackman/src/main/resources/navgrid.txt");
@@ -45,19 +49,15 @@ public class EditorPanel extends AbstractPanel
                     if ( e.getKeyCode() == KeyEvent.VK_DELETE )
                     {
                         lines.remove( highlighted );
+                        lineIndex.invalidate();
                         highlighted = null;
                         repaint();
                     }
                 } else if ( e.getKeyCode() == KeyEvent.VK_O ) {
-                    List<Line> in = new ArrayList<>(lines);
-                    System.out.println( in.size()+" lines in.");
-                    List<Line> out;
-                    do
-                    {
-                        out = optimize(in);
-                    } while( out.size() < in.size() );
-                    System.out.println( out.size()+" lines out.");
-                    lines = out;
+                    System.out.println( lines.size()+" lines in.");
+                    lines = optimize(lines);
+                    lineIndex.setLines(lines);
+                    System.out.println( lines.size()+" lines out.");
                     repaint();
                 } else if ( e.getKeyCode() == KeyEvent.VK_P ) {
                     System.out.println("-------------------------");
@@ -90,11 +90,12 @@ public class EditorPanel extends AbstractPanel
                     else
                     {
                         lines.add(new Line(lineStart, lineEnd));
+                        lineIndex.invalidate();
                         lineStart = null;
                     }
                 } else if ( e.getButton() == MouseEvent.BUTTON3 ) {
                     Point p = viewToGrid(e.getPoint());
-                    if ( lines.stream().noneMatch(x -> x.contains(p.x,p.y ) ) )
+                    if ( lineIndex.findFirst(p.x, p.y, p.x, p.y, x -> x.contains(p.x, p.y)) == null )
                     {
                         if (dots.contains(p))
                         {
@@ -119,9 +120,13 @@ public class EditorPanel extends AbstractPanel
                     lineEnd = viewToGrid(e.getPoint());
                     repaint();
                 } else {
-                    final Optional<Line> line = getLineFor(e.getPoint());
-                    highlighted = line.orElse(null);
-                    repaint();
+                    final Line line = getLineFor(e.getPoint()).orElse(null);
+                    if ( line != highlighted )
+                    {
+                        // repainting thousands of lines on every move is what makes hovering slow
+                        highlighted = line;
+                        repaint();
+                    }
                 }
             }
         };
@@ -129,54 +134,97 @@ public class EditorPanel extends AbstractPanel
         addMouseMotionListener(adapter);
     }
 
-    public static List<Line> loadLines() throws IOException
+    public static List<Line> loadLines()
     {
-        List<Line> lines = new ArrayList<>();
-        File file = new File("/home/tobi/intellij_workspace/jpacman/src/main/resources/lines.txt");
-        List<String> rows = Files.readAllLines(file.toPath());
-        for ( String l : rows ) {
-            final String[] parts = l.split(",");
-            lines.add( new Line( new Point(Integer.parseInt(parts[0]),
-                Integer.parseInt(parts[1])),
-                new Point(Integer.parseInt(parts[2]),
-                    Integer.parseInt(parts[3]))));
+        return new ArrayList<>( Maze.getDefault().walls );
+    }
+
+    /**
+     * Merges collinear lines that touch or overlap.
+     *
+     * Sorts horizontal lines by row and vertical lines by column, then sweeps each row/column
+     * once, so a single O(n log n) pass reaches the fixpoint.
+     */
+    static List<Line> optimize(List<Line> input)
+    {
+        final List<Line> horizontal = new ArrayList<>();
+        final List<Line> vertical = new ArrayList<>();
+        for (Line l : input) {
+            (l.isHoriz() ? horizontal : vertical).add(l);
         }
-        return lines;
+        final List<Line> result = new ArrayList<>(input.size());
+        sweep(horizontal, true, result);
+        sweep(vertical, false, result);
+        return result;
     }
 
-    private static List<Line> optimize(List<Line> input)
+    // horizontal lines: row = y, interval = [min x, max x], the other way round for vertical lines
+    private static void sweep(List<Line> lines, boolean horizontal, List<Line> result)
     {
-        List<Line> result = new ArrayList<>();
-        while ( ! input.isEmpty() ) {
-            Line l = input.remove(0);
-            for (Iterator<Line> iterator = input.iterator(); iterator.hasNext(); )
+        final Comparator<Line> byRow = Comparator.comparingInt(l -> row(l, horizontal));
+        lines.sort(byRow.thenComparingInt(l -> low(l, horizontal)));
+
+        int start = 0;
+        int high = 0;
+        for (int i = 0, len = lines.size(); i <= len; i++)
+        {
+            final Line l = i < len ? lines.get(i) : null;
+            if ( i > start && l != null && row(l, horizontal) == row(lines.get(start), horizontal) && low(l, horizontal) <= high )
             {
-                Line l2 = iterator.next();
-                if ( l.canBeMerged(l2 ) ) {
-                    l = l.merge(l2);
-                    iterator.remove();
-                }
+                // touches or overlaps the current run
+                high = Math.max(high, high(l, horizontal));
+                continue;
+            }
+            if ( i - start == 1 ) {
+                // nothing merged, keep the line as it was drawn
+                result.add(lines.get(start));
+            }
+            else if ( i > start )
+            {
+                final int row = row(lines.get(start), horizontal);
+                final int low = low(lines.get(start), horizontal);
+                result.add(horizontal ? new Line(new Point(low, row), new Point(high, row)) :
+                                        new Line(new Point(row, low), new Point(row, high)));
+            }
+            if ( l != null )
+            {
+                start = i;
+                high = high(l, horizontal);
             }
-            result.add(l);
         }
-        return result;
+    }
+
+    private static int row(Line l, boolean horizontal) {
+        return horizontal ? l.start.y : l.start.x;
+    }
+
+    private static int low(Line l, boolean horizontal) {
+        return horizontal ? Math.min(l.start.x, l.end.x) : Math.min(l.start.y, l.end.y);
+    }
+
+    private static int high(Line l, boolean horizontal) {
+        return horizontal ? Math.max(l.start.x, l.end.x) : Math.max(l.start.y, l.end.y);
     }
 
     private Optional<Line> getLineFor(Point pWorld)
     {
-        Line result = null;
-        for ( Line l : lines )
-        {
-            final Point pMin = gridToView(l.min() );
-            final Point pMax = gridToView(l.max() );
-            boolean selected;
-            selected = pWorld.x >= pMin.x-SNAP_RADIUS && pWorld.x <= pMax.x+SNAP_RADIUS &&
-                           pWorld.y >= pMin.y-SNAP_RADIUS && pWorld.y <= pMax.y+SNAP_RADIUS;
-            if ( selected ) {
-                return Optional.of(l);
-            }
+        if ( stepX <= 0 || stepY <= 0 ) {
+            return Optional.empty();
         }
-        return Optional.ofNullable(result);
+        // tiles that may be within the snap radius, the exact test is done in view coordinates
+        final int x0 = (int) Math.floor( (pWorld.x - SNAP_RADIUS - offsetX) / stepX ) - 1;
+        final int x1 = (int) Math.ceil( (pWorld.x + SNAP_RADIUS - offsetX) / stepX ) + 1;
+        final int y0 = (int) Math.floor( (pWorld.y - SNAP_RADIUS - offsetY) / stepY ) - 1;
+        final int y1 = (int) Math.ceil( (pWorld.y + SNAP_RADIUS - offsetY) / stepY ) + 1;
+        return Optional.ofNullable( lineIndex.findFirst(x0, y0, x1, y1, l -> isNear(l, pWorld)) );
+    }
+
+    private boolean isNear(Line l, Point pWorld)
+    {
+        final Point pMin = gridToView(l.min() );
+        final Point pMax = gridToView(l.max() );
+        return pWorld.x >= pMin.x-SNAP_RADIUS && pWorld.x <= pMax.x+SNAP_RADIUS &&
+               pWorld.y >= pMin.y-SNAP_RADIUS && pWorld.y <= pMax.y+SNAP_RADIUS;
     }
 
     @Override
@@ -190,10 +238,10 @@ public class EditorPanel extends AbstractPanel
         if ( DRAW_GRID )
         {
             g.setColor(Color.GRAY);
-            for (int y = 0; y < HEIGHT; y++)
+            for (int y = 0; y < rows; y++)
             {
                 int py = Math.round( offsetY + y * stepY );
-                for (int x = 0; x < WIDTH; x++)
+                for (int x = 0; x < columns; x++)
                 {
                     int px = Math.round( offsetX + x * stepX );
                     g.drawRect(px - 1, py - 1, 2, 2);
@@ -0,0 +1,173 @@
+package de.codesourcery.jpacman;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runtime cost of a running game: tick and paint durations, allocations per tick,
+ * tick rate and entity counts.
+ *
+ * Recording never locks or allocates, so metrics can stay enabled in production.
+ * Ticks must be recorded by a single thread, paints may be recorded by any thread.
+ */
+public final class EngineMetrics implements EngineMetricsMXBean
+{
+    private static final long WINDOW_NANOS = 1_000_000_000L;
+
+    public final LatencyHistogram tickNanos = new LatencyHistogram();
+    public final LatencyHistogram paintNanos = new LatencyHistogram();
+
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong allocationSamples = new AtomicLong();
+
+    // ticks per second over the last complete one-second window
+    private volatile double ticksPerSecond;
+    private long windowStart;
+    private long windowTicks;
+
+    private volatile int livingGhosts;
+    private volatile int remainingDots;
+
+    /**
+     * Records a tick.
+     *
+     * @param startNanos {@link System#nanoTime()} when the tick started
+     * @param endNanos {@link System#nanoTime()} when the tick ended
+     * @param allocated bytes allocated during the tick or a negative value if unknown
+     */
+    public void recordTick(long startNanos, long endNanos, long allocated)
+    {
+        tickNanos.record(endNanos - startNanos);
+        if ( allocated >= 0 )
+        {
+            allocatedBytes.addAndGet(allocated);
+            allocationSamples.incrementAndGet();
+        }
+
+        windowTicks++;
+        if ( windowStart == 0 ) {
+            windowStart = endNanos;
+        }
+        else if ( endNanos - windowStart >= WINDOW_NANOS )
+        {
+            ticksPerSecond = windowTicks * 1_000_000_000d / (endNanos - windowStart);
+            windowStart = endNanos;
+            windowTicks = 0;
+        }
+    }
+
+    public void recordPaint(long startNanos, long endNanos) {
+        paintNanos.record(endNanos - startNanos);
+    }
+
+    /**
+     * Samples entity counts from a game state, must be called by the thread ticking the game.
+     */
+    public void updateCounts(GameState state)
+    {
+        int living = 0;
+        for (int i = 0, len = state.ghosts.size(); i < len; i++) {
+            if ( state.ghosts.get(i).isAlive() ) {
+                living++;
+            }
+        }
+        livingGhosts = living;
+        remainingDots = state.dots.getRemainingCount();
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server.
+     *
+     * @param name value of the <code>name</code> key of the MBean's object name
+     */
+    public void register(String name)
+    {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName(name));
+        } catch (JMException e) {
+            throw new RuntimeException("Failed to register metrics MBean '"+name+"'", e);
+        }
+    }
+
+    public static ObjectName objectName(String name) throws JMException
+    {
+        return new ObjectName("de.codesourcery.jpacman:type=EngineMetrics,name=" + ObjectName.quote(name));
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000d;
+    }
+
+    @Override
+    public long getTickCount() {
+        return tickNanos.getCount();
+    }
+
+    @Override
+    public double getTickP50Micros() {
+        return micros(tickNanos.getPercentile(50));
+    }
+
+    @Override
+    public double getTickP99Micros() {
+        return micros(tickNanos.getPercentile(99));
+    }
+
+    @Override
+    public double getTickMaxMicros() {
+        return micros(tickNanos.getMax());
+    }
+
+    @Override
+    public long getPaintCount() {
+        return paintNanos.getCount();
+    }
+
+    @Override
+    public double getPaintP50Micros() {
+        return micros(paintNanos.getPercentile(50));
+    }
+
+    @Override
+    public double getPaintP99Micros() {
+        return micros(paintNanos.getPercentile(99));
+    }
+
+    @Override
+    public double getPaintMaxMicros() {
+        return micros(paintNanos.getMax());
+    }
+
+    @Override
+    public double getAllocatedBytesPerTick()
+    {
+        final long samples = allocationSamples.get();
+        return samples == 0 ? -1 : allocatedBytes.get() / (double) samples;
+    }
+
+    @Override
+    public double getTicksPerSecond() {
+        return ticksPerSecond;
+    }
+
+    @Override
+    public int getLivingGhosts() {
+        return livingGhosts;
+    }
+
+    @Override
+    public int getRemainingDots() {
+        return remainingDots;
+    }
+
+    @Override
+    public void reset()
+    {
+        tickNanos.reset();
+        paintNanos.reset();
+        allocatedBytes.set(0);
+        allocationSamples.set(0);
+    }
+}
@@ -0,0 +1,38 @@
+package de.codesourcery.jpacman;
+
+/**
+ * JMX view of {@link EngineMetrics}.
+ *
+ * Durations are in microseconds.
+ */
+public interface EngineMetricsMXBean
+{
+    long getTickCount();
+
+    double getTickP50Micros();
+
+    double getTickP99Micros();
+
+    double getTickMaxMicros();
+
+    long getPaintCount();
+
+    double getPaintP50Micros();
+
+    double getPaintP99Micros();
+
+    double getPaintMaxMicros();
+
+    /**
+     * Average number of bytes allocated per tick, -1 if the JVM cannot measure allocations.
+     */
+    double getAllocatedBytesPerTick();
+
+    double getTicksPerSecond();
+
+    int getLivingGhosts();
+
+    int getRemainingDots();
+
+    void reset();
+}
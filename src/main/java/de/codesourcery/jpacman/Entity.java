@@ -1,6 +1,9 @@
 package de.codesourcery.jpacman;
 
 import java.awt.Point;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 public abstract class Entity
 {
@@ -18,15 +21,72 @@ public abstract class Entity
         if ( position < 0.0f || position > 1.0f ) {
             throw new IllegalArgumentException();
         }
-        if ( location.currentLine.isHoriz() ) {
-            int minX = Math.min(location.currentLine.start.x, location.currentLine.end.x );
-            int maxX = Math.max(location.currentLine.start.x, location.currentLine.end.x );
-            return new Point( minX + Math.round( (maxX-minX) * position), location.currentLine.start.y );
-        }
-        int minY = Math.min(location.currentLine.start.y, location.currentLine.end.y );
-        int maxY = Math.max(location.currentLine.start.y, location.currentLine.end.y );
-        return new Point( location.currentLine.start.x,  minY + Math.round( (maxY-minY) * position ) );
+        return new Point( location.currentLine.gridX(position), location.currentLine.gridY(position) );
+    }
+
+    /**
+     * Returns the X coordinate of the tile this entity is on, without allocating a {@link Point}.
+     */
+    public int gridX() {
+        return location.currentLine.gridX(location.position());
+    }
+
+    /**
+     * Returns the Y coordinate of the tile this entity is on, without allocating a {@link Point}.
+     */
+    public int gridY() {
+        return location.currentLine.gridY(location.position());
+    }
+
+    /**
+     * Returns the exact X coordinate of this entity in grid units.
+     */
+    public float x() {
+        return location.currentLine.x(location.position());
+    }
+
+    /**
+     * Returns the exact Y coordinate of this entity in grid units.
+     */
+    public float y() {
+        return location.currentLine.y(location.position());
     }
 
     public abstract void reset();
+
+    protected void copyFrom(Entity other)
+    {
+        location.copyFrom(other.location);
+        orientation = other.orientation;
+        isMoving = other.isMoving;
+    }
+
+    void writeState(DataOutput out) throws IOException
+    {
+        out.writeInt(location.lineId);
+        out.writeFloat(location.position());
+        out.writeByte(orientation.ordinal());
+        out.writeBoolean(isMoving);
+    }
+
+    void readState(DataInput in, NavGrid navGrid) throws IOException
+    {
+        final int lineId = in.readInt();
+        if ( lineId < 0 || lineId >= navGrid.lines.size() ) {
+            throw new IOException("Invalid line ID: "+lineId);
+        }
+        location.setLine(navGrid, lineId);
+        location.setPosition(in.readFloat());
+        orientation = readEnum(in, NavGrid.Direction.values());
+        isMoving = in.readBoolean();
+    }
+
+    static <T extends Enum<T>> T readEnum(DataInput in, T[] values) throws IOException
+    {
+        final int ordinal = in.readUnsignedByte();
+        if ( ordinal >= values.length ) {
+            throw new IOException("Invalid "+values[0].getDeclaringClass().getSimpleName()+": "+ordinal);
+        }
+        return values[ordinal];
+    }
 }
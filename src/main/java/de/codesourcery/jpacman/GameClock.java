@@ -0,0 +1,90 @@
+package de.codesourcery.jpacman;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Game time, advanced only by {@link GameState#tick(java.util.Set, float)}.
+ *
+ * All timing decisions must use this clock instead of the wall clock so that
+ * simulations can run faster (or slower) than real time.
+ */
+public final class GameClock
+{
+    private long nanos;
+    private long ticks;
+    private float deltaSeconds;
+
+    public void reset()
+    {
+        nanos = 0;
+        ticks = 0;
+        deltaSeconds = 0;
+    }
+
+    public void advance(float elapsedSeconds)
+    {
+        if ( elapsedSeconds < 0 ) {
+            throw new IllegalArgumentException("Time cannot run backwards: "+elapsedSeconds);
+        }
+        deltaSeconds = elapsedSeconds;
+        nanos += Math.round( elapsedSeconds * 1_000_000_000d );
+        ticks++;
+    }
+
+    /**
+     * Returns the game time in milliseconds since the last reset.
+     */
+    public long millis() {
+        return nanos / 1_000_000;
+    }
+
+    /**
+     * Returns the game time in nanoseconds since the last reset.
+     */
+    public long nanos() {
+        return nanos;
+    }
+
+    /**
+     * Returns the number of ticks since the last reset.
+     */
+    public long ticks() {
+        return ticks;
+    }
+
+    /**
+     * Returns the game time that elapsed during the last tick.
+     */
+    public float deltaSeconds() {
+        return deltaSeconds;
+    }
+
+    public void copyFrom(GameClock other)
+    {
+        nanos = other.nanos;
+        ticks = other.ticks;
+        deltaSeconds = other.deltaSeconds;
+    }
+
+    void writeState(DataOutput out) throws IOException
+    {
+        out.writeLong(nanos);
+        out.writeLong(ticks);
+        out.writeFloat(deltaSeconds);
+    }
+
+    void readState(DataInput in) throws IOException
+    {
+        nanos = in.readLong();
+        ticks = in.readLong();
+        deltaSeconds = in.readFloat();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "GameClock{ticks=" + ticks + ", millis=" + millis() + '}';
+    }
+}
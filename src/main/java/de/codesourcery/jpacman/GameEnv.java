@@ -0,0 +1,139 @@
+package de.codesourcery.jpacman;
+
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Reinforcement-learning environment around a {@link GameState}, modelled after the
+ * OpenAI gym API.
+ *
+ * Each {@link #step(int)} holds one of the {@link #getActionCount() actions} for a fixed
+ * number of ticks and returns the points scored meanwhile as reward. The observation
+ * (see {@link ObservationEncoder}) is written into the destination bound with
+ * <code>bind()</code> after every reset and step. Stepping does not allocate.
+ */
+public final class GameEnv
+{
+    public static final int ACTION_NONE = 0;
+    public static final int ACTION_UP = 1;
+    public static final int ACTION_DOWN = 2;
+    public static final int ACTION_LEFT = 3;
+    public static final int ACTION_RIGHT = 4;
+
+    private static final PlayingField.Input[] ACTION_INPUTS = {
+        null, PlayingField.Input.UP, PlayingField.Input.DOWN, PlayingField.Input.LEFT, PlayingField.Input.RIGHT
+    };
+
+    private final GameState state;
+    private final ObservationEncoder encoder;
+    private final int ticksPerStep;
+    private final int maxSteps;
+
+    private final Set<PlayingField.Input> input = EnumSet.noneOf(PlayingField.Input.class);
+
+    private int steps;
+    private boolean done;
+
+    /**
+     * @param ticksPerStep number of ticks each action is held for (frame skip)
+     * @param maxSteps episodes end after this many steps even if the game is not over
+     */
+    public GameEnv(Maze maze, int ticksPerStep, int maxSteps)
+    {
+        if ( ticksPerStep < 1 || maxSteps < 1 ) {
+            throw new IllegalArgumentException("ticksPerStep and maxSteps must be >= 1");
+        }
+        this.state = new GameState(maze, 0);
+        this.encoder = new ObservationEncoder(maze);
+        this.ticksPerStep = ticksPerStep;
+        this.maxSteps = maxSteps;
+    }
+
+    public int getActionCount() {
+        return ACTION_INPUTS.length;
+    }
+
+    public ObservationEncoder getEncoder() {
+        return encoder;
+    }
+
+    /**
+     * Returns the game being played, for inspection only.
+     */
+    public GameState getState() {
+        return state;
+    }
+
+    /**
+     * @see ObservationEncoder#bind(float[], int)
+     */
+    public void bind(float[] observation, int offset) {
+        encoder.bind(observation, offset);
+    }
+
+    /**
+     * @see ObservationEncoder#bind(ByteBuffer, int)
+     */
+    public void bind(ByteBuffer observation, int byteOffset) {
+        encoder.bind(observation, byteOffset);
+    }
+
+    /**
+     * Starts a new episode and writes its first observation.
+     */
+    public void reset(long seed)
+    {
+        state.reset(seed);
+        steps = 0;
+        done = false;
+        encoder.encode(state);
+    }
+
+    /**
+     * Performs an action and writes the resulting observation.
+     *
+     * @return reward (points scored)
+     */
+    public float step(int action)
+    {
+        if ( done ) {
+            throw new IllegalStateException("Episode is done, call reset()");
+        }
+        if ( action < 0 || action >= ACTION_INPUTS.length ) {
+            throw new IllegalArgumentException("Invalid action: "+action);
+        }
+        final int scoreBefore = state.player.score;
+        for (int i = 0; i < ticksPerStep && ! state.gameOver; i++)
+        {
+            input.clear();
+            if ( action != ACTION_NONE ) {
+                input.add(ACTION_INPUTS[action]);
+            }
+            state.tick(input, HeadlessRunner.TICK_SECONDS);
+        }
+        steps++;
+        done = state.gameOver || steps >= maxSteps;
+        encoder.encode(state);
+        return state.player.score - scoreBefore;
+    }
+
+    /**
+     * Returns whether the episode ended, either because the game is over or because
+     * the step limit has been reached.
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Returns whether the episode ended only because of the step limit.
+     */
+    public boolean isTruncated() {
+        return done && ! state.gameOver;
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+}
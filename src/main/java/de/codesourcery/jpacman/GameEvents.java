@@ -0,0 +1,194 @@
+package de.codesourcery.jpacman;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stream of the things that happen during a game (dots eaten, score changes, ghosts eaten, deaths, ...),
+ * written by {@link GameState#tick(java.util.Set, float)} and read by any number of consumers on their own threads.
+ *
+ * Events are kept in a preallocated ring buffer with a single producer. Publishing never blocks and never
+ * allocates: the producer does not wait for consumers but simply overwrites the oldest events once the buffer
+ * is full. Each consumer reads through its own {@link Reader}, which notices when it fell so far behind that events
+ * it had not read yet were overwritten, skips ahead and counts the lost events (see {@link Reader#getLostEvents()}).
+ *
+ * Every event has a {@link Type}, the tick it happened in (see {@link GameClock#ticks()}) and two int
+ * arguments whose meaning depends on the type.
+ */
+public final class GameEvents
+{
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    // second argument of GHOST_RELEASED
+    public static final int RELEASED_BY_DOT_COUNTER = 0;
+    public static final int RELEASED_BY_TIMEOUT = 1;
+
+    public enum Type
+    {
+        /** A dot was eaten, arguments are its x and y coordinates. */
+        DOT_EATEN,
+        /** An energizer was eaten, arguments are its x and y coordinates. */
+        ENERGIZER_EATEN,
+        /** Arguments are the points scored and the new score. */
+        SCORE_CHANGED,
+        /** A bonus life was awarded, the first argument is the new number of lives. */
+        EXTRA_LIFE,
+        /** Ghosts are no longer frightened. */
+        FRIGHTENED_ENDED,
+        /**
+         * A ghost left the ghost house, arguments are the {@link Ghost.Personality} ordinal and
+         * {@link #RELEASED_BY_DOT_COUNTER} or {@link #RELEASED_BY_TIMEOUT}.
+         */
+        GHOST_RELEASED,
+        /**
+         * Arguments are the {@link Ghost.Personality} ordinal and how the ghost collided with the player
+         * ({@link OccupancyGrid#SAME_TILE} or {@link OccupancyGrid#CROSSING}).
+         */
+        GHOST_EATEN,
+        /** The player lost a life, arguments are the same as for {@link #GHOST_EATEN}. */
+        PLAYER_DIED,
+        /** Arguments are the final score and level. */
+        GAME_OVER,
+        /** All dots were eaten, arguments are the level that was cleared and the score. */
+        LEVEL_CLEARED;
+
+        private static final Type[] VALUES = values();
+    }
+
+    /**
+     * Receives events from {@link Reader#poll(Handler, int)}.
+     */
+    @FunctionalInterface
+    public interface Handler
+    {
+        void onEvent(Type type, long tick, int arg1, int arg2);
+    }
+
+    private final int mask;
+    private final byte[] types;
+    private final long[] ticks;
+    private final int[] args1;
+    private final int[] args2;
+
+    // sequence number of the next event, only accessed by the producer
+    private long next;
+    // events [0, claimed) have been or are being written
+    private final AtomicLong claimed = new AtomicLong();
+    // events [0, published) have been written completely
+    private final AtomicLong published = new AtomicLong();
+
+    /**
+     * @param capacity number of events kept for slow consumers, rounded up to a power of two
+     */
+    public GameEvents(int capacity)
+    {
+        if ( capacity < 1 || capacity > 1 << 30 ) {
+            throw new IllegalArgumentException("Capacity must be in [1, 2^30]: "+capacity);
+        }
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        mask = size - 1;
+        types = new byte[size];
+        ticks = new long[size];
+        args1 = new int[size];
+        args2 = new int[size];
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Returns the total number of events published so far.
+     */
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    /**
+     * Appends an event, overwriting the oldest one if the buffer is full.
+     *
+     * Must only be called by the thread that ticks the game.
+     */
+    void publish(Type type, long tick, int arg1, int arg2)
+    {
+        final long sequence = next++;
+        final int slot = (int) sequence & mask;
+        // readers that see the slot's old contents must be able to tell it's being overwritten
+        claimed.lazySet(sequence + 1);
+        VarHandle.storeStoreFence();
+        types[slot] = (byte) type.ordinal();
+        ticks[slot] = tick;
+        args1[slot] = arg1;
+        args2[slot] = arg2;
+        published.lazySet(sequence + 1);
+    }
+
+    /**
+     * Creates a consumer that receives all events published from now on.
+     */
+    public Reader newReader() {
+        return new Reader(published.get());
+    }
+
+    /**
+     * A consumer's position in the stream, must only be used by one thread at a time.
+     */
+    public final class Reader
+    {
+        private long cursor;
+        // written by the consumer, may be read by any thread for monitoring
+        private volatile long lostEvents;
+
+        private Reader(long cursor) {
+            this.cursor = cursor;
+        }
+
+        /**
+         * Hands the next events to a handler, without waiting for new ones.
+         *
+         * @param limit maximum number of events to process
+         * @return number of events passed to the handler
+         */
+        public int poll(Handler handler, int limit)
+        {
+            final long available = published.get();
+            int count = 0;
+            while ( cursor < available && count < limit )
+            {
+                final int slot = (int) cursor & mask;
+                final Type type = Type.VALUES[types[slot]];
+                final long tick = ticks[slot];
+                final int arg1 = args1[slot];
+                final int arg2 = args2[slot];
+                VarHandle.loadLoadFence();
+
+                final long oldestIntact = claimed.get() - getCapacity();
+                if ( cursor < oldestIntact )
+                {
+                    // lapped by the producer, the values read may belong to a newer event
+                    lostEvents += oldestIntact - cursor;
+                    cursor = oldestIntact;
+                    continue;
+                }
+                cursor++;
+                count++;
+                handler.onEvent(type, tick, arg1, arg2);
+            }
+            return count;
+        }
+
+        /**
+         * Returns the number of published events this reader has not processed yet.
+         */
+        public long getLag() {
+            return Math.max(0, published.get() - cursor);
+        }
+
+        /**
+         * Returns the number of events that were overwritten before this reader got to them.
+         */
+        public long getLostEvents() {
+            return lostEvents;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package de.codesourcery.jpacman;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Advances a {@link GameState} at a fixed rate on a dedicated thread.
+ *
+ * Wall-clock time is collected in an accumulator and consumed in fixed-size
+ * ticks, so gameplay speed does not depend on how often (or how late) the thread
+ * gets scheduled. Rendering happens elsewhere, based on the {@link RenderSnapshot}s
+ * the game state publishes after each tick.
+ */
+public final class GameLoop implements Runnable
+{
+    public static final float TICK_SECONDS = HeadlessRunner.TICK_SECONDS;
+    public static final long TICK_NANOS = Math.round( TICK_SECONDS * 1_000_000_000d );
+
+    // upper bound for catching up after a stall, any time beyond this is dropped
+    private static final int MAX_TICKS_PER_UPDATE = 5;
+
+    private final GameState state;
+    private final InputSource inputSource;
+    private final Set<PlayingField.Input> tickInput = EnumSet.noneOf(PlayingField.Input.class);
+    private final EngineMetrics metrics;
+    // may be null
+    private final ReplayRecorder recorder;
+
+    // null if the JVM cannot measure per-thread allocations
+    private com.sun.management.ThreadMXBean allocationBean;
+    private long threadId;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public GameLoop(GameState state, Set<PlayingField.Input> userInput, EngineMetrics metrics)
+    {
+        this(state, keyboard(userInput), metrics, null);
+    }
+
+    /**
+     * @param recorder records the game while it's played, may be <code>null</code>
+     */
+    public GameLoop(GameState state, InputSource inputSource, EngineMetrics metrics, ReplayRecorder recorder)
+    {
+        this.state = state;
+        this.inputSource = inputSource;
+        this.metrics = metrics;
+        this.recorder = recorder;
+    }
+
+    /**
+     * Returns an input source that reads the keys currently held down.
+     *
+     * @param userInput keys held down, updated by the EDT
+     */
+    public static InputSource keyboard(Set<PlayingField.Input> userInput)
+    {
+        return (state, input) ->
+        {
+            input.addAll(userInput);
+            // debug toggle and restart fire once per key press
+            userInput.remove(PlayingField.Input.DEBUG);
+            userInput.remove(PlayingField.Input.RESTART);
+        };
+    }
+
+    public synchronized void start()
+    {
+        if ( thread != null ) {
+            throw new IllegalStateException("Already started");
+        }
+        running = true;
+        thread = new Thread(this, "game-loop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() throws InterruptedException
+    {
+        if ( thread != null )
+        {
+            running = false;
+            thread.join();
+            thread = null;
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        if ( ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean )
+        {
+            final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if ( bean.isThreadAllocatedMemorySupported() )
+            {
+                bean.setThreadAllocatedMemoryEnabled(true);
+                allocationBean = bean;
+                threadId = Thread.currentThread().getId();
+            }
+        }
+
+        long lastNanos = System.nanoTime();
+        long accumulator = 0;
+        while ( running )
+        {
+            final long now = System.nanoTime();
+            accumulator = Math.min(accumulator + now - lastNanos, MAX_TICKS_PER_UPDATE * TICK_NANOS);
+            lastNanos = now;
+
+            while ( accumulator >= TICK_NANOS )
+            {
+                tick();
+                accumulator -= TICK_NANOS;
+            }
+            LockSupport.parkNanos(TICK_NANOS - accumulator);
+        }
+    }
+
+    private void tick()
+    {
+        tickInput.clear();
+        inputSource.nextInput(state, tickInput);
+
+        final long allocatedBefore = allocationBean != null ? allocationBean.getThreadAllocatedBytes(threadId) : 0;
+        final long start = System.nanoTime();
+        if ( recorder != null ) {
+            recorder.tick(state, tickInput);
+        } else {
+            state.tick(tickInput, TICK_SECONDS);
+        }
+        final long end = System.nanoTime();
+        final long allocated = allocationBean != null ? allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore : -1;
+        metrics.recordTick(start, end, allocated);
+        metrics.updateCounts(state);
+    }
+}
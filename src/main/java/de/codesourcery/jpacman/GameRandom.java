@@ -0,0 +1,75 @@
+package de.codesourcery.jpacman;
+
+/**
+ * Small, fast and seedable pseudo-random number generator (SplitMix64).
+ *
+ * Every {@link GameState} owns one instance that all random decisions of the
+ * engine must use, so a game is fully determined by its seed and the player's input.
+ * Not thread-safe, which is fine because a game state is only ever ticked by a
+ * single thread.
+ */
+public final class GameRandom
+{
+    static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long state;
+
+    public GameRandom(long seed) {
+        this.state = seed;
+    }
+
+    public void setSeed(long seed) {
+        this.state = seed;
+    }
+
+    /**
+     * Returns the internal state, passing it to {@link #setSeed(long)} continues
+     * the sequence from this point.
+     */
+    public long getState() {
+        return state;
+    }
+
+    public long nextLong()
+    {
+        return mix(state += GOLDEN_GAMMA);
+    }
+
+    // the static helpers allow engines that keep many generator states in an array (see BatchEngine) to produce the same values
+
+    static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns a value between 0 (inclusive) and <code>bound</code> (exclusive).
+     *
+     * Uses a multiply-shift instead of rejection sampling, the resulting bias of
+     * at most <code>bound / 2^32</code> is irrelevant for the small bounds used in the game.
+     */
+    public int nextInt(int bound)
+    {
+        if ( bound <= 0 ) {
+            throw new IllegalArgumentException("Bound must be positive: "+bound);
+        }
+        return toInt(nextLong(), bound);
+    }
+
+    static int toInt(long random, int bound) {
+        return (int) (((random >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * Returns a value between 0 (inclusive) and 1 (exclusive).
+     */
+    public float nextFloat() {
+        return toFloat(nextLong());
+    }
+
+    static float toFloat(long random) {
+        return (random >>> 40) * 0x1.0p-24f;
+    }
+}
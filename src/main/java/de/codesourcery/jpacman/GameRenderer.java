@@ -0,0 +1,212 @@
+package de.codesourcery.jpacman;
+
+import java.awt.*;
+
+/**
+ * Renders {@link RenderSnapshot}s onto an arbitrary {@link Graphics2D}, independent
+ * of whether painting is driven passively by Swing ({@link PlayingField}) or actively
+ * by a render thread ({@link ActiveRenderer}).
+ *
+ * The visible part of the maze is chosen by a {@link Camera}. Walls and dots live on pre-rendered
+ * chunks (see {@link MazeChunks}) of which only those intersecting the viewport are drawn, each frame only
+ * composites them and blits the sprites, so drawing cost depends on the viewport rather than the maze size
+ * (chunks still have to be rendered once and kept in memory). Not thread-safe,
+ * all calls to {@link #render(Graphics2D, GraphicsConfiguration, int, int, RenderSnapshot)} must come from the same thread.
+ */
+public final class GameRenderer
+{
+    private static final int TICKS_PER_ANIMATION_STATE = 2;
+    private static final int ANIMATION_STATE_COUNT = 7;
+
+    private static final boolean DRAW_NAV_GRID = false;
+    // the debug grid is only drawn when tiles are at least this large
+    private static final float MIN_DEBUG_GRID_PIXELS = 4f;
+
+    private static final Font SCORE_FONT = new Font(Font.MONOSPACED,Font.BOLD,12);
+
+    // how often the debug overlay's text gets refreshed
+    private static final long METRICS_REFRESH_NANOS = 500_000_000L;
+    private static final Color METRICS_BACKGROUND = new Color(0, 0, 0, 192);
+
+    private final Maze maze;
+    private final Camera camera = new Camera();
+    private final MazeChunks chunks;
+    // for drawing the visible part of the nav grid
+    private final LineIndex navLines = new LineIndex();
+    // may be null
+    private final EngineMetrics metrics;
+
+    private int width;
+    private int height;
+    private float stepX;
+    private float stepY;
+
+    private int tickCount;
+    private int animationState=0;
+
+    // rebuilt when the tile size changes
+    private SpriteCache sprites;
+
+    private int lastScore = -1;
+    private String scoreText;
+
+    private final String[] metricsText = new String[4];
+    private long metricsTextUpdated;
+
+    /**
+     * @param metrics shown as an overlay in debug mode, may be <code>null</code>
+     */
+    public GameRenderer(Maze maze, EngineMetrics metrics)
+    {
+        this.maze = maze;
+        this.chunks = new MazeChunks(maze);
+        this.navLines.setLines(maze.navGrid.lines);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the camera, which may be controlled from any thread.
+     */
+    public Camera getCamera() {
+        return camera;
+    }
+
+    /**
+     * Renders a snapshot.
+     *
+     * @param config graphics configuration of the output device, used to create compatible images. May be <code>null</code>
+     * @param width width of the output area
+     * @param height height of the output area
+     */
+    public void render(Graphics2D g, GraphicsConfiguration config, int width, int height, RenderSnapshot snapshot)
+    {
+        // interpolate between the last two ticks
+        final float alpha = Math.min(1f, (System.nanoTime() - snapshot.getTimestampNanos()) / (float) GameLoop.TICK_NANOS);
+
+        this.width = width;
+        this.height = height;
+        camera.update(width, height, maze.columns, maze.rows,
+            snapshot.x(RenderSnapshot.PLAYER, alpha), snapshot.y(RenderSnapshot.PLAYER, alpha));
+        if ( sprites == null || camera.getScaleX() != stepX || camera.getScaleY() != stepY ) {
+            createSprites(config);
+        }
+
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, width, height);
+        chunks.draw(g, config, camera, width, height, snapshot);
+
+        // draw ghosts
+        for (int i = 1, len = snapshot.getEntityCount(); i < len; i++)
+        {
+            if ( snapshot.getMode(i) != Ghost.Mode.WAITING_AT_SPAWN )
+            {
+                final int x = camera.toViewX(snapshot.x(i, alpha));
+                final int y = camera.toViewY(snapshot.y(i, alpha));
+                if ( isVisible(x, y) ) {
+                    sprites.drawGhost(x, y, snapshot.getPersonality(i), snapshot.getMode(i), snapshot.getOrientation(i), g);
+                }
+            }
+        }
+
+        // draw player
+        final int playerX = camera.toViewX(snapshot.x(RenderSnapshot.PLAYER, alpha));
+        final int playerY = camera.toViewY(snapshot.y(RenderSnapshot.PLAYER, alpha));
+        sprites.drawPlayer(playerX, playerY, snapshot.getOrientation(RenderSnapshot.PLAYER), animationState, g);
+
+        if ( snapshot.getScore() != lastScore )
+        {
+            lastScore = snapshot.getScore();
+            scoreText = "Score: " + lastScore;
+        }
+        g.setColor(Color.WHITE);
+        g.setFont(SCORE_FONT);
+        g.drawString(scoreText, 5, Math.max(SCORE_FONT.getSize(), Math.min(stepY, 2 * SCORE_FONT.getSize())));
+
+        // visible tiles
+        final int x0 = Math.max(0, camera.toGridX(0));
+        final int y0 = Math.max(0, camera.toGridY(0));
+        final int x1 = camera.toGridX(width - 1);
+        final int y1 = camera.toGridY(height - 1);
+
+        if ( snapshot.isDebugMode() )
+        {
+            // would just paint everything gray when tiles are tiny
+            if ( Math.min(stepX, stepY) >= MIN_DEBUG_GRID_PIXELS )
+            {
+                g.setColor(Color.GRAY);
+                final int w = Math.round( stepX );
+                final int h = Math.round( stepY );
+                for (int y = y0, maxY = Math.min(y1, maze.navGrid.height - 1); y <= maxY; y++)
+                {
+                    for (int x = x0, maxX = Math.min(x1, maze.navGrid.width - 1); x <= maxX; x++)
+                    {
+                        final int cx = (int) Math.floor( camera.toViewX(x) - stepX/2 );
+                        final int cy = (int) Math.floor( camera.toViewY(y) - stepY/2 );
+                        g.drawRect(cx, cy, w, h);
+                    }
+                }
+            }
+            if ( metrics != null ) {
+                drawMetrics(g);
+            }
+        }
+
+        // draw nav grid
+        if (DRAW_NAV_GRID)
+        {
+            g.setColor(Color.PINK);
+            navLines.forEach(x0 - 1, y0 - 1, x1 + 1, y1 + 1, l -> drawLine(l, g));
+        }
+
+        if ( snapshot.isMoving(RenderSnapshot.PLAYER) )
+        {
+            if ( (++tickCount % TICKS_PER_ANIMATION_STATE) == 0)
+            {
+                animationState = (animationState + 1) % ANIMATION_STATE_COUNT;
+            }
+        }
+    }
+
+    private void drawMetrics(Graphics2D g)
+    {
+        final long now = System.nanoTime();
+        if ( metricsText[0] == null || now - metricsTextUpdated >= METRICS_REFRESH_NANOS )
+        {
+            metricsTextUpdated = now;
+            metricsText[0] = String.format("tick  p50 %7.1fus p99 %7.1fus max %8.1fus",
+                metrics.getTickP50Micros(), metrics.getTickP99Micros(), metrics.getTickMaxMicros());
+            metricsText[1] = String.format("paint p50 %7.1fus p99 %7.1fus max %8.1fus",
+                metrics.getPaintP50Micros(), metrics.getPaintP99Micros(), metrics.getPaintMaxMicros());
+            metricsText[2] = String.format("%.1f ticks/s, %.1f bytes/tick",
+                metrics.getTicksPerSecond(), metrics.getAllocatedBytesPerTick());
+            metricsText[3] = String.format("ghosts alive: %d, dots left: %d",
+                metrics.getLivingGhosts(), metrics.getRemainingDots());
+        }
+
+        g.setFont(SCORE_FONT);
+        final int lineHeight = g.getFontMetrics().getHeight();
+        final int y0 = height - metricsText.length * lineHeight;
+        g.setColor(METRICS_BACKGROUND);
+        g.fillRect(0, y0 - lineHeight, width, metricsText.length * lineHeight + lineHeight / 2);
+        g.setColor(Color.GREEN);
+        for (int i = 0; i < metricsText.length; i++) {
+            g.drawString(metricsText[i], 5, y0 + i * lineHeight);
+        }
+    }
+
+    private void createSprites(GraphicsConfiguration config)
+    {
+        stepX = camera.getScaleX();
+        stepY = camera.getScaleY();
+        sprites = new SpriteCache(config, Math.max(1, (int) Math.min(stepX, stepY)), ANIMATION_STATE_COUNT);
+    }
+
+    private boolean isVisible(int viewX, int viewY)
+    {
+        return viewX >= -stepX && viewY >= -stepY && viewX < width + stepX && viewY < height + stepY;
+    }
+
+    private void drawLine(Line l, Graphics g) {
+        g.drawLine(camera.toViewX(l.start.x), camera.toViewY(l.start.y), camera.toViewX(l.end.x), camera.toViewY(l.end.y));
+    }
+}
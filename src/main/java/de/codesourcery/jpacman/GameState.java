@@ -1,18 +1,32 @@
 package de.codesourcery.jpacman;
 
-import java.awt.Point;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
 
 public class GameState
 {
-    public final NavGrid navGrid = new NavGrid();
+    // tile in front of the ghost house where ghosts spawn and eaten ghosts return to
+    public static final int GHOST_SPAWN_X = 13;
+    public static final int GHOST_SPAWN_Y = 11;
+
+    public final Maze maze;
+    public final NavGrid navGrid;
     public final Player player = new Player();
 
-    public final DotGrid dots = new DotGrid();
+    public final DotGrid dots;
 
     public final DotCounter globalDotCounter = new DotCounter();
     public DotCounter activeDotCounter;
 
+    public final GameClock clock = new GameClock();
+
+    // source of all random decisions, see reset(long)
+    public final GameRandom random = new GameRandom(0);
+    private long seed;
+
+    // game time (see GameClock#millis()) when the player ate the last dot
     public long timeLastDotEaten;
 
     public final GhostStateTimer ghostStateTimer = new GhostStateTimer();
@@ -27,23 +41,131 @@ public class GameState
 
     public final List<Ghost> ghosts = List.of(blinky,inky,clyde,pinky);
 
+    // tiles of living ghosts (entity i is ghosts.get(i)), see resolveCollisions()
+    private final OccupancyGrid occupancy = new OccupancyGrid(ghosts.size());
+    private final int[] collidingGhosts = new int[ghosts.size()];
+    private final byte[] collisionKinds = new byte[ghosts.size()];
+
     public boolean debugMode;
 
+    // only published when a renderer asked for them
+    private RenderSnapshot.Exchange renderSnapshots;
+    // only published when a consumer asked for them
+    private GameEvents events;
+
+    // what happens when the global dot counter reaches its limit, see resetGhosts()
+    private static final int RELEASE_NONE = 0;
+    private static final int RELEASE_PINKY = 1;
+    private static final int RELEASE_INKY = 2;
+    private static final int RELEASE_CLYDE = 3;
+
+    private int globalDotCounterStage;
+
     public GameState()
     {
-        reset();
+        this(System.nanoTime());
+    }
+
+    public GameState(long seed)
+    {
+        this(Maze.getDefault(), seed);
+    }
+
+    public GameState(Maze maze)
+    {
+        this(maze, System.nanoTime());
+    }
+
+    public GameState(Maze maze, long seed)
+    {
+        this.maze = maze;
+        this.navGrid = maze.navGrid;
+        this.dots = new DotGrid(maze.dotLayout);
+        reset(seed);
+    }
+
+    private GameState(GameState other)
+    {
+        this.maze = other.maze;
+        this.navGrid = other.navGrid;
+        this.dots = new DotGrid(maze.dotLayout);
+        restoreFrom(other);
+    }
+
+    /**
+     * Creates an independent copy of this game that shares the (immutable) maze.
+     *
+     * Search algorithms that fork the game often should create their copies once
+     * and reuse them with {@link #restoreFrom(GameState)}, which does not allocate.
+     * Render snapshots are not copied.
+     */
+    public GameState copy()
+    {
+        return new GameState(this);
     }
 
+    /**
+     * Overwrites this game with the state of another game on the same maze.
+     */
+    public void restoreFrom(GameState other)
+    {
+        if ( other.maze != maze ) {
+            throw new IllegalArgumentException("Games are played on different mazes");
+        }
+        seed = other.seed;
+        random.setSeed(other.random.getState());
+        clock.copyFrom(other.clock);
+        timeLastDotEaten = other.timeLastDotEaten;
+        gameOver = other.gameOver;
+        level = other.level;
+        debugMode = other.debugMode;
+        dots.copyFrom(other.dots);
+        ghostStateTimer.copyFrom(other.ghostStateTimer);
+
+        globalDotCounter.copyFrom(other.globalDotCounter);
+        globalDotCounterStage = other.globalDotCounterStage;
+        activeDotCounter = dotCounter(other.activeDotCounterIndex());
+
+        player.copyFrom(other.player);
+        for (int i = 0, len = ghosts.size(); i < len; i++) {
+            ghosts.get(i).copyFrom(other.ghosts.get(i));
+        }
+        placeGhosts();
+    }
+
+    /**
+     * Returns the seed the current game was started with.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Restarts the current game with the same seed.
+     */
     public void reset()
     {
+        reset(seed);
+    }
+
+    /**
+     * Starts a new game.
+     *
+     * Two games started with the same seed play out identically when given the same input.
+     */
+    public void reset(long seed)
+    {
+        this.seed = seed;
+        random.setSeed(seed);
+        clock.reset();
         ghostStateTimer.reset(this);
-        timeLastDotEaten = System.currentTimeMillis();
+        timeLastDotEaten = clock.millis();
         level = 1;
         gameOver = false;
         dots.reset();
 
         player.reset();
-        navGrid.assignRandomLocation(player);
+        navGrid.assignRandomLocation(player, random);
 
         ghosts.forEach(Ghost::reset);
 
@@ -58,6 +180,7 @@ public class GameState
     private void resetGhosts()
     {
         ghosts.forEach(this::resetGhost);
+        placeGhosts();
 
         ghostStateTimer.reset(this);
 
@@ -75,31 +198,45 @@ otherwise, it will keep counting dots even after the ghost house is empty.
         activeDotCounter = globalDotCounter;
         globalDotCounter.reset();
         globalDotCounter.setLimit(7);
-        globalDotCounter.limitAction= () -> {
-            getGhostFromSpawn().filter(x->x.is(Ghost.Personality.PINKY)).ifPresent(this::enableGhost);
-            globalDotCounter.setLimit(17);
-            globalDotCounter.limitAction= () -> {
-                getGhostFromSpawn().filter(x->x.is(Ghost.Personality.INKY)).ifPresent(this::enableGhost);
+        globalDotCounterStage = RELEASE_PINKY;
+    }
+
+    private void globalDotLimitReached()
+    {
+        switch( globalDotCounterStage )
+        {
+            case RELEASE_PINKY:
+                enableGhostFromSpawn(Ghost.Personality.PINKY);
+                globalDotCounter.setLimit(17);
+                globalDotCounterStage = RELEASE_INKY;
+                break;
+            case RELEASE_INKY:
+                enableGhostFromSpawn(Ghost.Personality.INKY);
                 globalDotCounter.setLimit(32);
-                globalDotCounter.limitAction= () ->
-                {
-                    getGhostFromSpawn().filter(x->x.is(Ghost.Personality.CLYDE)).ifPresent(this::enableGhost);
-                    activeDotCounter = null;
-                };
-            };
-        };
+                globalDotCounterStage = RELEASE_CLYDE;
+                break;
+            case RELEASE_CLYDE:
+                enableGhostFromSpawn(Ghost.Personality.CLYDE);
+                activeDotCounter = null;
+                break;
+            default:
+        }
     }
 
     private void resetGhost(Ghost ghost)
     {
+        // TODO: The ghost house is not part of the nav grid yet,
+        // keep waiting ghosts at the exit so they have a valid location once released
+        setLocation(ghost, GHOST_SPAWN_X, GHOST_SPAWN_Y);
         switch(ghost.personality) {
             case BLINKY:
-                setLocation(blinky, new Point(13, 11));
+                // Blinky starts outside of the ghost house
+                ghost.respawn(Ghost.Mode.SCATTER);
                 break;
             case PINKY:
             case INKY:
             case CLYDE:
-                // TODO: Implement positioning
+                ghost.respawn(Ghost.Mode.WAITING_AT_SPAWN);
                 break;
             default:
                 throw new IllegalStateException("Unexpected value: " + ghost.personality);
@@ -145,21 +282,161 @@ Pinky's dot limit is always set to zero, causing him to leave home immediately w
         }
     }
 
-    private void setLocation(Ghost ghost,Point p)
+    private void setLocation(Ghost ghost,int x,int y)
+    {
+        ghost.location.setLine(navGrid, navGrid.getLineId(x, y, 0));
+        ghost.location.setPosition( ghost.location.currentLine.getPosition(x, y) );
+    }
+
+    /**
+     * Starts publishing a {@link RenderSnapshot} after every tick.
+     *
+     * @return exchange to acquire the latest snapshot from
+     */
+    public RenderSnapshot.Exchange enableRenderSnapshots()
+    {
+        if ( renderSnapshots == null )
+        {
+            renderSnapshots = new RenderSnapshot.Exchange(this);
+            publishRenderSnapshot();
+        }
+        return renderSnapshots;
+    }
+
+    /**
+     * Starts publishing {@link GameEvents} while ticking.
+     *
+     * @param capacity number of events kept for slow consumers, ignored if events are already enabled
+     * @return stream to create readers for
+     */
+    public GameEvents enableEvents(int capacity)
+    {
+        if ( events == null ) {
+            events = new GameEvents(capacity);
+        }
+        return events;
+    }
+
+    private void publishEvent(GameEvents.Type type, int arg1, int arg2)
+    {
+        if ( events != null ) {
+            events.publish(type, clock.ticks(), arg1, arg2);
+        }
+    }
+
+    private void publishRenderSnapshot()
+    {
+        final RenderSnapshot snapshot = renderSnapshots.back();
+        snapshot.capture(this);
+        renderSnapshots.publish();
+        // positions before the next tick
+        renderSnapshots.back().capturePrevious(this);
+    }
+
+    /**
+     * Writes everything needed to continue the current game, see {@link #readState(DataInput)}.
+     *
+     * The maze is not part of the state, reading it back requires a game state for the same maze.
+     */
+    public void writeState(DataOutput out) throws IOException
+    {
+        out.writeLong(seed);
+        out.writeLong(random.getState());
+        clock.writeState(out);
+        out.writeLong(timeLastDotEaten);
+        out.writeBoolean(gameOver);
+        out.writeInt(level);
+        out.writeBoolean(debugMode);
+        dots.writeState(out);
+        ghostStateTimer.writeState(out);
+
+        globalDotCounter.writeState(out);
+        out.writeByte(globalDotCounterStage);
+        out.writeByte(activeDotCounterIndex());
+
+        player.writeState(out);
+        for (int i = 0, len = ghosts.size(); i < len; i++) {
+            ghosts.get(i).writeState(out);
+        }
+    }
+
+    /**
+     * Continues a game previously saved with {@link #writeState(DataOutput)}.
+     */
+    public void readState(DataInput in) throws IOException
+    {
+        seed = in.readLong();
+        random.setSeed(in.readLong());
+        clock.readState(in);
+        timeLastDotEaten = in.readLong();
+        gameOver = in.readBoolean();
+        level = in.readInt();
+        debugMode = in.readBoolean();
+        dots.readState(in);
+        ghostStateTimer.readState(in);
+
+        globalDotCounter.readState(in);
+        final int stage = in.readUnsignedByte();
+        final int active = in.readUnsignedByte();
+        if ( stage > RELEASE_CLYDE || active > ghosts.size() + 1 ) {
+            throw new IOException("Invalid dot counter state "+stage+"/"+active);
+        }
+        globalDotCounterStage = stage;
+        activeDotCounter = dotCounter(active);
+
+        player.readState(in, navGrid);
+        for (int i = 0, len = ghosts.size(); i < len; i++) {
+            ghosts.get(i).readState(in, navGrid);
+        }
+        placeGhosts();
+
+        if ( renderSnapshots != null ) {
+            publishRenderSnapshot();
+        }
+    }
+
+    // 0 = none, 1 = global counter, 2.. = counter of ghosts.get(index - 2)
+    private int activeDotCounterIndex()
+    {
+        if ( activeDotCounter == null ) {
+            return 0;
+        }
+        if ( activeDotCounter == globalDotCounter ) {
+            return 1;
+        }
+        for (int i = 0, len = ghosts.size(); i < len; i++) {
+            if ( ghosts.get(i).dotCounter == activeDotCounter ) {
+                return i + 2;
+            }
+        }
+        throw new IllegalStateException("Unknown dot counter");
+    }
+
+    private DotCounter dotCounter(int index)
     {
-        List<Line> lines = navGrid.getLines(p);
-        ghost.location.currentLine = lines.get(0);
-        ghost.location.setPosition( ghost.location.currentLine.getPosition(p) );
+        return index == 0 ? null : index == 1 ? globalDotCounter : ghosts.get(index - 2).dotCounter;
     }
 
     public void tick(Set<PlayingField.Input> input,float elapsedSeconds)
     {
+        doTick(input, elapsedSeconds);
+        if ( renderSnapshots != null ) {
+            publishRenderSnapshot();
+        }
+    }
+
+    private void doTick(Set<PlayingField.Input> input,float elapsedSeconds)
+    {
+        clock.advance(elapsedSeconds);
         player.isMoving = false;
 
         if ( gameOver ) {
             return;
         }
 
+        occupancy.beginTick();
+        final int playerFrom = tileIndex(player.gridX(), player.gridY());
+
         if ( ! input.isEmpty() )
         {
             if ( input.contains( PlayingField.Input.DEBUG ) ) {
@@ -170,7 +447,8 @@ Pinky's dot limit is always set to zero, causing him to leave home immediately w
 
             if ( input.contains(PlayingField.Input.RESTART)) {
                 input.clear();
-                reset();
+                // derive the new game's seed so restarts stay reproducible
+                reset(random.nextLong());
                 return;
             }
 
@@ -202,7 +480,7 @@ Pinky's dot limit is always set to zero, causing him to leave home immediately w
             }
             else
             {
-                long elapsedMillis = System.currentTimeMillis() - timeLastDotEaten;
+                long elapsedMillis = clock.millis() - timeLastDotEaten;
                 /*
 The game begins with an initial timer limit of four seconds,
 but lowers to it to three seconds starting with level five.
@@ -210,73 +488,115 @@ but lowers to it to three seconds starting with level five.
                 final long threshold = level < 5 ? 4000 : 3000;
                 if ( elapsedMillis > threshold )
                 {
-                    timeLastDotEaten = System.currentTimeMillis();
+                    timeLastDotEaten = clock.millis();
                     forceReleaseGhost();
                 }
             }
         }
 
         // handle ghost movement
-        final Point playerLocation = player.gridLocation();
-        for ( Ghost ghost : ghosts )
+        for (int i = 0, len = ghosts.size(); i < len; i++)
         {
+            final Ghost ghost = ghosts.get(i);
             ghost.tick(this);
-            if ( ghost.isAlive() && playerLocation.equals(ghost.gridLocation()))
-            {
-                if (player.canEatGhosts)
-                {
-                    // --> ghost dies
-                    ghostEaten(ghost);
-                }
-                else
-                {
-                    // --> player dies
-                    playerDeath();
-                }
-            }
+            occupancy.move(i, occupancyTile(ghost));
         }
+        resolveCollisions(playerFrom, tileIndex(player.gridX(), player.gridY()));
 
         // revert ghost behavior if player can no
         // longer eat ghosts
         if ( player.canEatGhosts )
         {
-            long elapsed = System.currentTimeMillis() - player.startTimeCanEatGhosts;
+            long elapsed = clock.millis() - player.startTimeCanEatGhosts;
             if ( elapsed >= 4000 )
             {
                 player.canEatGhosts = false;
-                ghosts.stream().filter(Ghost::isAlive).forEach(gh -> gh.setMode(Ghost.Mode.SCATTER));
+                setModeOfLivingGhosts(ghostStateTimer.currentMode());
+                publishEvent(GameEvents.Type.FRIGHTENED_ENDED, 0, 0);
+            }
+        }
+        else
+        {
+            // scatter/chase waves are paused while ghosts are frightened
+            ghostStateTimer.tick(this);
+        }
+    }
+
+    private int tileIndex(int x, int y) {
+        return y * maze.columns + x;
+    }
+
+    // only living ghosts can collide with the player
+    private int occupancyTile(Ghost ghost) {
+        return ghost.isAlive() ? tileIndex(ghost.gridX(), ghost.gridY()) : OccupancyGrid.NONE;
+    }
+
+    // puts the ghosts into the occupancy grid after they were repositioned without moving
+    private void placeGhosts()
+    {
+        for (int i = 0, len = ghosts.size(); i < len; i++) {
+            occupancy.place(i, occupancyTile(ghosts.get(i)));
+        }
+    }
+
+    /*
+     * Moves of the player and the ghosts during a tick count as simultaneous: a ghost collides with
+     * the player if both end up on the same tile or if they swapped tiles. Collisions are handled in
+     * ghost order, a collision that kills the player ends the check since all ghosts start over.
+     */
+    private void resolveCollisions(int playerFrom, int playerTo)
+    {
+        final int count = occupancy.findCollisions(playerFrom, playerTo, collidingGhosts, collisionKinds);
+        for (int i = 0; i < count; i++)
+        {
+            final Ghost ghost = ghosts.get(collidingGhosts[i]);
+            if ( ghost.hasMode(Ghost.Mode.FRIGHTENED) )
+            {
+                // --> ghost dies
+                ghostEaten(ghost, collisionKinds[i]);
+                occupancy.move(collidingGhosts[i], OccupancyGrid.NONE);
+            }
+            else
+            {
+                // --> player dies
+                playerDeath(ghost, collisionKinds[i]);
+                return;
             }
         }
     }
 
     private void incScore(int points) {
         player.score += points;
+        publishEvent(GameEvents.Type.SCORE_CHANGED, points, player.score);
         if ( player.score >= 10000 && ! player.bonusLifeAwarded ) {
             player.lifes++;
             player.bonusLifeAwarded = true;
+            publishEvent(GameEvents.Type.EXTRA_LIFE, player.lifes, 0);
         }
     }
 
-    private void ghostEaten(Ghost ghost)
+    private void ghostEaten(Ghost ghost, byte collisionKind)
     {
-        resetGhost(ghost);
+        publishEvent(GameEvents.Type.GHOST_EATEN, ghost.personality.ordinal(), collisionKind);
+        // eyes travel back to the ghost house, see Ghost#tick()
+        ghost.setMode(Ghost.Mode.RETURNING_TO_SPAWN);
         if ( activeDotCounter == null ) {
             activeDotCounter = ghost.dotCounter;
             ghost.dotCounter.reset();
-            ghost.dotCounter.limitAction = () -> {
-
-            };
         }
     }
 
-    private void playerDeath() {
+    private void playerDeath(Ghost ghost, byte collisionKind) {
 
         player.lifes--;
+        publishEvent(GameEvents.Type.PLAYER_DIED, ghost.personality.ordinal(), collisionKind);
         if ( player.lifes == 0 ) {
                 gameOver = true;
+                publishEvent(GameEvents.Type.GAME_OVER, player.score, level);
         }
         else
         {
+            player.canEatGhosts = false;
             resetGhosts();
         }
     }
@@ -285,223 +605,134 @@ but lowers to it to three seconds starting with level five.
     {
         ghost.setMode(Ghost.Mode.SCATTER);
         ghost.selectTargetTile(this);
+        publishEvent(GameEvents.Type.GHOST_RELEASED, ghost.personality.ordinal(), GameEvents.RELEASED_BY_DOT_COUNTER);
+    }
+
+    private void enableGhostFromSpawn(Ghost.Personality personality)
+    {
+        final Ghost ghost = getGhostFromSpawn();
+        if ( ghost != null && ghost.is(personality) ) {
+            enableGhost(ghost);
+        }
+    }
+
+    public Ghost getGhost(Ghost.Personality personality)
+    {
+        switch(personality) {
+            case BLINKY: return blinky;
+            case PINKY:  return pinky;
+            case INKY:   return inky;
+            case CLYDE:  return clyde;
+            default:
+                throw new IllegalStateException("Unexpected value: " + personality);
+        }
+    }
+
+    /**
+     * Sets the mode of all ghosts that are not dead.
+     */
+    public void setModeOfLivingGhosts(Ghost.Mode mode)
+    {
+        for (int i = 0, len = ghosts.size(); i < len; i++)
+        {
+            final Ghost ghost = ghosts.get(i);
+            if ( ghost.isAlive() ) {
+                ghost.setMode(mode);
+            }
+        }
     }
 
     private void forceReleaseGhost()
     {
-        getGhostFromSpawn().ifPresent(toRelease ->
+        final Ghost toRelease = getGhostFromSpawn();
+        if ( toRelease != null )
         {
             toRelease.setMode(Ghost.Mode.CHASING);
             toRelease.selectTargetTile(this);
-            getGhostFromSpawn().ifPresent(gh -> activeDotCounter = gh.dotCounter );
-        });
+            publishEvent(GameEvents.Type.GHOST_RELEASED, toRelease.personality.ordinal(), GameEvents.RELEASED_BY_TIMEOUT);
+            final Ghost next = getGhostFromSpawn();
+            if ( next != null ) {
+                activeDotCounter = next.dotCounter;
+            }
+        }
     }
 
-    private Optional<Ghost> getGhostFromSpawn() {
+    // return: the ghost waiting at the spawn whose counter is preferred, or null
+    private Ghost getGhostFromSpawn() {
         // The order of preference for choosing which ghost's counter to activate is: Pinky, then Inky, and then Clyde.
         if ( pinky.hasMode(Ghost.Mode.WAITING_AT_SPAWN ) ) {
-            return Optional.of(pinky);
+            return pinky;
         }
         else if ( inky.hasMode(Ghost.Mode.WAITING_AT_SPAWN ) ) {
-            return Optional.of(inky);
+            return inky;
         }
         else if ( clyde.hasMode(Ghost.Mode.WAITING_AT_SPAWN ) ) {
-            return Optional.of(clyde);
+            return clyde;
         }
-        return Optional.empty();
+        return null;
     }
 
     // return: true if a dot was consumed
     private boolean playerMoved()
     {
         player.isMoving = true;
-        final DotGrid.Dot eatenDot = dots.consume(player.gridLocation() );
-        if ( eatenDot == null ) {
+        final int eatenDot = dots.consume(player.gridX(), player.gridY() );
+        if ( eatenDot == DotGrid.NONE ) {
             return false;
         }
-        timeLastDotEaten = System.currentTimeMillis();
+        timeLastDotEaten = clock.millis();
 
-        if ( eatenDot.isEnergizer )
+        if ( eatenDot == DotGrid.ENERGIZER )
         {
+            publishEvent(GameEvents.Type.ENERGIZER_EATEN, player.gridX(), player.gridY());
             incScore(50);
 
             // switch player to "ghosts can be eaten" mode
             if ( level < 19 )
             {
                 player.canEatGhosts = true;
-                player.startTimeCanEatGhosts = System.currentTimeMillis();
+                player.startTimeCanEatGhosts = clock.millis();
 
                 // Switch all ghosts to "Frightened" mode
-                ghosts.stream().filter(Ghost::isAlive).forEach(gh -> gh.setMode(Ghost.Mode.FRIGHTENED));
+                setModeOfLivingGhosts(Ghost.Mode.FRIGHTENED);
             }
         } else {
+            publishEvent(GameEvents.Type.DOT_EATEN, player.gridX(), player.gridY());
             incScore(10);
         }
-        if ( activeDotCounter != null )
+        if ( activeDotCounter != null && activeDotCounter.dotEaten() && activeDotCounter == globalDotCounter )
         {
-            activeDotCounter.dotEaten();
+            // only the global counter releases ghosts so far
+            globalDotLimitReached();
         }
         return true;
     }
 
     private void advanceToNextLevel()
     {
+        publishEvent(GameEvents.Type.LEVEL_CLEARED, level, player.score);
         player.canEatGhosts = false;
         level++;
         dots.reset();
         resetGhosts();
-        navGrid.assignRandomLocation(player);
+        navGrid.assignRandomLocation(player, random);
         globalDotCounter.reset();
         activeDotCounter = globalDotCounter;
 
         ghostStateTimer.difficultyChanged(this);
     }
 
-    private static float stepSize(Line line)
-    {
-        return 0.1f/line.length();
-    }
-
-    private static float getFactor(NavGrid.Direction newDir) {
-        return newDir == NavGrid.Direction.LEFT || newDir == NavGrid.Direction.UP ? -1 : 1;
-    }
-
-    private static Set<NavGrid.Direction> getPossibleDirections(Line line,Point pointOnLine, Set<NavGrid.Direction> result)
-    {
-        if ( ! line.contains(pointOnLine) ) {
-            throw new IllegalArgumentException();
-        }
-
-        Point min = line.min();
-        Point max = line.max();
-        if ( line.isHoriz() ) {
-
-            if ( pointOnLine.x > min.x && pointOnLine.x < max.x ) {
-                result.add(NavGrid.Direction.LEFT);
-                result.add(NavGrid.Direction.RIGHT);
-                return result;
-            }
-            if ( pointOnLine.x == min.x ) {
-                result.add(NavGrid.Direction.RIGHT);
-                return result;
-            }
-            result.add(NavGrid.Direction.LEFT);
-            return result;
-        }
-        // vertical line
-        if ( pointOnLine.y > min.y && pointOnLine.y < max.y ) {
-            result.add(NavGrid.Direction.UP);
-            result.add(NavGrid.Direction.DOWN);
-            return result;
-        }
-        if ( pointOnLine.y == min.y ) {
-            result.add(NavGrid.Direction.DOWN);
-            return result;
-        }
-        result.add(NavGrid.Direction.UP);
-        return result;
-    }
-
     private boolean maybeMove(NavGrid.Direction desiredDirection) {
         return maybeMove(desiredDirection, player, navGrid );
     }
 
-    private static boolean maybeMove(NavGrid.Direction desiredDirection, Entity entity, NavGrid navGrid)
+    static boolean maybeMove(NavGrid.Direction desiredDirection, Entity entity, NavGrid navGrid)
     {
-        final Set<NavGrid.Direction> availableDirections = new HashSet<>(4);
-        final Point locationToCheck = entity.gridLocation();
-
-        final List<Line> intersectingLines = navGrid.getLines(locationToCheck);
-        intersectingLines.forEach(l -> getPossibleDirections(l, locationToCheck,availableDirections));
-
-        // System.out.println("Directions @ "+locationToCheck+": "+availableDirections+" { "+intersectingLines+" }");
-
-        if ( ! availableDirections.contains(desiredDirection) )
-        {
-            if ( entity.location.isAtEndpoint() )
-            {
-                if ( navGrid.isLineToLeftExit( entity.location.currentLine ) && entity.location.position() == 0.0f && desiredDirection == NavGrid.Direction.LEFT)
-                {
-                    entity.location.currentLine = navGrid.toRightExit;
-                    entity.location.setPosition(1.0f);
-                    return true;
-                }
-                else if ( navGrid.isLineToRightExit( entity.location.currentLine ) && entity.location.position() == 1.0f && desiredDirection == NavGrid.Direction.RIGHT)
-                {
-                    entity.location.currentLine = navGrid.toLeftExit;
-                    entity.location.setPosition(0f);
-                    return true;
-                }
-                return false;
-            }
-            if ( (entity.location.currentLine.isHoriz()    && desiredDirection.isHoriz() ) ||
-                 (entity.location.currentLine.isVertical() && desiredDirection.isVertical()))
-            {
-                entity.location.incPosition(getFactor(desiredDirection) * stepSize(entity.location.currentLine));
-                return true;
-            }
-            return false;
-        }
-
-        final Set<NavGrid.Direction> dirsOnThisLine =
-            getPossibleDirections(entity.location.currentLine, locationToCheck, new HashSet<>());
-
-        if ( dirsOnThisLine.contains( desiredDirection ) )
-        {
-            // player stays on current line
-            entity.location.incPosition( getFactor(desiredDirection) * stepSize(entity.location.currentLine) );
+        final LocationInfo location = entity.location;
+        final int outcome = navGrid.move(location.lineId, location.position(), desiredDirection, location);
+        if ( outcome == NavGrid.TURNED ) {
+            entity.orientation = desiredDirection;
         }
-        else
-        {
-            // switch to new line
-            // 1. find all lines whose endpoint is the player's current location
-            final List<Line> choices = new ArrayList<>(intersectingLines);
-            choices.remove( entity.location.currentLine );
-
-            Optional<Line> newLine;
-            Point newLoc = new Point(locationToCheck);
-            float newPos;
-
-            if ( choices.size() == 1 ) {
-                newLine = Optional.of( choices.get(0) );
-                newPos = newLine.get().getPosition(newLoc);
-            }
-            else
-            {
-                switch (desiredDirection)
-                {
-                    case UP:
-                        // same X coordinate, y = player.pos.y - 1;
-                        newLoc.y -= 1;
-                        newPos = 1.0f;
-                        break;
-                    case DOWN:
-                        // same X coordinate, y = player.pos.y + 1;
-                        newLoc.y += 1;
-                        newPos = 0f;
-                        break;
-                    case LEFT:
-                        // same Y coordinate, x = player.pos.x - 1;
-                        newLoc.x -= 1;
-                        newPos = 1.0f;
-                        break;
-                    case RIGHT:
-                        // same Y coordinate, x = player.pos.x + 1;
-                        newLoc.x += 1;
-                        newPos = 0f;
-                        break;
-                    default:
-                        throw new IllegalStateException();
-                }
-                newLine = choices.stream().filter(x -> x.contains(newLoc)).findFirst();
-            }
-            if ( newLine.isEmpty() ) {
-                throw new IllegalStateException();
-            }
-            entity.location.currentLine = newLine.get();
-            entity.location.setPosition( newPos );
-        }
-        entity.orientation = desiredDirection;
-        return true;
+        return outcome != NavGrid.BLOCKED;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,84 @@
+package de.codesourcery.jpacman;
+
+/**
+ * Outcome statistics aggregated over a number of simulated games.
+ *
+ * Not thread-safe, use one instance per thread and {@link #merge(GameStatistics)} them afterwards.
+ */
+public final class GameStatistics
+{
+    public long games;
+    public long gamesOver;
+    public long gamesTimedOut;
+    public long ticks;
+
+    public long totalScore;
+    public int minScore = Integer.MAX_VALUE;
+    public int maxScore = Integer.MIN_VALUE;
+
+    public long totalLevel;
+    public int maxLevel;
+
+    public long elapsedNanos;
+
+    public void gameFinished(GameState state, long ticksPlayed)
+    {
+        games++;
+        if ( state.gameOver ) {
+            gamesOver++;
+        } else {
+            gamesTimedOut++;
+        }
+        ticks += ticksPlayed;
+        final int score = state.player.score;
+        totalScore += score;
+        minScore = Math.min(minScore, score);
+        maxScore = Math.max(maxScore, score);
+        totalLevel += state.level;
+        maxLevel = Math.max(maxLevel, state.level);
+    }
+
+    public void merge(GameStatistics other)
+    {
+        games += other.games;
+        gamesOver += other.gamesOver;
+        gamesTimedOut += other.gamesTimedOut;
+        ticks += other.ticks;
+        totalScore += other.totalScore;
+        minScore = Math.min(minScore, other.minScore);
+        maxScore = Math.max(maxScore, other.maxScore);
+        totalLevel += other.totalLevel;
+        maxLevel = Math.max(maxLevel, other.maxLevel);
+    }
+
+    public double gamesPerSecond() {
+        return elapsedNanos == 0 ? 0 : games / (elapsedNanos / 1_000_000_000d);
+    }
+
+    public double ticksPerSecond() {
+        return elapsedNanos == 0 ? 0 : ticks / (elapsedNanos / 1_000_000_000d);
+    }
+
+    @Override
+    public String toString()
+    {
+        if ( games == 0 ) {
+            return "No games played.";
+        }
+        return String.format(
+            "Games        : %d (game over: %d, timed out: %d)%n" +
+            "Elapsed      : %.3f s%n" +
+            "Games/s      : %.1f%n" +
+            "Ticks/s      : %.0f%n" +
+            "Ticks/game   : %.1f%n" +
+            "Score        : min %d / avg %.1f / max %d%n" +
+            "Level        : avg %.2f / max %d",
+            games, gamesOver, gamesTimedOut,
+            elapsedNanos / 1_000_000_000d,
+            gamesPerSecond(),
+            ticksPerSecond(),
+            ticks / (double) games,
+            minScore, totalScore / (double) games, maxScore,
+            totalLevel / (double) games, maxLevel);
+    }
+}
@@ -1,9 +1,22 @@
 package de.codesourcery.jpacman;
 
 import java.awt.Point;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 public class Ghost extends Entity
 {
+    // direction preference when several moves are equally good, as in the arcade game
+    private static final NavGrid.Direction[] TIE_BREAK_ORDER = {
+        NavGrid.Direction.UP, NavGrid.Direction.LEFT, NavGrid.Direction.DOWN, NavGrid.Direction.RIGHT
+    };
+
+    // speed relative to the player
+    static final float SPEED_NORMAL = 0.95f;
+    static final float SPEED_FRIGHTENED = 0.5f;
+    static final float SPEED_RETURNING = 2f;
+
     private final Point targetTile = new Point();
 
     /*
@@ -32,6 +45,15 @@ public class Ghost extends Entity
 
     public final DotCounter dotCounter = new DotCounter();
 
+    // direction the ghost is travelling in
+    public NavGrid.Direction heading = NavGrid.Direction.LEFT;
+    // tile where the current heading was chosen
+    private int decisionX = -1;
+    private int decisionY = -1;
+    private boolean reversePending;
+    // accumulated fractional moves, see speed()
+    private float moveCredit;
+
     public Ghost(Personality personality)
     {
         this.mode = Mode.WAITING_AT_SPAWN;
@@ -52,6 +74,12 @@ public class Ghost extends Entity
 
     public void setMode(Mode mode)
     {
+        // ghosts reverse direction whenever they leave scatter or chase mode
+        if ( mode != this.mode && (this.mode == Mode.SCATTER || this.mode == Mode.CHASING) &&
+             (mode == Mode.SCATTER || mode == Mode.CHASING || mode == Mode.FRIGHTENED) )
+        {
+            reversePending = true;
+        }
         this.mode = mode;
     }
 
@@ -59,20 +87,263 @@ public class Ghost extends Entity
         return m.equals( this.mode );
     }
 
+    public Point getTargetTile() {
+        return targetTile;
+    }
+
     public void selectTargetTile(GameState state)
     {
-        // TODO: Implement target tile selection based on personality
         // see https://gameinternals.com/understanding-pac-man-ghost-behavior
+        switch( mode )
+        {
+            case SCATTER:
+                setScatterTarget(state.navGrid);
+                break;
+            case CHASING:
+                setChaseTarget(state);
+                break;
+            case RETURNING_TO_SPAWN:
+                targetTile.setLocation(GameState.GHOST_SPAWN_X, GameState.GHOST_SPAWN_Y);
+                break;
+            default:
+                // frightened ghosts move randomly, waiting ghosts don't move
+        }
     }
 
-    public void tick(GameState state) {
-        // TODO: Implement ghost movement
-        // see https://gameinternals.com/understanding-pac-man-ghost-behavior
+    private void setScatterTarget(NavGrid navGrid)
+    {
+        // corners just outside of the maze
+        switch( personality )
+        {
+            case BLINKY: targetTile.setLocation(navGrid.width - 2, -3); break;
+            case PINKY:  targetTile.setLocation(2, -3); break;
+            case INKY:   targetTile.setLocation(navGrid.width, navGrid.height + 3); break;
+            case CLYDE:  targetTile.setLocation(0, navGrid.height + 3); break;
+            default:
+                throw new IllegalStateException("Unexpected value: " + personality);
+        }
+    }
+
+    private void setChaseTarget(GameState state)
+    {
+        final Player player = state.player;
+        final int playerX = player.gridX();
+        final int playerY = player.gridY();
+        final NavGrid.Direction dir = player.orientation;
+        switch( personality )
+        {
+            case BLINKY:
+                targetTile.setLocation(playerX, playerY);
+                break;
+            case PINKY:
+                // four tiles ahead of the player. Like in the arcade game, facing up also moves the target four tiles left
+                targetTile.setLocation(playerX + 4 * dir.dx - (dir == NavGrid.Direction.UP ? 4 : 0), playerY + 4 * dir.dy);
+                break;
+            case INKY:
+                // vector from Blinky to two tiles ahead of the player, doubled
+                final int aheadX = playerX + 2 * dir.dx - (dir == NavGrid.Direction.UP ? 2 : 0);
+                final int aheadY = playerY + 2 * dir.dy;
+                final Ghost blinky = state.getGhost(Personality.BLINKY);
+                targetTile.setLocation(2 * aheadX - blinky.gridX(), 2 * aheadY - blinky.gridY());
+                break;
+            case CLYDE:
+                // chase when farther than eight tiles away, scatter otherwise
+                final int dx = gridX() - playerX;
+                final int dy = gridY() - playerY;
+                if ( dx * dx + dy * dy >= 64 ) {
+                    targetTile.setLocation(playerX, playerY);
+                } else {
+                    setScatterTarget(state.navGrid);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unexpected value: " + personality);
+        }
+    }
+
+    private float speed()
+    {
+        switch( mode ) {
+            case FRIGHTENED:
+                return SPEED_FRIGHTENED;
+            case RETURNING_TO_SPAWN:
+                return SPEED_RETURNING;
+            default:
+                return SPEED_NORMAL;
+        }
+    }
+
+    public void tick(GameState state)
+    {
+        isMoving = false;
+        if ( hasMode(Mode.WAITING_AT_SPAWN) ) {
+            return;
+        }
+
+        moveCredit += speed();
+        while ( moveCredit >= 1f )
+        {
+            moveCredit -= 1f;
+            step(state);
+
+            if ( hasMode(Mode.RETURNING_TO_SPAWN) && gridX() == GameState.GHOST_SPAWN_X && gridY() == GameState.GHOST_SPAWN_Y )
+            {
+                // back at the ghost house, rejoin the current scatter/chase wave
+                setMode(state.ghostStateTimer.currentMode());
+                decisionX = decisionY = -1;
+                moveCredit = 0;
+                return;
+            }
+        }
+    }
+
+    private void step(GameState state)
+    {
+        final int x = gridX();
+        final int y = gridY();
+        if ( reversePending )
+        {
+            reversePending = false;
+            heading = heading.opposite();
+            decisionX = x;
+            decisionY = y;
+        }
+        else if ( x != decisionX || y != decisionY )
+        {
+            // entered a new tile
+            heading = chooseDirection(state, x, y);
+            decisionX = x;
+            decisionY = y;
+        }
+
+        if ( GameState.maybeMove(heading, this, state.navGrid) ) {
+            isMoving = true;
+        } else {
+            // choose again on next step
+            decisionX = decisionY = -1;
+        }
+    }
+
+    private NavGrid.Direction chooseDirection(GameState state, int x, int y)
+    {
+        final DistanceTable table = state.maze.distances;
+        final int node = table.nodeAt(x, y);
+        if ( node == -1 ) {
+            return heading;
+        }
+
+        if ( hasMode(Mode.RETURNING_TO_SPAWN) )
+        {
+            // eyes take the shortest path home and may turn around
+            final NavGrid.Direction hop = table.nextHopHome(node);
+            return hop != null ? hop : heading;
+        }
+
+        final NavGrid.Direction reverse = heading.opposite();
+        if ( hasMode(Mode.FRIGHTENED) )
+        {
+            int candidates = 0;
+            for (NavGrid.Direction d : TIE_BREAK_ORDER) {
+                if ( d != reverse && table.neighbour(node, d) != -1 ) {
+                    candidates++;
+                }
+            }
+            if ( candidates == 0 ) {
+                return reverse;
+            }
+            int pick = state.random.nextInt(candidates);
+            for (NavGrid.Direction d : TIE_BREAK_ORDER) {
+                if ( d != reverse && table.neighbour(node, d) != -1 && pick-- == 0 ) {
+                    return d;
+                }
+            }
+        }
+
+        selectTargetTile(state);
+        NavGrid.Direction best = null;
+        long bestDistance = Long.MAX_VALUE;
+        for (NavGrid.Direction d : TIE_BREAK_ORDER)
+        {
+            final int neighbour = table.neighbour(node, d);
+            if ( d != reverse && neighbour != -1 )
+            {
+                final long distance = table.distanceToTarget(neighbour, targetTile.x, targetTile.y);
+                if ( distance < bestDistance )
+                {
+                    best = d;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return best != null ? best : reverse;
+    }
+
+    /**
+     * Places this ghost back at the ghost house.
+     */
+    public void respawn(Mode mode)
+    {
+        this.mode = mode;
+        heading = NavGrid.Direction.LEFT;
+        orientation = NavGrid.Direction.LEFT;
+        decisionX = decisionY = -1;
+        reversePending = false;
+        moveCredit = 0;
+        isMoving = false;
     }
 
     @Override
     public void reset()
     {
+        respawn(Mode.WAITING_AT_SPAWN);
         dotCounter.reset();
     }
-}
\ No newline at end of file
+
+    public void copyFrom(Ghost other)
+    {
+        if ( other.personality != personality ) {
+            throw new IllegalArgumentException("Cannot copy "+other.personality+" to "+personality);
+        }
+        super.copyFrom(other);
+        mode = other.mode;
+        heading = other.heading;
+        decisionX = other.decisionX;
+        decisionY = other.decisionY;
+        reversePending = other.reversePending;
+        moveCredit = other.moveCredit;
+        targetTile.x = other.targetTile.x;
+        targetTile.y = other.targetTile.y;
+        dotCounter.copyFrom(other.dotCounter);
+    }
+
+    @Override
+    void writeState(DataOutput out) throws IOException
+    {
+        super.writeState(out);
+        out.writeByte(mode.ordinal());
+        out.writeByte(heading.ordinal());
+        out.writeInt(decisionX);
+        out.writeInt(decisionY);
+        out.writeBoolean(reversePending);
+        out.writeFloat(moveCredit);
+        out.writeInt(targetTile.x);
+        out.writeInt(targetTile.y);
+        dotCounter.writeState(out);
+    }
+
+    @Override
+    void readState(DataInput in, NavGrid navGrid) throws IOException
+    {
+        super.readState(in, navGrid);
+        mode = readEnum(in, Mode.values());
+        heading = readEnum(in, NavGrid.Direction.values());
+        decisionX = in.readInt();
+        decisionY = in.readInt();
+        reversePending = in.readBoolean();
+        moveCredit = in.readFloat();
+        targetTile.x = in.readInt();
+        targetTile.y = in.readInt();
+        dotCounter.readState(in);
+    }
+}
+
@@ -1,137 +1,114 @@
 package de.codesourcery.jpacman;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class GhostStateTimer
 {
-    private static class StateTransition
-    {
-        private final Ghost.Mode ghostMode;
-        private final float durationSeconds;
-        protected StateTransition next;
+    // ghosts stay in the last phase of each table forever
+    private static final float PERMANENT = Integer.MAX_VALUE;
 
-        private float remainingSeconds;
+    private static final Ghost.Mode S = Ghost.Mode.SCATTER;
+    private static final Ghost.Mode C = Ghost.Mode.CHASING;
 
-        public StateTransition(Ghost.Mode ghostMode,float durationSeconds) {
-            this.ghostMode = ghostMode;
-            this.durationSeconds = durationSeconds;
-            this.remainingSeconds = durationSeconds;
-        }
+    /*
+Changes between Chase and Scatter modes occur on a fixed timer, which causes the "wave" effect described by Iwatani. This timer is reset at the beginning of each level and whenever a life is lost. The timer is also paused while the ghosts are in Frightened mode, which occurs whenever Pac-Man eats an energizer. When Frightened mode ends, the ghosts return to their previous mode, and the timer resumes where it left off. The ghosts start out in Scatter mode, and there are four waves of Scatter/Chase alternation defined, after which the ghosts will remain in Chase mode indefinitely (until the timer is reset). For the first level, the durations of these phases are:
 
-        public StateTransition andThen(StateTransition other) {
-            this.next = other;
-            return other;
-        }
+    Scatter for 7 seconds, then Chase for 20 seconds.
+    Scatter for 7 seconds, then Chase for 20 seconds.
+    Scatter for 5 seconds, then Chase for 20 seconds.
+    Scatter for 5 seconds, then switch to Chase mode permanently.
 
-        public void onStateEnter(GameState state) {
-            state.ghosts.stream().filter(Ghost::isAlive).forEach(gh -> gh.setMode(ghostMode));
-        }
+The durations of these phases are changed somewhat when the player reaches level 2,
+and once again when they reach level 5.
 
-        public StateTransition tick(GameState state,float elapsedSeconds) {
-            this.remainingSeconds -= elapsedSeconds;
-            if (remainingSeconds <= 0)
-            {
-                if ( next != null )
-                {
-                    return next;
-                }
-                return GhostStateTimer.getStatesForLevel(state.level);
-            }
-            return this;
-        }
-    }
+Starting on level 2, the third Chase mode lengthens considerably, to 1033 seconds (17 minutes and 13 seconds),
+and the following Scatter mode lasts just 1/60 of a second before the ghosts proceed to their permanent Chase mode.
 
-    private static class PermanentChase extends StateTransition
-    {
-        public PermanentChase()
-        {
-            super(Ghost.Mode.CHASING, Integer.MAX_VALUE);
-            this.next = this;
-        }
+ The level 5 changes build on top of this, additionally reducing the first two
+ Scatter lengths to 5 seconds, and adding the 4 seconds gained here to the third Chase mode, lengthening it to 1037 seconds (17:17).
+ Regarding the 1/60-of-a-second Scatter mode on every level except the first,
+ even though it may seem that switching modes for such an insignificant amount of time is pointless,
+ there is a reason behind it, which shall be revealed shortly.
+     */
+    // the phases are the same on every level, only their durations change
+    static final Ghost.Mode[] MODES = { S, C, S, C, S, C, S, C };
+
+    static final float[][] DURATIONS = {
+        { 7, 20, 7, 20, 5,   20, 5,      PERMANENT }, // level 1
+        { 7, 20, 7, 20, 5, 1033, 1/60f,  PERMANENT }, // level 2-4
+        { 5, 20, 5, 20, 5, 1037, 1/60f,  PERMANENT }  // level 5+
+    };
+
+    // row in DURATIONS for the current level
+    private int table;
+    private int phase;
+    private float remainingSeconds;
+
+    /**
+     * Returns the mode (scatter or chase) ghosts should currently be in.
+     */
+    public Ghost.Mode currentMode() {
+        return MODES[phase];
     }
 
-
-    private StateTransition currentState;
-
     public void reset(GameState state)
     {
         difficultyChanged(state);
     }
 
-    public void tick(GameState state, float elapsedSeconds)
+    public void tick(GameState state)
     {
-        updateState( currentState.tick(state, elapsedSeconds ) , state );
-    }
-
-    private void updateState(StateTransition newState, GameState state)
-    {
-        if ( newState != currentState ) {
-            newState.onStateEnter(state);
-            currentState = newState;
+        final float[] durations = DURATIONS[table];
+        if ( phase == durations.length - 1 ) {
+            return;
+        }
+        remainingSeconds -= state.clock.deltaSeconds();
+        if ( remainingSeconds <= 0 )
+        {
+            phase++;
+            remainingSeconds = durations[phase];
+            state.setModeOfLivingGhosts(currentMode());
         }
     }
 
     public void difficultyChanged(GameState state)
     {
-        currentState = getStatesForLevel(state.level);
-        currentState.onStateEnter(state);
+        table = tableFor(state.level);
+        phase = 0;
+        remainingSeconds = DURATIONS[table][0];
+        state.setModeOfLivingGhosts(currentMode());
     }
 
-    private static StateTransition getStatesForLevel(int level) {
-            /*
-Changes between Chase and Scatter modes occur on a fixed timer, which causes the "wave" effect described by Iwatani. This timer is reset at the beginning of each level and whenever a life is lost. The timer is also paused while the ghosts are in Frightened mode, which occurs whenever Pac-Man eats an energizer. When Frightened mode ends, the ghosts return to their previous mode, and the timer resumes where it left off. The ghosts start out in Scatter mode, and there are four waves of Scatter/Chase alternation defined, after which the ghosts will remain in Chase mode indefinitely (until the timer is reset). For the first level, the durations of these phases are:
-
-    Scatter for 7 seconds, then Chase for 20 seconds.
-    Scatter for 7 seconds, then Chase for 20 seconds.
-    Scatter for 5 seconds, then Chase for 20 seconds.
-    Scatter for 5 seconds, then switch to Chase mode permanently.
+    // row in DURATIONS
+    static int tableFor(int level) {
+        return level == 1 ? 0 : level < 5 ? 1 : 2;
+    }
 
-The durations of these phases are changed somewhat when the player reaches level 2,
-and once again when they reach level 5.
+    public void copyFrom(GhostStateTimer other)
+    {
+        table = other.table;
+        phase = other.phase;
+        remainingSeconds = other.remainingSeconds;
+    }
 
-Starting on level 2, the third Chase mode lengthens considerably, to 1033 seconds (17 minutes and 13 seconds),
-and the following Scatter mode lasts just 1/60 of a second before the ghosts proceed to their permanent Chase mode.
+    void writeState(DataOutput out) throws IOException
+    {
+        out.writeByte(table);
+        out.writeByte(phase);
+        out.writeFloat(remainingSeconds);
+    }
 
- The level 5 changes build on top of this, additionally reducing the first two
- Scatter lengths to 5 seconds, and adding the 4 seconds gained here to the third Chase mode, lengthening it to 1037 seconds (17:17).
- Regarding the 1/60-of-a-second Scatter mode on every level except the first,
- even though it may seem that switching modes for such an insignificant amount of time is pointless,
- there is a reason behind it, which shall be revealed shortly.
-     */
-        StateTransition result;
-        if ( level == 1 )
-        {
-            result = new StateTransition(Ghost.Mode.SCATTER, 7);
-            result
-                .andThen(new StateTransition(Ghost.Mode.CHASING, 20))
-                .andThen(new StateTransition(Ghost.Mode.SCATTER, 7))
-                .andThen(new StateTransition(Ghost.Mode.CHASING, 20))
-                .andThen(new StateTransition(Ghost.Mode.SCATTER, 5))
-                .andThen(new StateTransition(Ghost.Mode.CHASING, 20))
-                .andThen(new StateTransition(Ghost.Mode.SCATTER, 5))
-                .andThen(new PermanentChase());
-        }
-        else if ( level < 5 ) {
-            result = new StateTransition(Ghost.Mode.SCATTER, 7);
-
-            result           .andThen(new StateTransition(Ghost.Mode.CHASING, 20))
-                .andThen(new StateTransition(Ghost.Mode.SCATTER, 7))
-                .andThen(new StateTransition(Ghost.Mode.CHASING, 20))
-                .andThen(new StateTransition(Ghost.Mode.SCATTER, 5))
-                .andThen(new StateTransition(Ghost.Mode.CHASING, 1033))
-                .andThen(new StateTransition(Ghost.Mode.SCATTER, 1/60f))
-                .andThen(new PermanentChase());
-        }
-        else
-        {
-            result = new StateTransition(Ghost.Mode.SCATTER, 5);
-            result
-                .andThen(new StateTransition(Ghost.Mode.CHASING, 20))
-                .andThen(new StateTransition(Ghost.Mode.SCATTER, 5))
-                .andThen(new StateTransition(Ghost.Mode.CHASING, 20))
-                .andThen(new StateTransition(Ghost.Mode.SCATTER, 5))
-                .andThen(new StateTransition(Ghost.Mode.CHASING, 1037))
-                .andThen(new StateTransition(Ghost.Mode.SCATTER, 1 / 60f))
-                .andThen(new PermanentChase());
+    void readState(DataInput in) throws IOException
+    {
+        final int newTable = in.readUnsignedByte();
+        final int newPhase = in.readUnsignedByte();
+        if ( newTable >= DURATIONS.length || newPhase >= MODES.length ) {
+            throw new IOException("Invalid ghost timer phase "+newTable+"/"+newPhase);
         }
-        return result;
+        table = newTable;
+        phase = newPhase;
+        remainingSeconds = in.readFloat();
     }
 }
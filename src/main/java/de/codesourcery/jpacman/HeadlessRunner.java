@@ -0,0 +1,348 @@
+package de.codesourcery.jpacman;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Plays games as fast as possible without any UI, for
+ * regression-testing gameplay and tuning difficulty.
+ *
+ * Run with
+ * <pre>
+ * java -cp target/jpacman-jar-with-dependencies.jar de.codesourcery.jpacman.HeadlessRunner [options]
+ * </pre>
+ */
+public class HeadlessRunner
+{
+    public static final float TICK_SECONDS = 1 / 60f;
+
+    private final GameState state;
+    private final InputSource inputSource;
+    private final int maxTicksPerGame;
+    // seeds of consecutive games
+    private final GameRandom seeds;
+
+    private final Set<PlayingField.Input> input = EnumSet.noneOf(PlayingField.Input.class);
+
+    public HeadlessRunner(InputSource inputSource, int maxTicksPerGame)
+    {
+        this(new GameState(), inputSource, maxTicksPerGame);
+    }
+
+    public HeadlessRunner(GameState state, InputSource inputSource, int maxTicksPerGame)
+    {
+        if ( maxTicksPerGame < 1 ) {
+            throw new IllegalArgumentException("maxTicksPerGame must be >= 1");
+        }
+        this.state = state;
+        this.inputSource = inputSource;
+        this.maxTicksPerGame = maxTicksPerGame;
+        this.seeds = new GameRandom(state.getSeed());
+    }
+
+    /**
+     * Plays a single game until either the game is over or
+     * the tick limit has been reached.
+     *
+     * @return number of ticks played
+     */
+    public int playGame()
+    {
+        startGame();
+        int ticks = 0;
+        while ( ! isGameFinished(ticks) )
+        {
+            tick();
+            ticks++;
+        }
+        return ticks;
+    }
+
+    /**
+     * Starts a new game.
+     *
+     * The seed of each game is derived from the seed the game state had when this
+     * runner was created, so runs with the same initial seed and input are reproducible.
+     */
+    public void startGame()
+    {
+        state.reset(seeds.nextLong());
+        inputSource.reset();
+    }
+
+    /**
+     * Returns whether a game that has been played for the given
+     * number of ticks is finished.
+     */
+    public boolean isGameFinished(int ticksPlayed) {
+        return state.gameOver || ticksPlayed >= maxTicksPerGame;
+    }
+
+    /**
+     * Advances the current game by a single tick.
+     */
+    public void tick()
+    {
+        input.clear();
+        inputSource.nextInput(state, input);
+        state.tick(input, TICK_SECONDS);
+    }
+
+    /**
+     * Plays a single game like {@link #playGame()} and records it.
+     *
+     * @return number of ticks played
+     */
+    public int recordGame(File file) throws IOException
+    {
+        startGame();
+        final ReplayRecorder recorder = new ReplayRecorder(file, state);
+        try
+        {
+            int ticks = 0;
+            while ( ! isGameFinished(ticks) )
+            {
+                input.clear();
+                inputSource.nextInput(state, input);
+                recorder.tick(state, input);
+                ticks++;
+            }
+            recorder.finish(state);
+            return ticks;
+        }
+        finally {
+            recorder.close();
+        }
+    }
+
+    /**
+     * Re-simulates a game recorded on the built-in maze, see {@link #verifyReplay(File, Maze)}.
+     */
+    public static boolean verifyReplay(File file) throws IOException
+    {
+        return verifyReplay(file, Maze.getDefault());
+    }
+
+    /**
+     * Re-simulates a recorded game as fast as possible and checks that
+     * it still plays out the same way.
+     *
+     * @param maze maze the game was recorded on
+     * @return <code>true</code> if the simulation matched the recording
+     */
+    public static boolean verifyReplay(File file, Maze maze) throws IOException
+    {
+        final Replay replay = Replay.read(file);
+        if ( replay.getMazeFingerprint() != maze.fingerprint )
+        {
+            System.err.println("MISMATCH: Replay was recorded on a different maze (use --maze <compiled maze>)");
+            return false;
+        }
+        final GameState state = replay.newGame(maze);
+
+        final long start = System.nanoTime();
+        final int mismatch = replay.verify(state);
+        final long elapsed = System.nanoTime() - start;
+
+        System.out.println(replay);
+        System.out.printf("Re-simulated %d ticks in %.1f ms (%.0fx real time)%n",
+            replay.getTickCount(), elapsed / 1e6, replay.getTickCount() * replay.getTickSeconds() * 1e9 / elapsed);
+        if ( mismatch != -1 )
+        {
+            System.err.println("MISMATCH: Game state differs from recording at tick "+mismatch);
+            return false;
+        }
+        System.out.println("OK: score "+state.player.score+", level "+state.level+", lifes "+state.player.lifes);
+        return true;
+    }
+
+    public GameStatistics run(int games)
+    {
+        final GameStatistics stats = new GameStatistics();
+        final long start = System.nanoTime();
+        for (int i = 0; i < games; i++)
+        {
+            final int ticks = playGame();
+            stats.gameFinished(state, ticks);
+        }
+        stats.elapsedNanos = System.nanoTime() - start;
+        return stats;
+    }
+
+    public GameState getState() {
+        return state;
+    }
+
+    /**
+     * Checks that steady-state ticking does not allocate.
+     *
+     * Ticks where a game starts or ends, a life is lost or the level changes are not
+     * steady-state and are ignored. To tolerate one-off allocations by the JVM (classes loaded
+     * and linked when the JIT compiler gets to a code path late, for example the accessors of
+     * memory-mapped maze tables), up to <code>attempts</code> windows of <code>ticks</code> ticks
+     * are measured and the check passes as soon as one of them did not allocate at all.
+     *
+     * @return number of bytes allocated during the best window (0 means the check passed)
+     */
+    public long checkZeroAllocation(int warmupTicks, int ticks, int attempts)
+    {
+        final com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if ( ! bean.isThreadAllocatedMemorySupported() ) {
+            throw new UnsupportedOperationException("JVM does not support measuring allocated memory");
+        }
+        bean.setThreadAllocatedMemoryEnabled(true);
+        final long threadId = Thread.currentThread().getId();
+
+        startGame();
+        int inGame = 0;
+        for (int i = 0; i < warmupTicks; i++)
+        {
+            tick();
+            if ( isGameFinished(++inGame) ) {
+                startGame();
+                inGame = 0;
+            }
+        }
+
+        // cost of measuring itself
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 100; i++)
+        {
+            final long start = bean.getThreadAllocatedBytes(threadId);
+            overhead = Math.min(overhead, bean.getThreadAllocatedBytes(threadId) - start);
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int attempt = 0; attempt < attempts && best > 0; attempt++)
+        {
+            long allocated = 0;
+            for (int i = 0; i < ticks; i++)
+            {
+                final int lifes = state.player.lifes;
+                final int level = state.level;
+
+                final long start = bean.getThreadAllocatedBytes(threadId);
+                tick();
+                final long bytes = bean.getThreadAllocatedBytes(threadId) - start - overhead;
+
+                final boolean steadyState = ! state.gameOver && lifes == state.player.lifes && level == state.level;
+                if ( steadyState ) {
+                    allocated += Math.max(0, bytes);
+                }
+                if ( isGameFinished(++inGame) ) {
+                    startGame();
+                    inGame = 0;
+                }
+            }
+            best = Math.min(best, allocated);
+        }
+        return best;
+    }
+
+    private static void printUsage()
+    {
+        System.out.println("Usage: HeadlessRunner [options]\n\n" +
+            "--games <count>          number of games to play (default: 1000)\n" +
+            "--max-ticks <count>      max. ticks per game (default: 100000)\n" +
+            "--seed <number>          seed for the game and random input (default: 0xdeadbeef)\n" +
+            "--maze <file>            play on a compiled maze (see MazeCompiler) instead of the built-in one\n" +
+            "--ticks-per-turn <count> random input changes direction once every N ticks on average (default: 30)\n" +
+            "--script <file>          read player input from a script instead of using random input\n" +
+            "--warmup <count>         number of games to play before measuring (default: 100)\n" +
+            "--check-allocation       verify that steady-state ticks do not allocate instead of measuring throughput\n" +
+            "--record <file>          play a single game and record it\n" +
+            "--replay <file>          re-simulate a recorded game and verify it still plays out the same way\n" +
+            "--help                   print this help");
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        System.setProperty("java.awt.headless", "true");
+
+        int games = 1000;
+        int maxTicks = 100_000;
+        long seed = 0xdeadbeef;
+        int ticksPerTurn = 30;
+        int warmup = 100;
+        String script = null;
+        boolean checkAllocation = false;
+        File record = null;
+        File replay = null;
+        Maze maze = null;
+
+        for (int i = 0; i < args.length; i++)
+        {
+            switch (args[i])
+            {
+                case "--games":          games = Integer.parseInt(args[++i]); break;
+                case "--max-ticks":      maxTicks = Integer.parseInt(args[++i]); break;
+                case "--seed":           seed = Long.decode(args[++i]); break;
+                case "--ticks-per-turn": ticksPerTurn = Integer.parseInt(args[++i]); break;
+                case "--warmup":         warmup = Integer.parseInt(args[++i]); break;
+                case "--script":         script = args[++i]; break;
+                case "--check-allocation": checkAllocation = true; break;
+                case "--record":         record = new File(args[++i]); break;
+                case "--replay":         replay = new File(args[++i]); break;
+                case "--maze":           maze = MazeFile.load(new File(args[++i]).toPath()); break;
+                case "--help":
+                    printUsage();
+                    return;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    printUsage();
+                    System.exit(1);
+            }
+        }
+
+        if ( maze == null ) {
+            maze = Maze.getDefault();
+        }
+
+        if ( replay != null )
+        {
+            if ( ! verifyReplay(replay, maze) ) {
+                System.exit(1);
+            }
+            return;
+        }
+
+        final InputSource inputSource;
+        if ( script != null ) {
+            try ( Reader reader = new FileReader(script) ) {
+                inputSource = InputSource.scripted(reader);
+            }
+        } else {
+            inputSource = InputSource.random(seed, ticksPerTurn);
+        }
+
+        final HeadlessRunner runner = new HeadlessRunner(new GameState(maze, seed), inputSource, maxTicks);
+        if ( record != null )
+        {
+            final int ticks = runner.recordGame(record);
+            System.out.println("Recorded "+ticks+" ticks to "+record+" ("+record.length()+" bytes), score "+runner.state.player.score);
+            return;
+        }
+        if ( checkAllocation )
+        {
+            // publishing events must not allocate either
+            runner.state.enableEvents(GameEvents.DEFAULT_CAPACITY);
+            final long bytes = runner.checkZeroAllocation(200_000, 100_000, 10);
+            if ( bytes > 0 ) {
+                System.err.println("FAILED: Steady-state ticks allocated "+bytes+" bytes");
+                System.exit(1);
+            }
+            System.out.println("OK: Steady-state ticks do not allocate");
+            return;
+        }
+        if ( warmup > 0 ) {
+            runner.run(warmup);
+        }
+        System.out.println(runner.run(games));
+    }
+}
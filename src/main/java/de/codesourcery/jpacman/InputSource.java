@@ -0,0 +1,153 @@
+package de.codesourcery.jpacman;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Produces player input for driving a {@link GameState} without a keyboard.
+ */
+public interface InputSource
+{
+    /**
+     * Fills in the input for the next tick.
+     *
+     * @param state game being played
+     * @param input input to populate, always empty when this method is invoked
+     */
+    void nextInput(GameState state, Set<PlayingField.Input> input);
+
+    /**
+     * Invoked whenever a new game starts.
+     */
+    default void reset() {
+    }
+
+    /**
+     * Returns an input source that keeps moving in a random direction
+     * and picks a new one with a probability of 1/<code>ticksPerTurn</code> per tick.
+     */
+    static InputSource random(long seed, int ticksPerTurn)
+    {
+        return new RandomInput(seed, ticksPerTurn);
+    }
+
+    /**
+     * Parses a script where each line has the form <code>ticks[,INPUT...]</code>,
+     * for example <code>30,LEFT</code> holds the LEFT key for 30 ticks.
+     * Lines with no input wait for the given number of ticks. The script
+     * is repeated when it's exhausted.
+     */
+    static InputSource scripted(Reader reader) throws IOException
+    {
+        final List<ScriptedInput.Step> steps = new ArrayList<>();
+        final BufferedReader in = new BufferedReader(reader);
+        String line;
+        while ( ( line = in.readLine() ) != null )
+        {
+            line = line.trim();
+            if ( line.isEmpty() || line.startsWith("#") ) {
+                continue;
+            }
+            final String[] parts = line.split(",");
+            final int ticks = Integer.parseInt(parts[0].trim());
+            if ( ticks < 1 ) {
+                throw new IOException("Tick count must be >= 1: "+line);
+            }
+            final Set<PlayingField.Input> keys = EnumSet.noneOf(PlayingField.Input.class);
+            for (int i = 1; i < parts.length; i++) {
+                keys.add(PlayingField.Input.valueOf(parts[i].trim().toUpperCase()));
+            }
+            steps.add(new ScriptedInput.Step(ticks, keys));
+        }
+        if ( steps.isEmpty() ) {
+            throw new IOException("Input script is empty");
+        }
+        return new ScriptedInput(steps);
+    }
+
+    final class RandomInput implements InputSource
+    {
+        private static final PlayingField.Input[] DIRECTIONS = {
+            PlayingField.Input.UP, PlayingField.Input.DOWN, PlayingField.Input.LEFT, PlayingField.Input.RIGHT
+        };
+
+        private final int ticksPerTurn;
+        private final GameRandom rnd;
+        private PlayingField.Input current;
+
+        private RandomInput(long seed, int ticksPerTurn)
+        {
+            if ( ticksPerTurn < 1 ) {
+                throw new IllegalArgumentException("ticksPerTurn must be >= 1");
+            }
+            this.ticksPerTurn = ticksPerTurn;
+            this.rnd = new GameRandom(seed);
+            reset();
+        }
+
+        @Override
+        public void reset()
+        {
+            // keep consuming the same random sequence so consecutive games differ
+            current = DIRECTIONS[rnd.nextInt(DIRECTIONS.length)];
+        }
+
+        @Override
+        public void nextInput(GameState state, Set<PlayingField.Input> input)
+        {
+            if ( rnd.nextInt(ticksPerTurn) == 0 ) {
+                current = DIRECTIONS[rnd.nextInt(DIRECTIONS.length)];
+            }
+            input.add(current);
+        }
+    }
+
+    final class ScriptedInput implements InputSource
+    {
+        private static final class Step
+        {
+            public final int ticks;
+            public final Set<PlayingField.Input> input;
+
+            private Step(int ticks, Set<PlayingField.Input> input)
+            {
+                this.ticks = ticks;
+                this.input = input;
+            }
+        }
+
+        private final List<Step> steps;
+        private int stepIdx;
+        private int ticksRemaining;
+
+        private ScriptedInput(List<Step> steps)
+        {
+            this.steps = steps;
+            reset();
+        }
+
+        @Override
+        public void reset()
+        {
+            stepIdx = 0;
+            ticksRemaining = steps.get(0).ticks;
+        }
+
+        @Override
+        public void nextInput(GameState state, Set<PlayingField.Input> input)
+        {
+            while ( ticksRemaining <= 0 )
+            {
+                stepIdx = (stepIdx + 1) % steps.size();
+                ticksRemaining = steps.get(stepIdx).ticks;
+            }
+            ticksRemaining--;
+            input.addAll(steps.get(stepIdx).input);
+        }
+    }
+}
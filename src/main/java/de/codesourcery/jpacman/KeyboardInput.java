@@ -0,0 +1,49 @@
+package de.codesourcery.jpacman;
+
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps key presses to {@link PlayingField.Input}s.
+ *
+ * The set of currently pressed inputs is written by the EDT and
+ * may be read concurrently by the game loop.
+ */
+public class KeyboardInput extends KeyAdapter
+{
+    public final Set<PlayingField.Input> userInput = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void keyPressed(KeyEvent e)
+    {
+        mapToInput(e).ifPresent(userInput::add);
+    }
+
+    @Override
+    public void keyReleased(KeyEvent e)
+    {
+        mapToInput(e).ifPresent(userInput::remove);
+    }
+
+    private Optional<PlayingField.Input> mapToInput(KeyEvent e)
+    {
+        switch( e.getKeyCode() ) {
+            case KeyEvent.VK_A:
+                return Optional.of(PlayingField.Input.LEFT);
+            case KeyEvent.VK_D:
+                return Optional.of(PlayingField.Input.RIGHT);
+            case KeyEvent.VK_W:
+                return Optional.of(PlayingField.Input.UP);
+            case KeyEvent.VK_S:
+                return Optional.of(PlayingField.Input.DOWN);
+            case KeyEvent.VK_ENTER:
+                return Optional.of(PlayingField.Input.RESTART);
+            case KeyEvent.VK_SPACE:
+                return Optional.of(PlayingField.Input.DEBUG);
+        }
+        return Optional.empty();
+    }
+}
@@ -5,7 +5,7 @@ import java.util.Objects;
 
 public final class Line
 {
-    public Point start,end;
+    public final Point start,end;
 
     public Line(Point start, Point end)
     {
@@ -39,29 +39,33 @@ public final class Line
     }
 
     public float getPosition(Point p) {
+        return getPosition(p.x, p.y);
+    }
+
+    public float getPosition(int x, int y) {
 
         float delta;
         float len;
         float percent;
         if ( isHoriz() ) {
-            if ( p.y != start.y ) {
+            if ( y != start.y ) {
                 throw new IllegalArgumentException();
             }
             int minX = Math.min(start.x, end.x);
             int maxX = Math.max(start.x, end.x);
             len = maxX - minX;
-            delta = p.x - minX;
+            delta = x - minX;
         }
         else
         {
-            if (p.x != start.x)
+            if (x != start.x)
             {
                 throw new IllegalArgumentException();
             }
             int minY = Math.min(start.y, end.y);
             int maxY = Math.max(start.y, end.y);
             len = maxY - minY;
-            delta = p.y - minY;
+            delta = y - minY;
         }
         percent = delta / len;
         if ( percent < 0 || percent > 1.0f ) {
@@ -88,13 +92,62 @@ public final class Line
 
     public boolean contains(int localX,int localY)
     {
-        final Point min = min();
-        final Point max = max();
+        if ( isHoriz() ) {
+            return localY == start.y && localX >= Math.min(start.x, end.x) && localX <= Math.max(start.x, end.x);
+        }
+        return localX == start.x && localY >= Math.min(start.y, end.y) && localY <= Math.max(start.y, end.y);
+    }
 
+    /**
+     * Returns the X coordinate of the tile at a relative position (0...1) on this line.
+     */
+    public int gridX(float position)
+    {
+        if ( isHoriz() ) {
+            int minX = Math.min(start.x, end.x);
+            int maxX = Math.max(start.x, end.x);
+            return minX + Math.round( (maxX-minX) * position);
+        }
+        return start.x;
+    }
+
+    /**
+     * Returns the Y coordinate of the tile at a relative position (0...1) on this line.
+     */
+    public int gridY(float position)
+    {
+        if ( isHoriz() ) {
+            return start.y;
+        }
+        int minY = Math.min(start.y, end.y);
+        int maxY = Math.max(start.y, end.y);
+        return minY + Math.round( (maxY-minY) * position );
+    }
+
+    /**
+     * Returns the (fractional) X coordinate of a relative position (0...1) on this line.
+     */
+    public float x(float position)
+    {
+        if ( isHoriz() ) {
+            int minX = Math.min(start.x, end.x);
+            int maxX = Math.max(start.x, end.x);
+            return minX + (maxX-minX) * position;
+        }
+        return start.x;
+    }
+
+    /**
+     * Returns the (fractional) Y coordinate of a relative position (0...1) on this line.
+     */
+    public float y(float position)
+    {
         if ( isHoriz() ) {
-            return localY == start.y && localX >= min.x && localX <= max.x;
+            return start.y;
         }
-        return localX == start.x && localY >= min.y && localY <= max.y;
+        int minY = Math.min(start.y, end.y);
+        int maxY = Math.max(start.y, end.y);
+        return minY + (maxY-minY) * position;
     }
 
     public boolean canBeMerged(Line other) {
@@ -0,0 +1,214 @@
+package de.codesourcery.jpacman;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Uniform-grid spatial index over the bounding boxes of lines (in grid coordinates).
+ *
+ * Each bucket covers a square of tiles and lists the lines whose bounding box overlaps it,
+ * so hit-testing only looks at the lines near the query instead of all of them. The index
+ * is rebuilt in one linear pass; callers that edit the line list just {@link #invalidate()} it
+ * and the next query rebuilds it.
+ */
+public final class LineIndex
+{
+    private List<Line> lines = List.of();
+    private boolean valid;
+
+    private int minX;
+    private int minY;
+    private int cellSize;
+    private int cellColumns;
+    private int cellRows;
+
+    // indices (into 'lines') of lines overlapping a bucket are
+    // entries[ offsets[bucket] ... offsets[bucket+1] - 1 ], ascending
+    private int[] offsets = new int[1];
+    private int[] entries = new int[0];
+
+    /**
+     * Indexes a list of lines. The list is not copied, call {@link #invalidate()} after changing it.
+     */
+    public void setLines(List<Line> lines)
+    {
+        this.lines = lines;
+        this.valid = false;
+    }
+
+    public void invalidate() {
+        valid = false;
+    }
+
+    private void rebuild()
+    {
+        valid = true;
+        final int count = lines.size();
+        if ( count == 0 )
+        {
+            cellColumns = cellRows = 0;
+            offsets = new int[1];
+            return;
+        }
+
+        int maxX;
+        int maxY;
+        minX = minY = Integer.MAX_VALUE;
+        maxX = maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++)
+        {
+            final Line l = lines.get(i);
+            minX = Math.min(minX, Math.min(l.start.x, l.end.x));
+            minY = Math.min(minY, Math.min(l.start.y, l.end.y));
+            maxX = Math.max(maxX, Math.max(l.start.x, l.end.x));
+            maxY = Math.max(maxY, Math.max(l.start.y, l.end.y));
+        }
+        final long width = (long) maxX - minX + 1;
+        final long height = (long) maxY - minY + 1;
+        // about one bucket per line
+        cellSize = (int) Math.max(1, Math.ceil(Math.sqrt(width * (double) height / count)));
+        cellColumns = (int) ((width + cellSize - 1) / cellSize);
+        cellRows = (int) ((height + cellSize - 1) / cellSize);
+
+        // pass 1: count lines per bucket, pass 2: fill in line order so buckets stay sorted
+        offsets = new int[cellColumns * cellRows + 1];
+        for (int pass = 1; pass <= 2; pass++)
+        {
+            final int[] fillPtr = pass == 2 ? offsets.clone() : null;
+            for (int i = 0; i < count; i++)
+            {
+                final Line l = lines.get(i);
+                final int x0 = cellX(Math.min(l.start.x, l.end.x));
+                final int x1 = cellX(Math.max(l.start.x, l.end.x));
+                final int y0 = cellY(Math.min(l.start.y, l.end.y));
+                final int y1 = cellY(Math.max(l.start.y, l.end.y));
+                for (int cy = y0; cy <= y1; cy++)
+                {
+                    for (int cx = x0; cx <= x1; cx++)
+                    {
+                        if ( pass == 1 ) {
+                            offsets[cy * cellColumns + cx + 1]++;
+                        } else {
+                            entries[fillPtr[cy * cellColumns + cx]++] = i;
+                        }
+                    }
+                }
+            }
+            if ( pass == 1 )
+            {
+                for (int b = 1; b < offsets.length; b++) {
+                    offsets[b] += offsets[b - 1];
+                }
+                entries = new int[offsets[offsets.length - 1]];
+            }
+        }
+    }
+
+    private int cellX(int x) {
+        return (x - minX) / cellSize;
+    }
+
+    private int cellY(int y) {
+        return (y - minY) / cellSize;
+    }
+
+    private static int clamp(long value, int max) {
+        return (int) Math.max(0, Math.min(max, value));
+    }
+
+    /**
+     * Returns the first line (in list order) whose bounding box overlaps a rectangle and that matches a filter.
+     *
+     * @param filter exact test applied to candidates, may be <code>null</code>
+     * @return line or <code>null</code>
+     */
+    public Line findFirst(int x0, int y0, int x1, int y1, Predicate<Line> filter)
+    {
+        final int index = findFirstIndex(x0, y0, x1, y1, filter);
+        return index == -1 ? null : lines.get(index);
+    }
+
+    /**
+     * @return index of the line found by {@link #findFirst(int, int, int, int, Predicate)} or -1
+     */
+    public int findFirstIndex(int x0, int y0, int x1, int y1, Predicate<Line> filter)
+    {
+        if ( ! valid ) {
+            rebuild();
+        }
+        if ( cellColumns == 0 ) {
+            return -1;
+        }
+        final int cx0 = clamp(((long) x0 - minX) / cellSize, cellColumns - 1);
+        final int cx1 = clamp(((long) x1 - minX) / cellSize, cellColumns - 1);
+        final int cy0 = clamp(((long) y0 - minY) / cellSize, cellRows - 1);
+        final int cy1 = clamp(((long) y1 - minY) / cellSize, cellRows - 1);
+        if ( x1 < minX || y1 < minY || x0 > minX + (long) cellColumns * cellSize || y0 > minY + (long) cellRows * cellSize ) {
+            return -1;
+        }
+
+        int best = -1;
+        for (int cy = cy0; cy <= cy1; cy++)
+        {
+            for (int cx = cx0; cx <= cx1; cx++)
+            {
+                final int bucket = cy * cellColumns + cx;
+                for (int i = offsets[bucket], end = offsets[bucket + 1]; i < end; i++)
+                {
+                    final int candidate = entries[i];
+                    if ( best != -1 && candidate >= best ) {
+                        // buckets are sorted, nothing better in this one
+                        break;
+                    }
+                    final Line l = lines.get(candidate);
+                    if ( Math.min(l.start.x, l.end.x) <= x1 && Math.max(l.start.x, l.end.x) >= x0 &&
+                         Math.min(l.start.y, l.end.y) <= y1 && Math.max(l.start.y, l.end.y) >= y0 &&
+                         ( filter == null || filter.test(l) ) )
+                    {
+                        best = candidate;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Visits every line whose bounding box overlaps a rectangle exactly once.
+     */
+    public void forEach(int x0, int y0, int x1, int y1, Consumer<Line> visitor)
+    {
+        if ( ! valid ) {
+            rebuild();
+        }
+        if ( cellColumns == 0 || x1 < minX || y1 < minY || x0 > minX + (long) cellColumns * cellSize || y0 > minY + (long) cellRows * cellSize ) {
+            return;
+        }
+        final int cx0 = clamp(((long) x0 - minX) / cellSize, cellColumns - 1);
+        final int cx1 = clamp(((long) x1 - minX) / cellSize, cellColumns - 1);
+        final int cy0 = clamp(((long) y0 - minY) / cellSize, cellRows - 1);
+        final int cy1 = clamp(((long) y1 - minY) / cellSize, cellRows - 1);
+
+        for (int cy = cy0; cy <= cy1; cy++)
+        {
+            for (int cx = cx0; cx <= cx1; cx++)
+            {
+                final int bucket = cy * cellColumns + cx;
+                for (int i = offsets[bucket], end = offsets[bucket + 1]; i < end; i++)
+                {
+                    final Line l = lines.get(entries[i]);
+                    final int minLineX = Math.min(l.start.x, l.end.x);
+                    final int minLineY = Math.min(l.start.y, l.end.y);
+                    // lines spanning several buckets are only reported by the first one the query covers
+                    if ( cx == Math.max(cx0, cellX(minLineX)) && cy == Math.max(cy0, cellY(minLineY)) &&
+                         minLineX <= x1 && Math.max(l.start.x, l.end.x) >= x0 &&
+                         minLineY <= y1 && Math.max(l.start.y, l.end.y) >= y0 )
+                    {
+                        visitor.accept(l);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -3,6 +3,8 @@ package de.codesourcery.jpacman;
 public class LocationInfo
 {
     public Line currentLine;
+    // index of currentLine in NavGrid#lines
+    public int lineId;
 
     // relative position on this line in percent (0...1)
     // - for horizontal lines, 0% means player is at the left-most point
@@ -17,6 +19,12 @@ public class LocationInfo
         return position == 0.0f || position == 1.0f;
     }
 
+    public void setLine(NavGrid navGrid, int lineId)
+    {
+        this.lineId = lineId;
+        this.currentLine = navGrid.getLine(lineId);
+    }
+
     public void incPosition(float delta) {
         setPosition( position + delta );
     }
@@ -25,6 +33,13 @@ public class LocationInfo
         this.position = Math.max(0f,Math.min(1.0f,p));
     }
 
+    public void copyFrom(LocationInfo other)
+    {
+        currentLine = other.currentLine;
+        lineId = other.lineId;
+        position = other.position;
+    }
+
     @Override
     public String toString()
     {
@@ -5,32 +5,84 @@ import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 
 public class Main extends JFrame
 {
-    public static void main(String[] args) throws InvocationTargetException, InterruptedException
+    // game recorded with --record, null if not recording
+    private static ReplayRecorder recorder;
+
+    public static void main(String[] args) throws InvocationTargetException, InterruptedException, IOException
     {
-        SwingUtilities.invokeAndWait(() ->
+        boolean active = false;
+        boolean fullScreen = false;
+        File recordTo = null;
+        File replayFrom = null;
+        int seekTo = 0;
+        Maze maze = null;
+        for (int i = 0; i < args.length; i++)
         {
-            try
+            switch (args[i])
             {
-                new Main().run();
+                case "--active":     active = true; break;
+                case "--fullscreen": active = fullScreen = true; break;
+                case "--record":     recordTo = new File(args[++i]); break;
+                case "--replay":     replayFrom = new File(args[++i]); break;
+                case "--seek":       seekTo = Integer.parseInt(args[++i]); break;
+                case "--maze":       maze = MazeFile.load(new File(args[++i]).toPath()); break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.err.println("Usage: Main [--active] [--fullscreen] [--maze <compiled maze>] [--record <file> | --replay <file> [--seek <tick>]]");
+                    System.exit(1);
             }
-            catch (IOException e)
+        }
+
+        if ( maze == null ) {
+            maze = Maze.getDefault();
+        }
+
+        final GameState state;
+        final InputSource replayInput;
+        if ( replayFrom != null )
+        {
+            final Replay replay = Replay.read(replayFrom);
+            if ( replay.getMazeFingerprint() != maze.fingerprint )
             {
-                throw new RuntimeException(e);
+                System.err.println("Replay was recorded on a different maze (use --maze <compiled maze>)");
+                System.exit(1);
+            }
+            state = replay.newGame(maze);
+            replay.seek(state, seekTo);
+            replayInput = replay.inputSource(seekTo);
+        }
+        else
+        {
+            state = new GameState(maze);
+            replayInput = null;
+            if ( recordTo != null ) {
+                recorder = new ReplayRecorder(recordTo, state);
+            }
+        }
+
+        final boolean activeRendering = active;
+        final boolean fullScreenMode = fullScreen;
+        SwingUtilities.invokeAndWait(() ->
+        {
+            if ( activeRendering ) {
+                runActive(state, replayInput, fullScreenMode);
+            } else {
+                new Main().run(state, replayInput);
             }
         });
     }
 
-    public void run() throws IOException
+    /**
+     * @param replayInput input of the replay to play back, <code>null</code> to play using the keyboard
+     */
+    public void run(GameState state, InputSource replayInput)
     {
-        final GameState state = new GameState();
-
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         getContentPane().setLayout(new GridBagLayout());
         final GridBagConstraints cnstrs = new GridBagConstraints();
@@ -39,29 +91,56 @@ public class Main extends JFrame
         cnstrs.fill=GridBagConstraints.BOTH;
 //        getContentPane().add( new EditorPanel() , cnstrs );
 
-        final PlayingField panel = new PlayingField(state);
+        final EngineMetrics metrics = new EngineMetrics();
+        metrics.register("game");
+
+        final PlayingField panel = new PlayingField(state.maze, state.enableRenderSnapshots(), metrics);
         getContentPane().add(panel, cnstrs );
         setLocationRelativeTo(null);
         pack();
         setVisible(true);
 
-        final Timer t = new Timer(16, new ActionListener()
+        // simulation runs on its own thread, the EDT only paints
+        startGameLoop(state, replayInput != null ? replayInput : GameLoop.keyboard(panel.userInput), metrics);
+
+        final Timer t = new Timer(16, ev -> panel.repaint() );
+        t.start();
+    }
+
+    /**
+     * Renders from a dedicated thread using a BufferStrategy instead of Swing repaints.
+     */
+    private static void runActive(GameState state, InputSource replayInput, boolean fullScreen)
+    {
+        final KeyboardInput keyboard = new KeyboardInput();
+        final EngineMetrics metrics = new EngineMetrics();
+        metrics.register("game");
+
+        final ActiveRenderer renderer = new ActiveRenderer(state.maze, state.enableRenderSnapshots(), keyboard, metrics, fullScreen);
+        renderer.start();
+
+        startGameLoop(state, replayInput != null ? replayInput : GameLoop.keyboard(keyboard.userInput), metrics);
+    }
+
+    private static void startGameLoop(GameState state, InputSource input, EngineMetrics metrics)
+    {
+        final GameLoop loop = new GameLoop(state, input, metrics, recorder);
+        loop.start();
+
+        if ( recorder != null )
         {
-            private long lastTick;
-            @Override
-            public void actionPerformed(ActionEvent ev)
+            // complete the replay when the window gets closed
+            Runtime.getRuntime().addShutdownHook(new Thread(() ->
             {
-                final long now = System.currentTimeMillis();
-                if ( lastTick != 0 )
+                try
                 {
-                    float elapsedSeconds = (now - lastTick ) / 1000f;
-                    state.tick(panel.userInput,elapsedSeconds);
-                } else {
-                    lastTick = now;
+                    loop.stop();
+                    recorder.finish(state);
                 }
-                panel.repaint();
-            }
-        });
-        t.start();
+                catch (InterruptedException | IOException e) {
+                    e.printStackTrace();
+                }
+            }, "replay-shutdown"));
+        }
     }
 }
@@ -0,0 +1,150 @@
+package de.codesourcery.jpacman;
+
+import java.awt.Point;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable maze model (walls, nav grid and dot layout) that is shared by all games.
+ *
+ * Per-game mutable state (remaining dots, entity positions, counters) lives in {@link GameState}.
+ */
+public final class Maze
+{
+    // walls, for rendering only
+    public final List<Line> walls;
+    public final NavGrid navGrid;
+    public final DotGrid.Layout dotLayout;
+    public final DistanceTable distances;
+
+    /**
+     * Hash of the nav grid and the dot layout, which decide how games on this maze play out.
+     * Replays store it so they're not played back on a different maze.
+     */
+    public final long fingerprint;
+
+    /**
+     * Size of the maze in tiles: the nav grid plus any walls or dots around it.
+     * Everything lies within <code>0 &lt;= x &lt; columns</code>, <code>0 &lt;= y &lt; rows</code>.
+     */
+    public final int columns;
+    public final int rows;
+
+    private static final class DefaultHolder
+    {
+        static final Maze INSTANCE = loadDefault();
+    }
+
+    public Maze(List<Line> walls, NavGrid navGrid, DotGrid.Layout dotLayout)
+    {
+        this(walls, navGrid, dotLayout, new DistanceTable(navGrid));
+    }
+
+    Maze(List<Line> walls, NavGrid navGrid, DotGrid.Layout dotLayout, DistanceTable distances)
+    {
+        this.walls = Collections.unmodifiableList(new ArrayList<>(walls));
+        this.navGrid = navGrid;
+        this.dotLayout = dotLayout;
+        this.distances = distances;
+        this.fingerprint = fingerprint(navGrid, dotLayout);
+
+        int maxX = Math.max(navGrid.getColumns(), dotLayout.columns) - 1;
+        int maxY = Math.max(navGrid.getRows(), dotLayout.rows) - 1;
+        for (Line l : this.walls)
+        {
+            maxX = Math.max(maxX, Math.max(l.start.x, l.end.x));
+            maxY = Math.max(maxY, Math.max(l.start.y, l.end.y));
+        }
+        this.columns = maxX + 1;
+        this.rows = maxY + 1;
+    }
+
+    // FNV-1a over 64-bit words instead of bytes
+    private static long fingerprint(NavGrid navGrid, DotGrid.Layout dotLayout)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for (Line l : navGrid.lines)
+        {
+            hash = hash(hash, l.start.x);
+            hash = hash(hash, l.start.y);
+            hash = hash(hash, l.end.x);
+            hash = hash(hash, l.end.y);
+        }
+        return dotLayout.hash(hash);
+    }
+
+    static long hash(long hash, long value) {
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    /**
+     * Returns the built-in maze, loading it on first access.
+     */
+    public static Maze getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    // prefers the maze compiled by the build (see MazeCompiler), the text resources are only parsed without it
+    private static Maze loadDefault()
+    {
+        try
+        {
+            final Maze compiled = MazeFile.loadResource(MazeFile.DEFAULT_RESOURCE);
+            if ( compiled != null ) {
+                return compiled;
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Ignoring compiled maze: "+e.getMessage());
+        }
+        return loadText();
+    }
+
+    /**
+     * Parses and compiles the built-in maze from its text resources.
+     */
+    public static Maze loadText()
+    {
+        return new Maze(
+            readLines("/lines.txt"),
+            new NavGrid(readLines("/navgrid.txt")),
+            DotGrid.Layout.load("/dots.txt"));
+    }
+
+    /**
+     * Reads lines from a classpath resource, one line per row in
+     * the form <code>x0,y0,x1,y1</code>.
+     */
+    public static List<Line> readLines(String resource)
+    {
+        try ( final InputStream file = Maze.class.getResourceAsStream(resource) ) {
+            if ( file == null ) {
+                throw new RuntimeException("Failed to load "+resource);
+            }
+            return readLines(file);
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads lines in the format of {@link #readLines(String)}.
+     */
+    public static List<Line> readLines(InputStream file) throws IOException
+    {
+        final List<Line> lines = new ArrayList<>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(file) );
+        String line;
+        while ( ( line = reader.readLine() ) != null) {
+            final String[] parts = line.split(",");
+            final Point p0 = new Point(Integer.parseInt(parts[0]),Integer.parseInt(parts[1]));
+            final Point p1 = new Point(Integer.parseInt(parts[2]),Integer.parseInt(parts[3]));
+            lines.add( new Line(p0,p1 ) );
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,252 @@
+package de.codesourcery.jpacman;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Walls and dots of a maze, pre-rendered into images of {@link #CHUNK_TILES} x {@link #CHUNK_TILES} tiles.
+ *
+ * Only chunks intersecting the viewport are drawn. A chunk is rendered when it first becomes visible
+ * and again whenever one of its dots changes, so the cost of a frame depends on the size of the output
+ * area but not on the size of the maze. Images of chunks that went out of view are recycled.
+ *
+ * Not thread-safe, used by the rendering thread only.
+ */
+final class MazeChunks
+{
+    // a row of a chunk's dots fits into an int
+    static final int CHUNK_TILES = 32;
+
+    // rendered chunks kept in addition to the visible ones, for scrolling back and forth
+    private static final int SPARE_CHUNKS = 64;
+
+    private static final Comparator<Chunk> MOST_RECENTLY_VISIBLE = (a, b) -> Long.compare(b.lastVisible, a.lastVisible);
+
+    private final Maze maze;
+    private final LineIndex walls = new LineIndex();
+    private final int chunkColumns;
+    private final int chunkRows;
+    // chunks[cy * chunkColumns + cx], created when first visible
+    private final Chunk[] chunks;
+    // chunks that have an image
+    private final List<Chunk> rendered = new ArrayList<>();
+    private final List<BufferedImage> freeImages = new ArrayList<>();
+
+    private GraphicsConfiguration config;
+    private float scaleX;
+    private float scaleY;
+    private int imageWidth;
+    private int imageHeight;
+    private long frame;
+
+    private static final class Chunk
+    {
+        // top-left tile
+        final int x0;
+        final int y0;
+        // bit n of row r is tile (x0+n, y0+r)
+        final int[] drawnDots = new int[CHUNK_TILES];
+        BufferedImage image;
+        long lastVisible;
+
+        Chunk(int x0, int y0)
+        {
+            this.x0 = x0;
+            this.y0 = y0;
+        }
+    }
+
+    MazeChunks(Maze maze)
+    {
+        this.maze = maze;
+        walls.setLines(maze.walls);
+        chunkColumns = (maze.columns + CHUNK_TILES - 1) / CHUNK_TILES;
+        chunkRows = (maze.rows + CHUNK_TILES - 1) / CHUNK_TILES;
+        chunks = new Chunk[chunkColumns * chunkRows];
+    }
+
+    /**
+     * Draws all chunks visible with the camera's current layout.
+     *
+     * @param config graphics configuration of the output device, used to create compatible images. May be <code>null</code>
+     */
+    void draw(Graphics2D g, GraphicsConfiguration config, Camera camera, int width, int height, RenderSnapshot snapshot)
+    {
+        if ( camera.getScaleX() != scaleX || camera.getScaleY() != scaleY || config != this.config ) {
+            discardImages(config, camera.getScaleX(), camera.getScaleY());
+        }
+        frame++;
+
+        final int scrollX = camera.getScrollX();
+        final int scrollY = camera.getScrollY();
+        // chunk cx covers the tiles whose centers lie in [ cx*CHUNK_TILES - 0.5, (cx+1)*CHUNK_TILES - 0.5 )
+        final int cx0 = chunkIndex(scrollX / scaleX - 0.5f, chunkColumns);
+        final int cx1 = chunkIndex((scrollX + width) / scaleX - 0.5f, chunkColumns);
+        final int cy0 = chunkIndex(scrollY / scaleY - 0.5f, chunkRows);
+        final int cy1 = chunkIndex((scrollY + height) / scaleY - 0.5f, chunkRows);
+
+        for (int cy = cy0; cy <= cy1; cy++)
+        {
+            for (int cx = cx0; cx <= cx1; cx++)
+            {
+                Chunk chunk = chunks[cy * chunkColumns + cx];
+                if ( chunk == null ) {
+                    chunk = chunks[cy * chunkColumns + cx] = new Chunk(cx * CHUNK_TILES, cy * CHUNK_TILES);
+                }
+                chunk.lastVisible = frame;
+                if ( chunk.image == null )
+                {
+                    chunk.image = allocateImage();
+                    rendered.add(chunk);
+                    render(chunk, snapshot);
+                }
+                else if ( dotsChanged(chunk, snapshot) ) {
+                    render(chunk, snapshot);
+                }
+
+                final int x = originX(cx);
+                final int y = originY(cy);
+                final int w = originX(cx + 1) - x;
+                final int h = originY(cy + 1) - y;
+                g.drawImage(chunk.image, x - scrollX, y - scrollY, x - scrollX + w, y - scrollY + h, 0, 0, w, h, null);
+            }
+        }
+
+        final int keep = (cx1 - cx0 + 1) * (cy1 - cy0 + 1) + SPARE_CHUNKS;
+        if ( rendered.size() > keep ) {
+            recycleImages(keep);
+        }
+    }
+
+    private static int chunkIndex(float gridX, int chunkCount) {
+        return Math.max(0, Math.min(chunkCount - 1, (int) Math.floor(gridX / CHUNK_TILES)));
+    }
+
+    // top-left corner of a chunk in the image of the whole maze, see Camera#toWorldX()
+    private int originX(int cx) {
+        return (int) Math.floor( (cx * CHUNK_TILES + 0.5f) * scaleX );
+    }
+
+    private int originY(int cy) {
+        return (int) Math.floor( (cy * CHUNK_TILES + 0.5f) * scaleY );
+    }
+
+    private int toWorldX(float gridX) {
+        return (int) Math.floor( (gridX + 1) * scaleX );
+    }
+
+    private int toWorldY(float gridY) {
+        return (int) Math.floor( (gridY + 1) * scaleY );
+    }
+
+    private void discardImages(GraphicsConfiguration config, float scaleX, float scaleY)
+    {
+        for (Chunk chunk : rendered) {
+            chunk.image = null;
+        }
+        rendered.clear();
+        freeImages.clear();
+        this.config = config;
+        this.scaleX = scaleX;
+        this.scaleY = scaleY;
+        // chunks may differ by a pixel due to rounding
+        imageWidth = (int) Math.ceil(CHUNK_TILES * scaleX) + 1;
+        imageHeight = (int) Math.ceil(CHUNK_TILES * scaleY) + 1;
+    }
+
+    private BufferedImage allocateImage()
+    {
+        if ( ! freeImages.isEmpty() ) {
+            return freeImages.remove(freeImages.size() - 1);
+        }
+        if ( config != null ) {
+            return config.createCompatibleImage(imageWidth, imageHeight, Transparency.OPAQUE);
+        }
+        return new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_RGB);
+    }
+
+    // keeps the images of the most recently visible chunks
+    private void recycleImages(int keep)
+    {
+        rendered.sort(MOST_RECENTLY_VISIBLE);
+        while ( rendered.size() > keep )
+        {
+            final Chunk chunk = rendered.remove(rendered.size() - 1);
+            freeImages.add(chunk.image);
+            chunk.image = null;
+        }
+    }
+
+    private int dotColumns(Chunk chunk) {
+        return Math.max(0, Math.min(CHUNK_TILES, maze.dotLayout.columns - chunk.x0));
+    }
+
+    private int dotRows(Chunk chunk) {
+        return Math.max(0, Math.min(CHUNK_TILES, maze.dotLayout.rows - chunk.y0));
+    }
+
+    private boolean dotsChanged(Chunk chunk, RenderSnapshot snapshot)
+    {
+        final int columns = dotColumns(chunk);
+        if ( columns > 0 )
+        {
+            for (int row = 0, rows = dotRows(chunk); row < rows; row++)
+            {
+                if ( snapshot.getDotRow(chunk.x0, chunk.y0 + row, columns) != chunk.drawnDots[row] ) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void render(Chunk chunk, RenderSnapshot snapshot)
+    {
+        final Graphics2D g = chunk.image.createGraphics();
+        try
+        {
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, imageWidth, imageHeight);
+            g.translate(-originX(chunk.x0 / CHUNK_TILES), -originY(chunk.y0 / CHUNK_TILES));
+
+            // anything outside of the chunk gets clipped
+            g.setColor(Color.BLUE);
+            walls.forEach(chunk.x0 - 1, chunk.y0 - 1, chunk.x0 + CHUNK_TILES, chunk.y0 + CHUNK_TILES,
+                l -> g.drawLine(toWorldX(l.start.x), toWorldY(l.start.y), toWorldX(l.end.x), toWorldY(l.end.y)));
+
+            final int columns = dotColumns(chunk);
+            for (int row = 0, rows = columns > 0 ? dotRows(chunk) : 0; row < rows; row++)
+            {
+                final int dots = snapshot.getDotRow(chunk.x0, chunk.y0 + row, columns);
+                chunk.drawnDots[row] = dots;
+                for (int remaining = dots; remaining != 0; remaining &= remaining - 1) {
+                    drawDot(chunk.x0 + Integer.numberOfTrailingZeros(remaining), chunk.y0 + row, g);
+                }
+            }
+        }
+        finally
+        {
+            g.dispose();
+        }
+    }
+
+    private void drawDot(int x, int y, Graphics2D g)
+    {
+        final int viewX = toWorldX(x);
+        final int viewY = toWorldY(y);
+        if ( maze.dotLayout.isEnergizer(x, y) )
+        {
+            g.setColor(Color.PINK);
+            final int w = (int) Math.min(scaleX, scaleY);
+            g.fillArc(viewX - w/2, viewY - w/2, w, w,0,360);
+        }
+        else
+        {
+            g.setColor(Color.WHITE);
+            g.drawRect(viewX - 1, viewY - 1, 2, 2);
+        }
+    }
+}
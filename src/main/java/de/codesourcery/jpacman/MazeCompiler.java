@@ -0,0 +1,62 @@
+package de.codesourcery.jpacman;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Compiles a maze from its text files into the binary {@link MazeFile} format.
+ *
+ * The build runs this on the built-in maze (see pom.xml), so the game never parses
+ * the text resources. Usage:
+ * <pre>
+ * MazeCompiler &lt;output file&gt; [&lt;directory with lines.txt, navgrid.txt and dots.txt&gt;]
+ * </pre>
+ * Without a directory, the text resources on the classpath are compiled.
+ */
+public final class MazeCompiler
+{
+    private MazeCompiler() {
+    }
+
+    /**
+     * Parses and compiles the text files of a maze in a directory.
+     */
+    public static Maze compile(Path directory) throws IOException
+    {
+        return new Maze(
+            Maze.readLines(open(directory, "lines.txt")),
+            new NavGrid(Maze.readLines(open(directory, "navgrid.txt"))),
+            DotGrid.Layout.load(open(directory, "dots.txt")));
+    }
+
+    private static InputStream open(Path directory, String file) throws IOException {
+        return Files.newInputStream(directory.resolve(file));
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if ( args.length < 1 || args.length > 2 )
+        {
+            System.err.println("Usage: MazeCompiler <output file> [<directory with lines.txt, navgrid.txt and dots.txt>]");
+            System.exit(1);
+        }
+        final Path output = Paths.get(args[0]);
+        final Maze maze = args.length > 1 ? compile(Paths.get(args[1])) : Maze.loadText();
+
+        final ByteBuffer compiled = MazeFile.write(maze);
+        // loading and writing again must produce the same bytes
+        if ( ! MazeFile.write(MazeFile.read(compiled)).equals(compiled) ) {
+            throw new IOException("Compiled maze does not load back identically");
+        }
+        if ( output.getParent() != null ) {
+            Files.createDirectories(output.getParent());
+        }
+        MazeFile.write(maze, output);
+        System.out.println("Compiled maze with "+maze.navGrid.lines.size()+" lines and "+
+            maze.distances.getNodeCount()+" walkable tiles into "+output+" ("+compiled.remaining()+" bytes)");
+    }
+}
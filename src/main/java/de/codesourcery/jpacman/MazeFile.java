@@ -0,0 +1,301 @@
+package de.codesourcery.jpacman;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary format of a compiled {@link Maze}, see {@link MazeCompiler}.
+ *
+ * The file holds everything the text resources would have to be parsed and compiled into
+ * (walls, nav grid lines and their per-tile tables, tunnels, dot masks and the distance tables),
+ * so loading a maze only copies the per-tile tables and wraps the large distance tables
+ * around the file's memory. Mazes too large for all-pairs distance tables
+ * (see {@link DistanceTable#MAX_ALL_PAIRS_NODES}) are stored without them.
+ *
+ * Layout (little-endian, every section starts at a multiple of 8 bytes):
+ * <pre>
+ * int magic ('JPMZ'), int version
+ * walls:    int count, count * int[4] (x0,y0,x1,y1)
+ * nav grid: see NavGrid#writeCompiled()
+ * dots:     see DotGrid.Layout#writeCompiled()
+ * paths:    see DistanceTable#writeCompiled()
+ * </pre>
+ * Loaders reject files with a different version, compiled mazes must be rebuilt
+ * whenever the format changes.
+ */
+public final class MazeFile
+{
+    public static final int MAGIC = 'J' << 24 | 'P' << 16 | 'M' << 8 | 'Z';
+    // 2: flag for distance tables without all-pairs tables
+    public static final int VERSION = 2;
+
+    /**
+     * Classpath resource the build compiles the default maze into.
+     */
+    public static final String DEFAULT_RESOURCE = "/maze.bin";
+
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private MazeFile() {
+    }
+
+    /**
+     * Growable little-endian buffer the compiled tables are written to.
+     */
+    static final class Output
+    {
+        private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ORDER);
+
+        private void ensure(int bytes)
+        {
+            if ( buffer.remaining() < bytes )
+            {
+                final long capacity = Math.max(2L * buffer.capacity(), (long) buffer.position() + bytes);
+                if ( capacity > Integer.MAX_VALUE ) {
+                    throw new IllegalStateException("Compiled maze too large");
+                }
+                final ByteBuffer larger = ByteBuffer.allocate((int) capacity).order(ORDER);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+
+        void putInt(int value)
+        {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putFloat(float value)
+        {
+            ensure(4);
+            buffer.putFloat(value);
+        }
+
+        void putBytes(byte[] values)
+        {
+            ensure(values.length);
+            buffer.put(values);
+        }
+
+        void putBytes(ByteBuffer values)
+        {
+            ensure(values.remaining());
+            buffer.put(values.duplicate());
+        }
+
+        void putInts(int[] values)
+        {
+            ensure(4 * values.length);
+            buffer.asIntBuffer().put(values);
+            buffer.position(buffer.position() + 4 * values.length);
+        }
+
+        void putLongs(long[] values)
+        {
+            ensure(8 * values.length);
+            buffer.asLongBuffer().put(values);
+            buffer.position(buffer.position() + 8 * values.length);
+        }
+
+        void putShorts(ShortBuffer values)
+        {
+            ensure(2 * values.remaining());
+            buffer.asShortBuffer().put(values.duplicate());
+            buffer.position(buffer.position() + 2 * values.remaining());
+        }
+
+        // pads to the start of the next section
+        void align()
+        {
+            final int padding = -buffer.position() & 7;
+            ensure(padding);
+            for (int i = 0; i < padding; i++) {
+                buffer.put((byte) 0);
+            }
+        }
+
+        ByteBuffer toBuffer()
+        {
+            final ByteBuffer result = buffer.duplicate().order(ORDER);
+            result.flip();
+            return result;
+        }
+    }
+
+    // ---------------------------------------------------------------- reading helpers
+
+    static int[] getInts(ByteBuffer in, int count)
+    {
+        final int[] result = new int[count];
+        in.asIntBuffer().get(result);
+        in.position(in.position() + 4 * count);
+        return result;
+    }
+
+    static long[] getLongs(ByteBuffer in, int count)
+    {
+        final long[] result = new long[count];
+        in.asLongBuffer().get(result);
+        in.position(in.position() + 8 * count);
+        return result;
+    }
+
+    static byte[] getBytes(ByteBuffer in, int count)
+    {
+        final byte[] result = new byte[count];
+        in.get(result);
+        return result;
+    }
+
+    /**
+     * Returns the next <code>bytes</code> of the input as a buffer that shares its memory.
+     */
+    static ByteBuffer slice(ByteBuffer in, int bytes)
+    {
+        final ByteBuffer result = in.slice().order(ORDER);
+        result.limit(bytes);
+        in.position(in.position() + bytes);
+        return result;
+    }
+
+    static void align(ByteBuffer in) {
+        in.position(in.position() + (-in.position() & 7));
+    }
+
+    static void putLines(Output out, List<Line> lines)
+    {
+        out.putInt(lines.size());
+        for (Line l : lines)
+        {
+            out.putInt(l.start.x);
+            out.putInt(l.start.y);
+            out.putInt(l.end.x);
+            out.putInt(l.end.y);
+        }
+        out.align();
+    }
+
+    static List<Line> getLines(ByteBuffer in)
+    {
+        final int count = in.getInt();
+        final List<Line> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            final Point p0 = new Point(in.getInt(), in.getInt());
+            final Point p1 = new Point(in.getInt(), in.getInt());
+            lines.add(new Line(p0, p1));
+        }
+        align(in);
+        return lines;
+    }
+
+    // ---------------------------------------------------------------- whole mazes
+
+    /**
+     * Compiles a maze into the binary format.
+     */
+    public static ByteBuffer write(Maze maze)
+    {
+        final Output out = new Output();
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        putLines(out, maze.walls);
+        maze.navGrid.writeCompiled(out);
+        maze.dotLayout.writeCompiled(out);
+        maze.distances.writeCompiled(out);
+        return out.toBuffer();
+    }
+
+    public static void write(Maze maze, Path file) throws IOException
+    {
+        final ByteBuffer data = write(maze);
+        try ( FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING) )
+        {
+            while ( data.hasRemaining() ) {
+                channel.write(data);
+            }
+        }
+    }
+
+    /**
+     * Loads a compiled maze. Large tables keep referring to the buffer, which must not be modified afterwards.
+     */
+    public static Maze read(ByteBuffer data) throws IOException
+    {
+        final ByteBuffer in = data.duplicate().order(ORDER);
+        try
+        {
+            final int magic = in.getInt();
+            final int version = in.getInt();
+            if ( magic != MAGIC ) {
+                throw new IOException("Not a compiled maze");
+            }
+            if ( version != VERSION ) {
+                throw new IOException("Unsupported compiled maze version "+version+", expected "+VERSION+" (recompile the maze)");
+            }
+            final List<Line> walls = getLines(in);
+            final NavGrid navGrid = NavGrid.readCompiled(in);
+            final DotGrid.Layout dots = DotGrid.Layout.readCompiled(in);
+            final DistanceTable distances = DistanceTable.readCompiled(in, navGrid);
+            return new Maze(walls, navGrid, dots, distances);
+        }
+        catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Corrupted compiled maze", e);
+        }
+    }
+
+    /**
+     * Loads a compiled maze by mapping the file into memory.
+     */
+    public static Maze load(Path file) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ) )
+        {
+            // the mapping stays valid after the channel is closed
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Loads a compiled maze from the classpath.
+     *
+     * Resources in a directory are memory-mapped, resources inside a jar file cannot be
+     * mapped and are read into a direct buffer instead.
+     *
+     * @return maze or <code>null</code> if there is no such resource
+     */
+    public static Maze loadResource(String resource) throws IOException
+    {
+        final URL url = MazeFile.class.getResource(resource);
+        if ( url == null ) {
+            return null;
+        }
+        if ( "file".equals(url.getProtocol()) )
+        {
+            try {
+                return load(Paths.get(url.toURI()));
+            } catch (URISyntaxException e) {
+                throw new IOException("Invalid resource URL "+url, e);
+            }
+        }
+        try ( InputStream stream = url.openStream() )
+        {
+            final byte[] bytes = stream.readAllBytes();
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+            buffer.put(bytes).flip();
+            return read(buffer);
+        }
+    }
+}
@@ -1,19 +1,86 @@
 package de.codesourcery.jpacman;
 
 import java.awt.Point;
-import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.stream.Collectors;
 
+/**
+ * The lines entities may move along, compiled into per-tile lookup tables.
+ *
+ * Instances are immutable and may be shared by any number of games.
+ */
 public class NavGrid
 {
-    public final List<Line> lines = new ArrayList<>();
+    public final List<Line> lines;
 
-    public int width;
-    public int height;
+    public final int width;
+    public final int height;
 
-    public Line toLeftExit;
-    public Line toRightExit;
+    public final Line toLeftExit;
+    public final Line toRightExit;
+
+    /*
+     * Tables compiled from 'lines' at load time, indexed by tileIndex(x,y).
+     *
+     * directions[tile] holds the Direction bitmask of all lines touching the tile,
+     * tunnels[tile] holds the Direction bitmask of tunnel exits leaving the tile.
+     * IDs (indices into 'lines') of lines touching a tile are
+     * lineIds[ lineOffsets[tile] ... lineOffsets[tile+1] - 1 ].
+     *
+     * Package-private so BatchEngine can read them, see move(NavGrid, int, float, int, int, int).
+     */
+    int columns;
+    private int rows;
+    byte[] directions;
+    byte[] tunnels;
+    int[] lineOffsets;
+    int[] lineIds;
+    private List<Line>[] linesByTile;
+    private final List<Tunnel> tunnelList = new ArrayList<>();
+    // tunnelList as tables, tunnel i leaves tile tunnelTiles[i] in direction tunnelDirections[i]
+    private int[] tunnelTiles;
+    private int[] tunnelDirections;
+    private int[] tunnelExitLines;
+    private float[] tunnelExitPositions;
+
+    // per-line data, indexed by line ID
+    private final Line[] lineArray;
+    final float[] stepSizes;
+    /*
+     * Position p on line l is on tile ( lineX[l] + round(lineSpanX[l] * p), lineY[l] + round(lineSpanY[l] * p) ),
+     * the span is 0 across the line.
+     */
+    int[] lineX;
+    int[] lineY;
+    int[] lineSpanX;
+    int[] lineSpanY;
+    boolean[] lineHoriz;
+    boolean[] lineVertical;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    // outcome of move()
+    public static final int BLOCKED = 0;
+    public static final int MOVED = 1;
+    // moved, entity now faces the requested direction
+    public static final int TURNED = 2;
+
+    public static final class Tunnel
+    {
+        public final int x,y;
+        public final Direction direction;
+        public final int exitLineId;
+        public final float exitPosition;
+
+        public Tunnel(int x, int y, Direction direction, int exitLineId, float exitPosition)
+        {
+            this.x = x;
+            this.y = y;
+            this.direction = direction;
+            this.exitLineId = exitLineId;
+            this.exitPosition = exitPosition;
+        }
+    }
 
     public enum Direction
     {
@@ -22,11 +89,25 @@ public class NavGrid
         LEFT(-1, 0),
         RIGHT(1, 0);
         public final int dx,dy;
+        public final int mask;
 
         Direction(int dx, int dy)
         {
             this.dx = dx;
             this.dy = dy;
+            this.mask = 1 << ordinal();
+        }
+
+        public Direction opposite()
+        {
+            switch(this) {
+                case UP:    return DOWN;
+                case DOWN:  return UP;
+                case LEFT:  return RIGHT;
+                case RIGHT: return LEFT;
+                default:
+                    throw new IllegalStateException("Unexpected value: " + this);
+            }
         }
 
         public boolean isHoriz() {
@@ -46,70 +127,508 @@ public class NavGrid
         return l.isEndpoint(18,14 ) && l.isEndpoint(27,14);
     }
 
-    public NavGrid()
+    public NavGrid(List<Line> lines)
+    {
+        if ( lines.isEmpty() ) {
+            throw new IllegalArgumentException("Nav grid has no lines");
+        }
+        this.lines = List.copyOf(lines);
+        this.lineArray = this.lines.toArray(new Line[0]);
+        this.stepSizes = computeStepSizes(lineArray);
+        compileLines();
+
+        toLeftExit = lines.stream().filter(this::isLineToLeftExit).findFirst().orElseThrow(() -> new RuntimeException("No left exit"));
+        toRightExit = lines.stream().filter(this::isLineToRightExit).findFirst().orElseThrow(() -> new RuntimeException("No right exit"));
+
+        final Line l1 = lines.get(0);
+        Point p0 = l1.min();
+        Point p1 = l1.max();
+        int minX = p0.x;
+        int maxX = p1.x;
+        int minY = p0.y;
+        int maxY = p1.y;
+
+        for (int i = 1, dotsSize = lines.size(); i < dotsSize; i++)
+        {
+            Line l = lines.get(i);
+            p0 = l.min();
+            p1 = l.max();
+            minX = Math.min(minX,p0.x);
+            minY = Math.min(minY,p0.y);
+            maxX = Math.max(maxX,p1.x);
+            maxY = Math.max(maxY,p1.y);
+        }
+        width = maxX - minX;
+        height = maxY - minY;
+        compile( maxX + 1, maxY + 1 );
+    }
+
+    // see readCompiled()
+    private NavGrid(List<Line> lines, int width, int height, int leftExitId, int rightExitId, int columns, int rows,
+                    byte[] directions, byte[] tunnels, int[] lineOffsets, int[] lineIds, List<Tunnel> tunnelList)
     {
-        try ( final InputStream file = NavGrid.class.getResourceAsStream("/navgrid.txt") ) {
-            if ( file == null ) {
-                throw new RuntimeException("Failed to load navgrid");
+        this.lines = List.copyOf(lines);
+        this.lineArray = this.lines.toArray(new Line[0]);
+        this.stepSizes = computeStepSizes(lineArray);
+        compileLines();
+        this.width = width;
+        this.height = height;
+        this.toLeftExit = lineArray[leftExitId];
+        this.toRightExit = lineArray[rightExitId];
+        this.columns = columns;
+        this.rows = rows;
+        this.directions = directions;
+        this.tunnels = tunnels;
+        this.lineOffsets = lineOffsets;
+        this.lineIds = lineIds;
+        this.tunnelList.addAll(tunnelList);
+        indexLinesByTile();
+        compileTunnels();
+    }
+
+    private static float[] computeStepSizes(Line[] lines)
+    {
+        final float[] result = new float[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            // distance travelled per tick
+            result[i] = 0.1f / lines[i].length();
+        }
+        return result;
+    }
+
+    private void compileLines()
+    {
+        final int count = lineArray.length;
+        lineX = new int[count];
+        lineY = new int[count];
+        lineSpanX = new int[count];
+        lineSpanY = new int[count];
+        lineHoriz = new boolean[count];
+        lineVertical = new boolean[count];
+        for (int i = 0; i < count; i++)
+        {
+            final Line l = lineArray[i];
+            lineHoriz[i] = l.isHoriz();
+            lineVertical[i] = l.isVertical();
+            if ( lineHoriz[i] )
+            {
+                lineX[i] = Math.min(l.start.x, l.end.x);
+                lineSpanX[i] = Math.max(l.start.x, l.end.x) - lineX[i];
+                lineY[i] = l.start.y;
+            }
+            else
+            {
+                lineX[i] = l.start.x;
+                lineY[i] = Math.min(l.start.y, l.end.y);
+                lineSpanY[i] = Math.max(l.start.y, l.end.y) - lineY[i];
+            }
+        }
+    }
+
+    private void compileTunnels()
+    {
+        final int count = tunnelList.size();
+        tunnelTiles = new int[count];
+        tunnelDirections = new int[count];
+        tunnelExitLines = new int[count];
+        tunnelExitPositions = new float[count];
+        for (int i = 0; i < count; i++)
+        {
+            final Tunnel t = tunnelList.get(i);
+            tunnelTiles[i] = tileIndex(t.x, t.y);
+            tunnelDirections[i] = t.direction.ordinal();
+            tunnelExitLines[i] = t.exitLineId;
+            tunnelExitPositions[i] = t.exitPosition;
+        }
+    }
+
+    private void compile(int columns, int rows)
+    {
+        this.columns = columns;
+        this.rows = rows;
+        final int tileCount = columns * rows;
+        directions = new byte[tileCount];
+        tunnels = new byte[tileCount];
+        lineOffsets = new int[tileCount + 1];
+
+        // pass 1: count lines per tile
+        for (Line l : lines)
+        {
+            final Point min = l.min();
+            final Point max = l.max();
+            for (int y = min.y; y <= max.y; y++)
+            {
+                for (int x = min.x; x <= max.x; x++)
+                {
+                    lineOffsets[tileIndex(x, y) + 1]++;
+                }
+            }
+        }
+        for (int i = 1; i <= tileCount; i++)
+        {
+            lineOffsets[i] += lineOffsets[i - 1];
+        }
+
+        // pass 2: fill line IDs and direction masks
+        lineIds = new int[lineOffsets[tileCount]];
+        final int[] fillPtr = Arrays.copyOf(lineOffsets, tileCount);
+        for (int id = 0, count = lines.size(); id < count; id++)
+        {
+            final Line l = lines.get(id);
+            final Point min = l.min();
+            final Point max = l.max();
+            for (int y = min.y; y <= max.y; y++)
+            {
+                for (int x = min.x; x <= max.x; x++)
+                {
+                    final int tile = tileIndex(x, y);
+                    lineIds[fillPtr[tile]++] = id;
+                    directions[tile] |= directionsOnLine(l, x, y);
+                }
             }
-            final BufferedReader reader = new BufferedReader(new InputStreamReader(file) );
-            String line;
-            while ( ( line = reader.readLine() ) != null) {
-                final String[] parts = line.split(",");
-                final Point p0 = new Point(Integer.parseInt(parts[0]),Integer.parseInt(parts[1]));
-                final Point p1 = new Point(Integer.parseInt(parts[2]),Integer.parseInt(parts[3]));
-                lines.add( new Line(p0,p1 ) );
+        }
+
+        indexLinesByTile();
+
+        // link tunnel exits
+        final Point leftExit = toLeftExit.min();
+        final Point rightExit = toRightExit.max();
+        addTunnel(new Tunnel(leftExit.x, leftExit.y, Direction.LEFT, lines.indexOf(toRightExit), 1.0f));
+        addTunnel(new Tunnel(rightExit.x, rightExit.y, Direction.RIGHT, lines.indexOf(toLeftExit), 0.0f));
+        compileTunnels();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void indexLinesByTile()
+    {
+        final int tileCount = columns * rows;
+        linesByTile = (List<Line>[]) new List<?>[tileCount];
+        for (int tile = 0; tile < tileCount; tile++)
+        {
+            final int start = lineOffsets[tile];
+            final int end = lineOffsets[tile + 1];
+            if ( start == end ) {
+                linesByTile[tile] = Collections.emptyList();
             }
-            if ( ! lines.isEmpty() )
+            else
             {
-                toLeftExit = lines.stream().filter(this::isLineToLeftExit).findFirst().orElseThrow(() -> new RuntimeException("No left exit"));
-                toRightExit = lines.stream().filter(this::isLineToRightExit).findFirst().orElseThrow(() -> new RuntimeException("No right exit"));
-
-                final Line l1 = lines.get(0);
-                Point p0 = l1.min();
-                Point p1 = l1.max();
-                int minX = p0.x;
-                int maxX = p1.x;
-                int minY = p0.y;
-                int maxY = p1.y;
-
-                for (int i = 1, dotsSize = lines.size(); i < dotsSize; i++)
+                final Line[] tmp = new Line[end - start];
+                for (int i = start; i < end; i++)
                 {
-                    Line l = lines.get(i);
-                    p0 = l.min();
-                    p1 = l.max();
-                    minX = Math.min(minX,p0.x);
-                    minY = Math.min(minY,p0.y);
-                    maxX = Math.max(maxX,p1.x);
-                    maxY = Math.max(maxY,p1.y);
+                    tmp[i - start] = lines.get(lineIds[i]);
                 }
-                width = maxX - minX;
-                height = maxY - minY;
-                System.out.println("minX / maxX: " + minX + "/" + maxX);
-                System.out.println("minY / maxY: " + minY + "/" + maxY);
-                System.out.println("WIDTH: "+width);
-                System.out.println("HEIGHT: "+height);
+                linesByTile[tile] = List.of(tmp);
             }
         }
-        catch (IOException e)
+    }
+
+    private void addTunnel(Tunnel tunnel)
+    {
+        tunnelList.add(tunnel);
+        tunnels[tileIndex(tunnel.x, tunnel.y)] |= tunnel.direction.mask;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    private int tileIndex(int x, int y)
+    {
+        return y * columns + x;
+    }
+
+    private boolean isOnGrid(int x, int y)
+    {
+        return x >= 0 && y >= 0 && x < columns && y < rows;
+    }
+
+    /**
+     * Returns the directions one may travel along a line when
+     * standing on a given point of it.
+     *
+     * @return bitmask of {@link Direction#mask}
+     */
+    public static int directionsOnLine(Line line, int x, int y)
+    {
+        if ( line.isHoriz() )
         {
-            throw new RuntimeException(e);
+            final int minX = Math.min(line.start.x, line.end.x);
+            final int maxX = Math.max(line.start.x, line.end.x);
+            if ( x > minX && x < maxX ) {
+                return Direction.LEFT.mask | Direction.RIGHT.mask;
+            }
+            return x == minX ? Direction.RIGHT.mask : Direction.LEFT.mask;
+        }
+        final int minY = Math.min(line.start.y, line.end.y);
+        final int maxY = Math.max(line.start.y, line.end.y);
+        if ( y > minY && y < maxY ) {
+            return Direction.UP.mask | Direction.DOWN.mask;
         }
+        return y == minY ? Direction.DOWN.mask : Direction.UP.mask;
+    }
+
+    /**
+     * Returns all directions available at a given tile.
+     *
+     * @return bitmask of {@link Direction#mask}, tunnel exits not included
+     */
+    public int getDirections(int x, int y)
+    {
+        return isOnGrid(x, y) ? directions[tileIndex(x, y)] : 0;
+    }
+
+    /**
+     * Returns the tunnel exits available at a given tile.
+     *
+     * @return bitmask of {@link Direction#mask}
+     */
+    public int getTunnelDirections(int x, int y)
+    {
+        return isOnGrid(x, y) ? tunnels[tileIndex(x, y)] : 0;
+    }
+
+    public Tunnel getTunnel(int x, int y, Direction direction)
+    {
+        for (int i = 0, len = tunnelList.size(); i < len; i++)
+        {
+            final Tunnel t = tunnelList.get(i);
+            if ( t.x == x && t.y == y && t.direction == direction ) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    public int getLineCount(int x, int y)
+    {
+        if ( ! isOnGrid(x, y) ) {
+            return 0;
+        }
+        final int tile = tileIndex(x, y);
+        return lineOffsets[tile + 1] - lineOffsets[tile];
+    }
+
+    /**
+     * Returns the ID (index into {@link #lines}) of the n-th line touching a given tile.
+     */
+    public int getLineId(int x, int y, int n)
+    {
+        return lineIds[lineOffsets[tileIndex(x, y)] + n];
+    }
+
+    public Line getLine(int lineId) {
+        return lineArray[lineId];
+    }
+
+    /**
+     * Returns the relative distance (0...1) an entity travels along a line per tick.
+     */
+    public float getStepSize(int lineId) {
+        return stepSizes[lineId];
+    }
+
+    /**
+     * Tries to move from a position on a line in a given direction, switching lines
+     * at junctions and taking tunnels if necessary.
+     *
+     * Works on primitives only and never allocates.
+     *
+     * @param lineId line to move from
+     * @param position relative position (0...1) on this line
+     * @param desiredDirection direction to move in
+     * @param result receives the new line and position, may be the location passed in
+     * @return {@link #BLOCKED} (result untouched), {@link #MOVED} or {@link #TURNED}
+     */
+    public int move(int lineId, float position, Direction desiredDirection, LocationInfo result)
+    {
+        final Line currentLine = lineArray[lineId];
+        final long moved = move(this, lineId, position, desiredDirection.ordinal(), currentLine.gridX(position), currentLine.gridY(position));
+        final int outcome = outcome(moved);
+        if ( outcome != BLOCKED )
+        {
+            result.setLine(this, movedLine(moved));
+            result.setPosition(movedPosition(moved));
+        }
+        return outcome;
+    }
+
+    /**
+     * {@link #move(int, float, Direction, LocationInfo)} on the compiled tables only, for callers
+     * that keep track of the tile at the current position themselves.
+     *
+     * @param direction {@link Direction#ordinal()} of the direction to move in
+     * @param x X coordinate of the tile at the current position
+     * @param y Y coordinate of the tile at the current position
+     * @return {@link #BLOCKED}, or the outcome, new line and (clamped) position packed into a long,
+     * see {@link #outcome(long)}, {@link #movedLine(long)} and {@link #movedPosition(long)}
+     */
+    static long move(NavGrid grid, int lineId, float position, int direction, int x, int y)
+    {
+        final int tile = y * grid.columns + x;
+        final int mask = 1 << direction;
+        if ( (grid.directions[tile] & mask) == 0 ) {
+            return moveWithoutExit(grid, lineId, position, direction, tile);
+        }
+        if ( (directionsOnLine(grid, lineId, x, y) & mask) == 0 ) {
+            return switchLine(grid, lineId, direction, tile, x, y);
+        }
+        // stay on current line
+        return moved(TURNED, lineId, position + delta(grid, lineId, direction));
+    }
+
+    // move() when the tile has no exit in the desired direction
+    private static long moveWithoutExit(NavGrid grid, int lineId, float position, int direction, int tile)
+    {
+        if ( position == 0.0f || position == 1.0f )
+        {
+            if ( (grid.tunnels[tile] & (1 << direction)) != 0 )
+            {
+                for (int i = 0; i < grid.tunnelTiles.length; i++)
+                {
+                    if ( grid.tunnelTiles[i] == tile && grid.tunnelDirections[i] == direction ) {
+                        return moved(MOVED, grid.tunnelExitLines[i], grid.tunnelExitPositions[i]);
+                    }
+                }
+            }
+            return BLOCKED;
+        }
+        final boolean horizontal = direction == Direction.LEFT.ordinal() || direction == Direction.RIGHT.ordinal();
+        if ( (grid.lineHoriz[lineId] && horizontal) || (grid.lineVertical[lineId] && ! horizontal) ) {
+            return moved(MOVED, lineId, position + delta(grid, lineId, direction));
+        }
+        return BLOCKED;
+    }
+
+    // move() onto the line that continues in the desired direction
+    private static long switchLine(NavGrid grid, int lineId, int direction, int tile, int x, int y)
+    {
+        // 1. find all lines whose endpoint is the current location
+        final int start = grid.lineOffsets[tile];
+        final int end = grid.lineOffsets[tile + 1];
+        final int[] lineIds = grid.lineIds;
+        int choiceCount = 0;
+        int firstChoice = -1;
+        for (int i = start; i < end; i++)
+        {
+            if ( lineIds[i] != lineId )
+            {
+                if ( firstChoice == -1 ) {
+                    firstChoice = lineIds[i];
+                }
+                choiceCount++;
+            }
+        }
+
+        int newLine = -1;
+        float newPos;
+        if ( choiceCount == 1 )
+        {
+            newLine = firstChoice;
+            // same as Line#getPosition()
+            newPos = grid.lineHoriz[newLine] ? (float) (x - grid.lineX[newLine]) / (float) grid.lineSpanX[newLine]
+                                             : (float) (y - grid.lineY[newLine]) / (float) grid.lineSpanY[newLine];
+        }
+        else
+        {
+            // 2. pick the line that contains the next tile in the desired direction
+            final Direction desired = DIRECTIONS[direction];
+            newPos = desired == Direction.UP || desired == Direction.LEFT ? 1.0f : 0f;
+            final int newX = x + desired.dx;
+            final int newY = y + desired.dy;
+            for (int i = start; i < end && newLine == -1; i++)
+            {
+                if ( lineIds[i] != lineId && contains(grid, lineIds[i], newX, newY) ) {
+                    newLine = lineIds[i];
+                }
+            }
+        }
+        if ( newLine == -1 ) {
+            throw new IllegalStateException();
+        }
+        return moved(TURNED, newLine, newPos);
+    }
+
+    private static float delta(NavGrid grid, int lineId, int direction) {
+        return direction == Direction.UP.ordinal() || direction == Direction.LEFT.ordinal() ? -grid.stepSizes[lineId] : grid.stepSizes[lineId];
+    }
+
+    // same as directionsOnLine(Line, int, int)
+    private static int directionsOnLine(NavGrid grid, int lineId, int x, int y)
+    {
+        if ( grid.lineHoriz[lineId] )
+        {
+            final int minX = grid.lineX[lineId];
+            final int maxX = minX + grid.lineSpanX[lineId];
+            if ( x > minX && x < maxX ) {
+                return Direction.LEFT.mask | Direction.RIGHT.mask;
+            }
+            return x == minX ? Direction.RIGHT.mask : Direction.LEFT.mask;
+        }
+        final int minY = grid.lineY[lineId];
+        final int maxY = minY + grid.lineSpanY[lineId];
+        if ( y > minY && y < maxY ) {
+            return Direction.UP.mask | Direction.DOWN.mask;
+        }
+        return y == minY ? Direction.DOWN.mask : Direction.UP.mask;
+    }
+
+    // same as Line#contains()
+    private static boolean contains(NavGrid grid, int lineId, int x, int y)
+    {
+        if ( grid.lineHoriz[lineId] ) {
+            return y == grid.lineY[lineId] && x >= grid.lineX[lineId] && x <= grid.lineX[lineId] + grid.lineSpanX[lineId];
+        }
+        return x == grid.lineX[lineId] && y >= grid.lineY[lineId] && y <= grid.lineY[lineId] + grid.lineSpanY[lineId];
+    }
+
+    /*
+     * Result of move(NavGrid, int, float, int, int, int): outcome in bits 0-1, line ID in bits 2-31,
+     * position in bits 32-63. BLOCKED is 0.
+     */
+    private static long moved(int outcome, int lineId, float position) {
+        return (long) Float.floatToRawIntBits(clamp(position)) << 32 | (long) lineId << 2 | outcome;
+    }
+
+    // same as LocationInfo#setPosition(), without Math.min()/max() handling of -0.0
+    private static float clamp(float position) {
+        return position <= 0f ? 0f : position > 1.0f ? 1.0f : position;
+    }
+
+    /**
+     * Returns {@link #BLOCKED}, {@link #MOVED} or {@link #TURNED}.
+     */
+    static int outcome(long moved) {
+        return (int) moved & 3;
+    }
+
+    static int movedLine(long moved) {
+        return (int) moved >>> 2;
+    }
+
+    static float movedPosition(long moved) {
+        return Float.intBitsToFloat((int) (moved >>> 32));
     }
 
     public List<Line> getLines(Point currentPos)
     {
-        return lines.stream().filter(l -> l.contains(currentPos)).collect(Collectors.toList());
+        return getLines(currentPos.x, currentPos.y);
+    }
+
+    public List<Line> getLines(int x, int y)
+    {
+        return isOnGrid(x, y) ? linesByTile[tileIndex(x, y)] : Collections.emptyList();
     }
 
-    public void assignRandomLocation(Player p)
+    public void assignRandomLocation(Player p, GameRandom rndGen)
     {
-        final Random rndGen = new Random();
         final int rnd = rndGen.nextInt(lines.size());
-        p.location.currentLine = lines.get(rnd);
+        p.location.setLine(this, rnd);
         p.location.setPosition( rndGen.nextFloat() );
 
-        System.out.println("Player is at " + p.location+" -> "+p.gridLocation());
         if ( p.location.currentLine.isHoriz() )
         {
             p.orientation = Direction.LEFT;
@@ -117,4 +636,87 @@ public class NavGrid
             p.orientation = Direction.UP;
         }
     }
+
+    /**
+     * Writes the lines and compiled tables, see {@link MazeFile}.
+     * <pre>
+     * lines, int width, int height, int leftExitId, int rightExitId, int columns, int rows
+     * byte[tiles] directions, byte[tiles] tunnel directions, int[tiles + 1] lineOffsets,
+     * int lineIdCount, int[lineIdCount] lineIds, int tunnelCount, tunnelCount * (int x, int y, int direction, int exitLineId, float exitPosition)
+     * </pre>
+     */
+    void writeCompiled(MazeFile.Output out)
+    {
+        MazeFile.putLines(out, lines);
+        out.putInt(width);
+        out.putInt(height);
+        out.putInt(lines.indexOf(toLeftExit));
+        out.putInt(lines.indexOf(toRightExit));
+        out.putInt(columns);
+        out.putInt(rows);
+        out.putBytes(directions);
+        out.putBytes(tunnels);
+        out.align();
+        out.putInts(lineOffsets);
+        out.putInt(lineIds.length);
+        out.putInts(lineIds);
+        out.putInt(tunnelList.size());
+        for (Tunnel t : tunnelList)
+        {
+            out.putInt(t.x);
+            out.putInt(t.y);
+            out.putInt(t.direction.ordinal());
+            out.putInt(t.exitLineId);
+            out.putFloat(t.exitPosition);
+        }
+        out.align();
+    }
+
+    static NavGrid readCompiled(ByteBuffer in)
+    {
+        final List<Line> lines = MazeFile.getLines(in);
+        final int width = in.getInt();
+        final int height = in.getInt();
+        final int leftExitId = checkIndex(in.getInt(), lines.size());
+        final int rightExitId = checkIndex(in.getInt(), lines.size());
+        final int columns = in.getInt();
+        final int rows = in.getInt();
+        final int tileCount = Math.multiplyExact(columns, rows);
+        final byte[] directions = MazeFile.getBytes(in, tileCount);
+        final byte[] tunnels = MazeFile.getBytes(in, tileCount);
+        MazeFile.align(in);
+        final int[] lineOffsets = MazeFile.getInts(in, tileCount + 1);
+        final int[] lineIds = MazeFile.getInts(in, in.getInt());
+        for (int id : lineIds) {
+            checkIndex(id, lines.size());
+        }
+        for (int i = 0; i < tileCount; i++) {
+            if ( lineOffsets[i] > lineOffsets[i + 1] ) {
+                throw new IllegalArgumentException("Invalid line offsets");
+            }
+        }
+        checkIndex(lineOffsets[tileCount], lineIds.length + 1);
+
+        final int tunnelCount = in.getInt();
+        final List<Tunnel> tunnelList = new ArrayList<>(tunnelCount);
+        for (int i = 0; i < tunnelCount; i++)
+        {
+            final int x = in.getInt();
+            final int y = in.getInt();
+            final Direction direction = Direction.values()[checkIndex(in.getInt(), 4)];
+            final int exitLineId = checkIndex(in.getInt(), lines.size());
+            tunnelList.add(new Tunnel(x, y, direction, exitLineId, in.getFloat()));
+        }
+        MazeFile.align(in);
+        return new NavGrid(lines, width, height, leftExitId, rightExitId, columns, rows,
+            directions, tunnels, lineOffsets, lineIds, tunnelList);
+    }
+
+    private static int checkIndex(int index, int size)
+    {
+        if ( index < 0 || index >= size ) {
+            throw new IllegalArgumentException("Index out of range: "+index);
+        }
+        return index;
+    }
 }
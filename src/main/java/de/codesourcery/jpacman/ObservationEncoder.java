@@ -0,0 +1,238 @@
+package de.codesourcery.jpacman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes a {@link GameState} as a stack of tile planes for machine-learning agents.
+ *
+ * The observation is a <code>float32</code> tensor of shape <code>[channels][rows][columns]</code>
+ * (row-major), where each cell is either 0 or 1. It's written directly into a caller-provided
+ * <code>float[]</code> or {@link ByteBuffer} (using the buffer's byte order) that has been bound
+ * with one of the <code>bind()</code> methods.
+ *
+ * After the first call to {@link #encode(GameState)}, only cells that changed since the
+ * previous call are written, so the bound region must not be modified by anybody else.
+ * Encoding never allocates.
+ */
+public final class ObservationEncoder
+{
+    public static final int CHANNEL_WALLS = 0;
+    public static final int CHANNEL_DOTS = 1;
+    public static final int CHANNEL_ENERGIZERS = 2;
+    public static final int CHANNEL_PLAYER = 3;
+    // one channel per ghost, indexed by Ghost.Personality#ordinal()
+    public static final int CHANNEL_GHOSTS = 4;
+    // ghosts in a given mode, indexed by Ghost.Mode#ordinal() - MODE_OFFSET
+    public static final int CHANNEL_MODES = CHANNEL_GHOSTS + Ghost.Personality.values().length;
+
+    public static final int CHANNEL_COUNT = CHANNEL_MODES + 4;
+
+    // waiting ghosts are not shown, all other modes get a channel
+    private static final int MODE_OFFSET = Ghost.Mode.RETURNING_TO_SPAWN.ordinal();
+
+    private final int columns;
+    private final int rows;
+    private final int planeSize;
+
+    // cells (within a plane) that cannot be walked on
+    private final int[] wallCells;
+    // cell of each dot tile index or -1 if the tile is outside of the observation
+    private final int[] dotCells;
+    private final boolean[] energizers;
+
+    // bound destination, either array or buffer is set
+    private float[] array;
+    private ByteBuffer buffer;
+    private int offset;
+
+    private final long[] encodedDots;
+    // entries written for entities during the last encode(), relative to offset
+    private final int[] marks = new int[1 + 2 * Ghost.Personality.values().length];
+    private int markCount;
+    private boolean encodedOnce;
+
+    public ObservationEncoder(Maze maze)
+    {
+        final NavGrid navGrid = maze.navGrid;
+        this.columns = navGrid.getColumns();
+        this.rows = navGrid.getRows();
+        this.planeSize = columns * rows;
+
+        int wallCount = 0;
+        final int[] walls = new int[planeSize];
+        for (int y = 0; y < rows; y++)
+        {
+            for (int x = 0; x < columns; x++)
+            {
+                if ( navGrid.getDirections(x, y) == 0 ) {
+                    walls[wallCount++] = y * columns + x;
+                }
+            }
+        }
+        this.wallCells = Arrays.copyOf(walls, wallCount);
+
+        final DotGrid.Layout layout = maze.dotLayout;
+        final int tiles = layout.getWordCount() * 64;
+        this.dotCells = new int[tiles];
+        this.energizers = new boolean[tiles];
+        for (int tile = 0; tile < tiles; tile++)
+        {
+            final int x = tile % layout.columns;
+            final int y = tile / layout.columns;
+            final boolean inside = x < columns && y < rows && y < layout.rows;
+            dotCells[tile] = inside ? y * columns + x : -1;
+            energizers[tile] = inside && layout.isEnergizer(x, y);
+        }
+        this.encodedDots = new long[layout.getWordCount()];
+    }
+
+    public int getChannels() {
+        return CHANNEL_COUNT;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the number of floats in an observation.
+     */
+    public int size() {
+        return CHANNEL_COUNT * planeSize;
+    }
+
+    /**
+     * Writes observations to an array, starting at the given index.
+     */
+    public void bind(float[] array, int offset)
+    {
+        if ( offset < 0 || offset + size() > array.length ) {
+            throw new IllegalArgumentException("Observation does not fit into array");
+        }
+        this.array = array;
+        this.buffer = null;
+        this.offset = offset;
+        this.encodedOnce = false;
+    }
+
+    /**
+     * Writes observations to a buffer as floats, starting at the given byte offset.
+     * The buffer's position and limit are not changed.
+     */
+    public void bind(ByteBuffer buffer, int byteOffset)
+    {
+        if ( byteOffset < 0 || byteOffset + 4L * size() > buffer.capacity() ) {
+            throw new IllegalArgumentException("Observation does not fit into buffer");
+        }
+        if ( (byteOffset & 3) != 0 ) {
+            throw new IllegalArgumentException("Byte offset must be a multiple of 4");
+        }
+        this.array = null;
+        this.buffer = buffer;
+        this.offset = byteOffset >> 2;
+        this.encodedOnce = false;
+    }
+
+    private void set(int index, float value)
+    {
+        if ( array != null ) {
+            array[offset + index] = value;
+        } else {
+            buffer.putFloat((offset + index) << 2, value);
+        }
+    }
+
+    /**
+     * Writes the observation for a game state.
+     */
+    public void encode(GameState state)
+    {
+        if ( array == null && buffer == null ) {
+            throw new IllegalStateException("No destination bound");
+        }
+        if ( ! encodedOnce ) {
+            encodeStatic();
+            encodedOnce = true;
+        }
+        encodeDots(state.dots);
+
+        // clear all marks first, ghosts may share a cell in the mode channels
+        for (int i = 0; i < markCount; i++) {
+            set(marks[i], 0f);
+        }
+        markCount = 0;
+
+        mark(CHANNEL_PLAYER, state.player);
+        for (int i = 0, len = state.ghosts.size(); i < len; i++)
+        {
+            final Ghost ghost = state.ghosts.get(i);
+            if ( ! ghost.hasMode(Ghost.Mode.WAITING_AT_SPAWN) )
+            {
+                mark(CHANNEL_GHOSTS + ghost.personality.ordinal(), ghost);
+                mark(CHANNEL_MODES + ghost.mode.ordinal() - MODE_OFFSET, ghost);
+            }
+        }
+    }
+
+    private void mark(int channel, Entity entity)
+    {
+        final int x = entity.gridX();
+        final int y = entity.gridY();
+        if ( x >= 0 && y >= 0 && x < columns && y < rows )
+        {
+            final int index = channel * planeSize + y * columns + x;
+            set(index, 1f);
+            marks[markCount++] = index;
+        }
+    }
+
+    private void encodeStatic()
+    {
+        if ( array != null ) {
+            Arrays.fill(array, offset, offset + size(), 0f);
+        }
+        else
+        {
+            for (int i = 0, len = size(); i < len; i++) {
+                buffer.putFloat((offset + i) << 2, 0f);
+            }
+        }
+        for (int cell : wallCells) {
+            set(CHANNEL_WALLS * planeSize + cell, 1f);
+        }
+        Arrays.fill(encodedDots, 0L);
+        markCount = 0;
+    }
+
+    private void encodeDots(DotGrid dots)
+    {
+        for (int word = 0, len = encodedDots.length; word < len; word++)
+        {
+            final long encoded = encodedDots[word];
+            final long current = dots.getWord(word);
+            if ( encoded == current ) {
+                continue;
+            }
+            for (long eaten = encoded & ~current; eaten != 0; eaten &= eaten - 1) {
+                setDot(word * 64 + Long.numberOfTrailingZeros(eaten), 0f);
+            }
+            for (long added = current & ~encoded; added != 0; added &= added - 1) {
+                setDot(word * 64 + Long.numberOfTrailingZeros(added), 1f);
+            }
+            encodedDots[word] = current;
+        }
+    }
+
+    private void setDot(int tile, float value)
+    {
+        final int cell = dotCells[tile];
+        if ( cell != -1 ) {
+            set((energizers[tile] ? CHANNEL_ENERGIZERS : CHANNEL_DOTS) * planeSize + cell, value);
+        }
+    }
+}
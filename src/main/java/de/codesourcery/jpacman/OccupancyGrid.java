@@ -0,0 +1,256 @@
+package de.codesourcery.jpacman;
+
+import java.util.Arrays;
+
+/**
+ * Tiles occupied by a fixed number of entities, kept in a spatial hash that is updated
+ * incrementally whenever an entity changes tiles.
+ *
+ * Entities are numbered <code>0...n-1</code> and either occupy a tile (any non-negative tile index)
+ * or are absent ({@link #NONE}). Besides the current tiles, the grid remembers where each entity
+ * was when the current tick began and which entities changed tiles since, so collisions can be
+ * found by looking at the entities that moved plus the ones on a single tile instead of
+ * comparing every pair. Memory is proportional to the number of entities, not to the size of
+ * the maze, and nothing allocates after construction.
+ */
+public final class OccupancyGrid
+{
+    public static final int NONE = -1;
+
+    // kinds of collisions reported by findCollisions()
+    public static final byte SAME_TILE = 1;
+    // subject and entity swapped tiles
+    public static final byte CROSSING = 2;
+
+    private final int entityCount;
+    private final int bucketShift;
+    // first entity of each bucket, chains are sorted by entity
+    private final int[] heads;
+    private final int[] next;
+    private final int[] tile;
+    // tile when the current tick began
+    private final int[] previousTile;
+    // entities that changed tiles during the current tick
+    private final int[] movers;
+    private final boolean[] moved;
+    private int moverCount;
+
+    public OccupancyGrid(int entityCount)
+    {
+        this.entityCount = entityCount;
+        // at least twice as many buckets as entities keeps chains short
+        final int buckets = Math.max(16, Integer.highestOneBit(Math.max(1, entityCount) * 4 - 1));
+        bucketShift = 32 - Integer.numberOfTrailingZeros(buckets);
+        heads = new int[buckets];
+        next = new int[entityCount];
+        tile = new int[entityCount];
+        previousTile = new int[entityCount];
+        movers = new int[entityCount];
+        moved = new boolean[entityCount];
+        clear();
+    }
+
+    /**
+     * Removes all entities.
+     */
+    public void clear()
+    {
+        Arrays.fill(heads, NONE);
+        Arrays.fill(tile, NONE);
+        Arrays.fill(previousTile, NONE);
+        Arrays.fill(moved, false);
+        moverCount = 0;
+    }
+
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+    private int bucket(int tile) {
+        // Fibonacci hashing, neighbouring tiles end up in different buckets
+        return (tile * 0x9E3779B9) >>> bucketShift;
+    }
+
+    private void link(int entity, int newTile)
+    {
+        tile[entity] = newTile;
+        if ( newTile == NONE ) {
+            return;
+        }
+        final int bucket = bucket(newTile);
+        int previous = NONE;
+        int current = heads[bucket];
+        while ( current != NONE && current < entity )
+        {
+            previous = current;
+            current = next[current];
+        }
+        next[entity] = current;
+        if ( previous == NONE ) {
+            heads[bucket] = entity;
+        } else {
+            next[previous] = entity;
+        }
+    }
+
+    private void unlink(int entity)
+    {
+        if ( tile[entity] == NONE ) {
+            return;
+        }
+        final int bucket = bucket(tile[entity]);
+        if ( heads[bucket] == entity ) {
+            heads[bucket] = next[entity];
+        }
+        else
+        {
+            int current = heads[bucket];
+            while ( next[current] != entity ) {
+                current = next[current];
+            }
+            next[current] = next[entity];
+        }
+        tile[entity] = NONE;
+    }
+
+    /**
+     * Starts a new tick: forgets which entities moved during the previous one.
+     */
+    public void beginTick()
+    {
+        for (int i = 0; i < moverCount; i++)
+        {
+            final int entity = movers[i];
+            previousTile[entity] = tile[entity];
+            moved[entity] = false;
+        }
+        moverCount = 0;
+    }
+
+    /**
+     * Puts an entity on a tile without counting it as a move (for example when a game is reset).
+     */
+    public void place(int entity, int newTile)
+    {
+        if ( newTile != tile[entity] )
+        {
+            unlink(entity);
+            link(entity, newTile);
+        }
+        previousTile[entity] = newTile;
+    }
+
+    /**
+     * Moves an entity to a tile, does nothing if it's already there.
+     *
+     * @param newTile tile or {@link #NONE} if the entity no longer takes part in collisions
+     */
+    public void move(int entity, int newTile)
+    {
+        if ( newTile == tile[entity] ) {
+            return;
+        }
+        unlink(entity);
+        link(entity, newTile);
+        if ( ! moved[entity] )
+        {
+            moved[entity] = true;
+            movers[moverCount++] = entity;
+        }
+    }
+
+    public int getTile(int entity) {
+        return tile[entity];
+    }
+
+    /**
+     * Returns the tile an entity was on when the current tick began.
+     */
+    public int getPreviousTile(int entity) {
+        return previousTile[entity];
+    }
+
+    /**
+     * Returns the lowest-numbered entity on a tile.
+     *
+     * @return entity or {@link #NONE}
+     */
+    public int first(int tile)
+    {
+        int entity = heads[bucket(tile)];
+        while ( entity != NONE && this.tile[entity] != tile ) {
+            entity = next[entity];
+        }
+        return entity;
+    }
+
+    /**
+     * Returns the next higher-numbered entity on the same tile as another one.
+     *
+     * @return entity or {@link #NONE}
+     */
+    public int next(int entity)
+    {
+        final int tile = this.tile[entity];
+        int current = next[entity];
+        while ( current != NONE && this.tile[current] != tile ) {
+            current = next[current];
+        }
+        return current;
+    }
+
+    /**
+     * Finds the entities that collided with a subject that isn't part of this grid (the player)
+     * during the current tick, treating all moves of the tick as simultaneous.
+     *
+     * An entity collides if it shares the subject's tile at the end of the tick and either of the two
+     * moved, or if both swapped tiles. Entities that did not move are only looked up on the subject's
+     * tile, so the cost depends on the number of movers but not on the number of entities.
+     *
+     * @param subjectFrom the subject's tile when the tick began
+     * @param subjectTo the subject's current tile
+     * @param entities receives the colliding entities in ascending order, needs room for all entities
+     * @param kinds receives {@link #SAME_TILE} or {@link #CROSSING} for each colliding entity
+     * @return number of colliding entities
+     */
+    public int findCollisions(int subjectFrom, int subjectTo, int[] entities, byte[] kinds)
+    {
+        int count = 0;
+        final boolean subjectMoved = subjectFrom != subjectTo;
+        if ( subjectMoved )
+        {
+            // ascending already
+            for (int e = first(subjectTo); e != NONE; e = next(e))
+            {
+                entities[count] = e;
+                kinds[count++] = SAME_TILE;
+            }
+        }
+        for (int i = 0; i < moverCount; i++)
+        {
+            final int e = movers[i];
+            final int to = tile[e];
+            final int from = previousTile[e];
+            byte kind = 0;
+            if ( to == subjectTo && to != from && ! subjectMoved ) {
+                kind = SAME_TILE;
+            } else if ( subjectMoved && to != NONE && to == subjectFrom && from == subjectTo ) {
+                kind = CROSSING;
+            }
+            if ( kind != 0 )
+            {
+                // keep the result sorted, collisions are rare so this stays short
+                int j = count++;
+                while ( j > 0 && entities[j - 1] > e )
+                {
+                    entities[j] = entities[j - 1];
+                    kinds[j] = kinds[j - 1];
+                    j--;
+                }
+                entities[j] = e;
+                kinds[j] = kind;
+            }
+        }
+        return count;
+    }
+}
@@ -1,9 +1,14 @@
 package de.codesourcery.jpacman;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class Player extends Entity
 {
     public int score;
 
+    // game time (see GameClock#millis()) when the player ate the last energizer
     public long startTimeCanEatGhosts;
     public boolean canEatGhosts;
     public int lifes;
@@ -18,4 +23,36 @@ public class Player extends Entity
         score = 0;
         isMoving = false;
     }
-}
\ No newline at end of file
+
+    public void copyFrom(Player other)
+    {
+        super.copyFrom(other);
+        score = other.score;
+        startTimeCanEatGhosts = other.startTimeCanEatGhosts;
+        canEatGhosts = other.canEatGhosts;
+        lifes = other.lifes;
+        bonusLifeAwarded = other.bonusLifeAwarded;
+    }
+
+    @Override
+    void writeState(DataOutput out) throws IOException
+    {
+        super.writeState(out);
+        out.writeInt(score);
+        out.writeLong(startTimeCanEatGhosts);
+        out.writeBoolean(canEatGhosts);
+        out.writeInt(lifes);
+        out.writeBoolean(bonusLifeAwarded);
+    }
+
+    @Override
+    void readState(DataInput in, NavGrid navGrid) throws IOException
+    {
+        super.readState(in, navGrid);
+        score = in.readInt();
+        startTimeCanEatGhosts = in.readLong();
+        canEatGhosts = in.readBoolean();
+        lifes = in.readInt();
+        bonusLifeAwarded = in.readBoolean();
+    }
+}
@@ -0,0 +1,294 @@
+package de.codesourcery.jpacman;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Everything needed to render a single frame, captured from a {@link GameState} after a tick.
+ *
+ * Snapshots are preallocated and recycled by an {@link Exchange}, so taking one does not
+ * allocate. Once handed to a reader through {@link Exchange#acquire()}, a snapshot does not
+ * change until the reader acquires the next one.
+ *
+ * Entities are addressed by index: {@link #PLAYER} is the player, <code>1+n</code> is
+ * ghost <code>n</code> of {@link GameState#ghosts}.
+ */
+public final class RenderSnapshot
+{
+    public static final int PLAYER = 0;
+
+    private long tick = -1;
+    private long timestampNanos;
+
+    private int score;
+    private int lifes;
+    private int level;
+    private boolean gameOver;
+    private boolean debugMode;
+
+    // copy of DotGrid#dots
+    private final long[] dots;
+    private final int dotColumns;
+    private int remainingDots;
+
+    private final int entityCount;
+    private final float[] previousX;
+    private final float[] previousY;
+    private final float[] x;
+    private final float[] y;
+    private final NavGrid.Direction[] orientation;
+    private final boolean[] moving;
+    private final Ghost.Personality[] personality;
+    private final Ghost.Mode[] mode;
+
+    /**
+     * Lock-free triple buffer between a single writer (the thread ticking the game)
+     * and a single reader (the renderer).
+     *
+     * The writer always owns one snapshot to fill in and the reader owns one to render from,
+     * the third one is exchanged atomically. Neither side ever waits for the other, the reader
+     * simply keeps rendering its current snapshot until a newer one has been published.
+     */
+    public static final class Exchange
+    {
+        private static final int INDEX_MASK = 3;
+        // set on the exchanged index while the reader has not picked it up yet
+        private static final int FRESH = 4;
+
+        private final RenderSnapshot[] buffers = new RenderSnapshot[3];
+        private final AtomicInteger exchanged = new AtomicInteger(1);
+        private int back = 0;
+        private int front = 2;
+
+        Exchange(GameState state)
+        {
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = new RenderSnapshot(state);
+            }
+        }
+
+        // snapshot owned by the writer
+        RenderSnapshot back() {
+            return buffers[back];
+        }
+
+        void publish() {
+            back = exchanged.getAndSet(back | FRESH) & INDEX_MASK;
+        }
+
+        /**
+         * Returns the most recently published snapshot.
+         *
+         * Must only be called by the rendering thread. The returned snapshot stays
+         * valid until the next invocation of this method.
+         */
+        public RenderSnapshot acquire()
+        {
+            if ( (exchanged.get() & FRESH) != 0 ) {
+                front = exchanged.getAndSet(front) & INDEX_MASK;
+            }
+            return buffers[front];
+        }
+    }
+
+    private RenderSnapshot(GameState state)
+    {
+        dots = new long[state.dots.getWordCount()];
+        dotColumns = state.dots.columns;
+        entityCount = 1 + state.ghosts.size();
+        previousX = new float[entityCount];
+        previousY = new float[entityCount];
+        x = new float[entityCount];
+        y = new float[entityCount];
+        orientation = new NavGrid.Direction[entityCount];
+        moving = new boolean[entityCount];
+        personality = new Ghost.Personality[entityCount];
+        mode = new Ghost.Mode[entityCount];
+    }
+
+    // called by the writer before a tick
+    void capturePrevious(GameState state)
+    {
+        previousX[PLAYER] = state.player.x();
+        previousY[PLAYER] = state.player.y();
+        for (int i = 0, len = state.ghosts.size(); i < len; i++)
+        {
+            final Ghost ghost = state.ghosts.get(i);
+            previousX[i + 1] = ghost.x();
+            previousY[i + 1] = ghost.y();
+        }
+    }
+
+    // called by the writer after a tick
+    void capture(GameState state)
+    {
+        tick = state.clock.ticks();
+        timestampNanos = System.nanoTime();
+        score = state.player.score;
+        lifes = state.player.lifes;
+        level = state.level;
+        gameOver = state.gameOver;
+        debugMode = state.debugMode;
+        remainingDots = state.dots.getRemainingCount();
+        state.dots.copyTo(dots);
+
+        capture(PLAYER, state.player);
+        for (int i = 0, len = state.ghosts.size(); i < len; i++)
+        {
+            final Ghost ghost = state.ghosts.get(i);
+            capture(i + 1, ghost);
+            personality[i + 1] = ghost.personality;
+            mode[i + 1] = ghost.mode;
+            orientation[i + 1] = ghost.heading;
+        }
+    }
+
+    private void capture(int entity, Entity e)
+    {
+        x[entity] = e.x();
+        y[entity] = e.y();
+        orientation[entity] = e.orientation;
+        moving[entity] = e.isMoving;
+    }
+
+    /**
+     * Returns whether this snapshot holds any data yet.
+     */
+    public boolean isValid() {
+        return tick >= 0;
+    }
+
+    /**
+     * Returns the game tick this snapshot was taken after.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} at which this snapshot was published.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public int getLifes() {
+        return lifes;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public boolean isGameOver() {
+        return gameOver;
+    }
+
+    public boolean isDebugMode() {
+        return debugMode;
+    }
+
+    public int getRemainingDots() {
+        return remainingDots;
+    }
+
+    /**
+     * @see DotGrid#nextDot(int)
+     */
+    public int nextDot(int fromTile) {
+        return DotGrid.nextSetBit(dots, fromTile);
+    }
+
+    public int getDotWordCount() {
+        return dots.length;
+    }
+
+    /**
+     * Returns 64 bits of the dot bitset, bit <code>n</code> of word <code>w</code> is tile <code>w*64+n</code>.
+     */
+    public long getDotWord(int word) {
+        return dots[word];
+    }
+
+    /**
+     * Returns the dots of up to 32 consecutive tiles of a row, bit <code>n</code> is tile <code>x+n</code>.
+     * All tiles must lie within the dot grid.
+     */
+    public int getDotRow(int x, int y, int count)
+    {
+        final int tile = y * dotColumns + x;
+        final int word = tile >>> 6;
+        final int shift = tile & 63;
+        long bits = dots[word] >>> shift;
+        if ( shift > 64 - count ) {
+            bits |= dots[word + 1] << (64 - shift);
+        }
+        return (int) (bits & ((1L << count) - 1));
+    }
+
+    public int tileX(int tile) {
+        return tile % dotColumns;
+    }
+
+    public int tileY(int tile) {
+        return tile / dotColumns;
+    }
+
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+    /**
+     * Returns the X coordinate of an entity in grid units, interpolated between the
+     * previous and the current tick.
+     *
+     * @param alpha 0 = previous tick, 1 = current tick
+     */
+    public float x(int entity, float alpha) {
+        return interpolate(previousX[entity], x[entity], alpha);
+    }
+
+    /**
+     * Returns the Y coordinate of an entity in grid units, interpolated between the
+     * previous and the current tick.
+     *
+     * @param alpha 0 = previous tick, 1 = current tick
+     */
+    public float y(int entity, float alpha) {
+        return interpolate(previousY[entity], y[entity], alpha);
+    }
+
+    private static float interpolate(float previous, float current, float alpha)
+    {
+        // don't sweep across the screen when taking a tunnel or respawning
+        if ( Math.abs(current - previous) > 1f ) {
+            return current;
+        }
+        return previous + (current - previous) * alpha;
+    }
+
+    public NavGrid.Direction getOrientation(int entity) {
+        return orientation[entity];
+    }
+
+    public boolean isMoving(int entity) {
+        return moving[entity];
+    }
+
+    /**
+     * Returns the personality of a ghost, <code>null</code> for the player.
+     */
+    public Ghost.Personality getPersonality(int entity) {
+        return personality[entity];
+    }
+
+    /**
+     * Returns the mode of a ghost, <code>null</code> for the player.
+     */
+    public Ghost.Mode getMode(int entity) {
+        return mode[entity];
+    }
+}
@@ -0,0 +1,328 @@
+package de.codesourcery.jpacman;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A recorded game, see {@link ReplayRecorder}.
+ *
+ * Since games are deterministic, a replay only consists of the game's seed and the
+ * player input of every tick. Keyframes holding the full game state are stored at
+ * regular intervals so playback can start anywhere without simulating from the
+ * beginning, and so a re-simulation can be checked against what was recorded.
+ *
+ * <h3>File format</h3>
+ * All numbers are big-endian, <i>varint</i> denotes an unsigned LEB128-encoded integer.
+ * <pre>
+ * header:   int magic ('JPRP'), byte version, long seed, long maze fingerprint (see Maze#fingerprint),
+ *           float tick seconds, varint keyframe interval
+ * records:  byte tag followed by
+ *             0x00..0x3f: varint tick count - input bitmask (the tag) held for that many ticks
+ *             0x40:       varint tick, varint length, state bytes - keyframe (see GameState#writeState)
+ *             0x41:       varint tick count - end of replay
+ * </pre>
+ * Input bitmasks have bit <code>n</code> set when {@link PlayingField.Input} with ordinal <code>n</code> was pressed.
+ */
+public final class Replay
+{
+    static final int MAGIC = 0x4a505250; // 'JPRP'
+    // bumped whenever a rule change makes games play out differently, since old recordings would no longer verify
+    // 2: ghosts and the player collide when they swap tiles
+    // 3: maze fingerprint in the header
+    static final int VERSION = 3;
+
+    static final int TAG_KEYFRAME = 0x40;
+    static final int TAG_END = 0x41;
+    static final int MAX_INPUT_MASK = 0x3f;
+
+    private static final PlayingField.Input[] INPUTS = PlayingField.Input.values();
+
+    private final long seed;
+    private final long mazeFingerprint;
+    private final float tickSeconds;
+    private final int keyframeInterval;
+
+    // input bitmask of every tick
+    private final byte[] inputs;
+    private final int tickCount;
+
+    // sorted ascending
+    private final int[] keyframeTicks;
+    private final byte[][] keyframes;
+
+    private Replay(long seed, long mazeFingerprint, float tickSeconds, int keyframeInterval, byte[] inputs, int tickCount,
+                   int[] keyframeTicks, byte[][] keyframes)
+    {
+        this.seed = seed;
+        this.mazeFingerprint = mazeFingerprint;
+        this.tickSeconds = tickSeconds;
+        this.keyframeInterval = keyframeInterval;
+        this.inputs = inputs;
+        this.tickCount = tickCount;
+        this.keyframeTicks = keyframeTicks;
+        this.keyframes = keyframes;
+    }
+
+    public static Replay read(File file) throws IOException
+    {
+        try ( InputStream in = new FileInputStream(file) ) {
+            return read(in);
+        }
+    }
+
+    public static Replay read(InputStream stream) throws IOException
+    {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        try
+        {
+            if ( in.readInt() != MAGIC ) {
+                throw new IOException("Not a replay file");
+            }
+            final int version = in.readUnsignedByte();
+            if ( version != VERSION ) {
+                throw new IOException("Unsupported replay version "+version+", expected "+VERSION);
+            }
+            final long seed = in.readLong();
+            final long mazeFingerprint = in.readLong();
+            final float tickSeconds = in.readFloat();
+            final int keyframeInterval = readVarInt(in);
+
+            byte[] inputs = new byte[1024];
+            int tickCount = 0;
+            int[] keyframeTicks = new int[16];
+            byte[][] keyframes = new byte[16][];
+            int keyframeCount = 0;
+            while ( true )
+            {
+                final int tag = in.readUnsignedByte();
+                if ( tag <= MAX_INPUT_MASK )
+                {
+                    final int ticks = readVarInt(in);
+                    if ( tickCount + ticks > inputs.length ) {
+                        inputs = Arrays.copyOf(inputs, Math.max(inputs.length * 2, tickCount + ticks));
+                    }
+                    Arrays.fill(inputs, tickCount, tickCount + ticks, (byte) tag);
+                    tickCount += ticks;
+                }
+                else if ( tag == TAG_KEYFRAME )
+                {
+                    final int tick = readVarInt(in);
+                    if ( tick != tickCount ) {
+                        throw new IOException("Keyframe for tick "+tick+" found at tick "+tickCount);
+                    }
+                    final byte[] data = new byte[readVarInt(in)];
+                    in.readFully(data);
+                    if ( keyframeCount == keyframeTicks.length )
+                    {
+                        keyframeTicks = Arrays.copyOf(keyframeTicks, keyframeCount * 2);
+                        keyframes = Arrays.copyOf(keyframes, keyframeCount * 2);
+                    }
+                    keyframeTicks[keyframeCount] = tick;
+                    keyframes[keyframeCount++] = data;
+                }
+                else if ( tag == TAG_END )
+                {
+                    if ( readVarInt(in) != tickCount ) {
+                        throw new IOException("Replay is corrupt, tick count mismatch");
+                    }
+                    break;
+                }
+                else {
+                    throw new IOException("Unknown record type 0x"+Integer.toHexString(tag));
+                }
+            }
+            return new Replay(seed, mazeFingerprint, tickSeconds, keyframeInterval, inputs, tickCount,
+                Arrays.copyOf(keyframeTicks, keyframeCount), Arrays.copyOf(keyframes, keyframeCount));
+        }
+        catch (EOFException e) {
+            throw new IOException("Replay is truncated (recording not closed properly?)", e);
+        }
+    }
+
+    static int readVarInt(DataInput in) throws IOException
+    {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7)
+        {
+            final int b = in.readUnsignedByte();
+            result |= (b & 0x7f) << shift;
+            if ( (b & 0x80) == 0 ) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    public static int toMask(Set<PlayingField.Input> input)
+    {
+        int mask = 0;
+        for (int i = 0; i < INPUTS.length; i++) {
+            if ( input.contains(INPUTS[i]) ) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    public static void fromMask(int mask, Set<PlayingField.Input> input)
+    {
+        for (int i = 0; i < INPUTS.length; i++) {
+            if ( (mask & (1 << i)) != 0 ) {
+                input.add(INPUTS[i]);
+            }
+        }
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public float getTickSeconds() {
+        return tickSeconds;
+    }
+
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    public int getTickCount() {
+        return tickCount;
+    }
+
+    public int getKeyframeCount() {
+        return keyframeTicks.length;
+    }
+
+    /**
+     * Returns the input bitmask of a tick.
+     */
+    public int getInput(int tick) {
+        return inputs[tick];
+    }
+
+    public long getMazeFingerprint() {
+        return mazeFingerprint;
+    }
+
+    /**
+     * Creates a game state positioned at the start of this replay.
+     *
+     * @throws IllegalArgumentException if the replay was recorded on a different maze
+     */
+    public GameState newGame(Maze maze)
+    {
+        checkMaze(maze);
+        return new GameState(maze, seed);
+    }
+
+    private void checkMaze(Maze maze)
+    {
+        if ( maze.fingerprint != mazeFingerprint ) {
+            throw new IllegalArgumentException("Replay was recorded on a different maze (fingerprint "+
+                Long.toHexString(mazeFingerprint)+", this maze has "+Long.toHexString(maze.fingerprint)+")");
+        }
+    }
+
+    /**
+     * Positions a game state right before the given tick, starting from the
+     * closest keyframe.
+     *
+     * @param tick tick to seek to, {@link #getTickCount()} seeks to the end of the replay
+     * @throws IllegalArgumentException if the game state is on a different maze than the replay
+     */
+    public void seek(GameState state, int tick) throws IOException
+    {
+        checkMaze(state.maze);
+        if ( tick < 0 || tick > tickCount ) {
+            throw new IllegalArgumentException("Tick "+tick+" is out of range 0..."+tickCount);
+        }
+        int idx = Arrays.binarySearch(keyframeTicks, tick);
+        if ( idx < 0 ) {
+            idx = -idx - 2;
+        }
+        int from = 0;
+        if ( idx >= 0 )
+        {
+            state.readState(new DataInputStream(new ByteArrayInputStream(keyframes[idx])));
+            from = keyframeTicks[idx];
+        } else {
+            state.reset(seed);
+        }
+        final Set<PlayingField.Input> input = EnumSet.noneOf(PlayingField.Input.class);
+        for (int t = from; t < tick; t++) {
+            tick(state, t, input);
+        }
+    }
+
+    private void tick(GameState state, int tick, Set<PlayingField.Input> input)
+    {
+        input.clear();
+        fromMask(inputs[tick], input);
+        state.tick(input, tickSeconds);
+    }
+
+    /**
+     * Re-simulates the whole replay from its seed and compares the game state
+     * against every keyframe.
+     *
+     * @return the tick of the first keyframe that does not match or -1 if the simulation matched the recording
+     * @throws IllegalArgumentException if the game state is on a different maze than the replay
+     */
+    public int verify(GameState state) throws IOException
+    {
+        checkMaze(state.maze);
+        state.reset(seed);
+        final Set<PlayingField.Input> input = EnumSet.noneOf(PlayingField.Input.class);
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(buffer);
+        int tick = 0;
+        for (int i = 0; i < keyframeTicks.length; i++)
+        {
+            for (; tick < keyframeTicks[i]; tick++) {
+                tick(state, tick, input);
+            }
+            buffer.reset();
+            state.writeState(out);
+            if ( ! Arrays.equals(buffer.toByteArray(), keyframes[i]) ) {
+                return tick;
+            }
+        }
+        for (; tick < tickCount; tick++) {
+            tick(state, tick, input);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns an input source that plays back the recorded input, starting at a given tick.
+     * Once the end of the replay is reached, no input is produced.
+     */
+    public InputSource inputSource(int fromTick)
+    {
+        return new InputSource()
+        {
+            private int tick = fromTick;
+
+            @Override
+            public void nextInput(GameState state, Set<PlayingField.Input> input)
+            {
+                if ( tick < tickCount ) {
+                    fromMask(inputs[tick++], input);
+                }
+            }
+
+            @Override
+            public void reset() {
+                tick = fromTick;
+            }
+        };
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Replay{seed=" + seed + ", ticks=" + tickCount + ", keyframes=" + keyframeTicks.length + '}';
+    }
+}
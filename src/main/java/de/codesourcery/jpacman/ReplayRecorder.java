@@ -0,0 +1,327 @@
+package de.codesourcery.jpacman;
+
+import java.io.*;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Records a game into the {@link Replay} format while it's being played.
+ *
+ * Ticking the game through {@link #tick(GameState, Set)} only encodes the input into
+ * an in-memory chunk, full chunks (and each chunk holding a keyframe) are handed to a
+ * background thread that writes them out. Chunks are pooled, so recording does not
+ * allocate except when writing keyframes. The tick thread only blocks when the writer
+ * falls more than {@link #CHUNK_COUNT} chunks behind.
+ */
+public final class ReplayRecorder implements Closeable
+{
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 600;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int CHUNK_COUNT = 8;
+
+    private static final class Chunk
+    {
+        public final byte[] data;
+        public int length;
+
+        private Chunk(int size) {
+            this.data = new byte[size];
+        }
+    }
+
+    // tells the writer thread to stop
+    private static final Chunk EOF = new Chunk(0);
+
+    // exposes the internal buffer to avoid copying keyframes
+    private static final class StateBuffer extends ByteArrayOutputStream
+    {
+        public byte[] array() {
+            return buf;
+        }
+    }
+
+    private final OutputStream out;
+    private final float tickSeconds;
+    private final int keyframeInterval;
+
+    private final BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(CHUNK_COUNT);
+    private final BlockingQueue<Chunk> written = new ArrayBlockingQueue<>(CHUNK_COUNT + 1);
+    private final Thread writer;
+    private volatile IOException writeError;
+
+    private final StateBuffer stateBuffer = new StateBuffer();
+    private final DataOutputStream stateOut = new DataOutputStream(stateBuffer);
+
+    private Chunk chunk;
+
+    private int tick;
+    // input that's been held since runStart
+    private int runMask = -1;
+    private int runStart;
+
+    private boolean closed;
+
+    public ReplayRecorder(File file, GameState state) throws IOException
+    {
+        this(open(file, state), state, GameLoop.TICK_SECONDS, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    // checks the game before creating the file, the stream would leak if the constructor threw
+    private static OutputStream open(File file, GameState state) throws IOException
+    {
+        checkNewGame(state);
+        return new FileOutputStream(file);
+    }
+
+    private static void checkNewGame(GameState state)
+    {
+        if ( state.clock.ticks() != 0 ) {
+            throw new IllegalStateException("Recording must start with a new game");
+        }
+    }
+
+    /**
+     * Starts recording.
+     *
+     * @param out stream to write to, closed by {@link #close()}
+     * @param state game to record, must just have been (re-)started
+     * @param tickSeconds game time that passes with each tick
+     * @param keyframeInterval number of ticks between keyframes
+     */
+    public ReplayRecorder(OutputStream out, GameState state, float tickSeconds, int keyframeInterval)
+    {
+        checkNewGame(state);
+        if ( keyframeInterval < 1 ) {
+            throw new IllegalArgumentException("Keyframe interval must be >= 1");
+        }
+        this.out = out;
+        this.tickSeconds = tickSeconds;
+        this.keyframeInterval = keyframeInterval;
+
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            free.add(new Chunk(CHUNK_SIZE));
+        }
+        chunk = free.remove();
+
+        putInt(Replay.MAGIC);
+        put(Replay.VERSION);
+        putLong(state.getSeed());
+        putLong(state.maze.fingerprint);
+        putInt(Float.floatToIntBits(tickSeconds));
+        putVarInt(keyframeInterval);
+
+        writer = new Thread(this::writeChunks, "replay-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Records the input and advances the game by one tick.
+     */
+    public void tick(GameState state, Set<PlayingField.Input> input)
+    {
+        if ( closed ) {
+            throw new IllegalStateException("Recorder is closed");
+        }
+        final int mask = Replay.toMask(input);
+        if ( mask != runMask )
+        {
+            endRun();
+            runMask = mask;
+        }
+        state.tick(input, tickSeconds);
+        tick++;
+
+        if ( tick % keyframeInterval == 0 )
+        {
+            writeKeyframe(state);
+            handOff();
+        }
+    }
+
+    public int getTickCount() {
+        return tick;
+    }
+
+    private void endRun()
+    {
+        if ( tick > runStart )
+        {
+            put(runMask);
+            putVarInt(tick - runStart);
+        }
+        runStart = tick;
+    }
+
+    private void writeKeyframe(GameState state)
+    {
+        endRun();
+        stateBuffer.reset();
+        try {
+            state.writeState(stateOut);
+        } catch (IOException e) {
+            // cannot happen when writing to memory
+            throw new UncheckedIOException(e);
+        }
+        put(Replay.TAG_KEYFRAME);
+        putVarInt(tick);
+        putVarInt(stateBuffer.size());
+        putBytes(stateBuffer.array(), stateBuffer.size());
+    }
+
+    /**
+     * Finishes the replay with a final keyframe and waits until everything has been written.
+     */
+    public void finish(GameState state) throws IOException
+    {
+        if ( ! closed )
+        {
+            if ( tick % keyframeInterval != 0 ) {
+                writeKeyframe(state);
+            }
+            close();
+        }
+    }
+
+    /**
+     * Ends the replay and waits until everything has been written.
+     *
+     * Use {@link #finish(GameState)} to also record the final state.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( closed ) {
+            return;
+        }
+        closed = true;
+        try
+        {
+            endRun();
+            put(Replay.TAG_END);
+            putVarInt(tick);
+            handOff();
+        }
+        finally
+        {
+            try
+            {
+                written.put(EOF);
+                writer.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for replay to be written");
+            }
+            finally {
+                out.close();
+            }
+        }
+        if ( writeError != null ) {
+            throw new IOException("Failed to write replay", writeError);
+        }
+    }
+
+    private void checkWriteError()
+    {
+        if ( writeError != null ) {
+            throw new UncheckedIOException("Failed to write replay", writeError);
+        }
+    }
+
+    private void writeChunks()
+    {
+        try
+        {
+            Chunk c;
+            while ( ( c = written.take() ) != EOF )
+            {
+                if ( writeError == null )
+                {
+                    try
+                    {
+                        out.write(c.data, 0, c.length);
+                        out.flush();
+                    }
+                    catch (IOException e) {
+                        writeError = e;
+                    }
+                }
+                c.length = 0;
+                free.add(c);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // passes the current chunk to the writer thread
+    private void handOff()
+    {
+        checkWriteError();
+        if ( chunk.length == 0 ) {
+            return;
+        }
+        try
+        {
+            written.put(chunk);
+            chunk = free.take();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while recording", e);
+        }
+    }
+
+    private void put(int b)
+    {
+        if ( chunk.length == CHUNK_SIZE ) {
+            handOff();
+        }
+        chunk.data[chunk.length++] = (byte) b;
+    }
+
+    private void putBytes(byte[] bytes, int length)
+    {
+        int offset = 0;
+        while ( offset < length )
+        {
+            if ( chunk.length == CHUNK_SIZE ) {
+                handOff();
+            }
+            final int count = Math.min(length - offset, CHUNK_SIZE - chunk.length);
+            System.arraycopy(bytes, offset, chunk.data, chunk.length, count);
+            chunk.length += count;
+            offset += count;
+        }
+    }
+
+    private void putVarInt(int value)
+    {
+        while ( (value & ~0x7f) != 0 )
+        {
+            put((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        put(value);
+    }
+
+    private void putInt(int value)
+    {
+        put(value >>> 24);
+        put(value >>> 16);
+        put(value >>> 8);
+        put(value);
+    }
+
+    private void putLong(long value)
+    {
+        putInt((int) (value >>> 32));
+        putInt((int) value);
+    }
+}
@@ -0,0 +1,276 @@
+package de.codesourcery.jpacman;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Runs many independent games in parallel.
+ *
+ * Each {@link Session} owns its own {@link GameState} and input, sessions never share
+ * mutable state. Every call to {@link #step()} advances all sessions by their
+ * individual tick budget, distributing the sessions across a work-stealing {@link ForkJoinPool}.
+ *
+ * Run with
+ * <pre>
+ * java -cp target/jpacman-jar-with-dependencies.jar de.codesourcery.jpacman.SessionEngine [options]
+ * </pre>
+ */
+public class SessionEngine implements AutoCloseable
+{
+    // number of sessions below which a task stops splitting
+    private static final int SPLIT_THRESHOLD = 4;
+
+    private final ForkJoinPool pool;
+    private final List<Session> sessions;
+
+    private long elapsedNanos;
+
+    public static final class Session
+    {
+        public final int id;
+        private final HeadlessRunner runner;
+        private final int tickBudget;
+
+        private final GameStatistics stats = new GameStatistics();
+        private int ticksInCurrentGame;
+        private long ticks;
+        private long busyNanos;
+
+        public Session(int id, HeadlessRunner runner, int tickBudget)
+        {
+            if ( tickBudget < 1 ) {
+                throw new IllegalArgumentException("Tick budget must be >= 1");
+            }
+            this.id = id;
+            this.runner = runner;
+            this.tickBudget = tickBudget;
+            runner.startGame();
+        }
+
+        /**
+         * Advances this session by its tick budget, starting
+         * new games as necessary.
+         */
+        private void step()
+        {
+            final long start = System.nanoTime();
+            int inGame = ticksInCurrentGame;
+            for (int i = 0; i < tickBudget; i++)
+            {
+                runner.tick();
+                inGame++;
+                if ( runner.isGameFinished(inGame) )
+                {
+                    stats.gameFinished(runner.getState(), inGame);
+                    runner.startGame();
+                    inGame = 0;
+                }
+            }
+            ticksInCurrentGame = inGame;
+            ticks += tickBudget;
+            busyNanos += System.nanoTime() - start;
+        }
+
+        public GameState getState() {
+            return runner.getState();
+        }
+
+        public long getTicks() {
+            return ticks;
+        }
+
+        /**
+         * Returns the number of ticks this session advanced per second of CPU time spent on it.
+         */
+        public double ticksPerSecond() {
+            return busyNanos == 0 ? 0 : ticks / (busyNanos / 1_000_000_000d);
+        }
+
+        /**
+         * Returns statistics about finished games.
+         *
+         * Must not be called while the engine is stepping.
+         */
+        public GameStatistics getStatistics() {
+            return stats;
+        }
+    }
+
+    private final class StepTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        private StepTask(int from, int to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( to - from <= SPLIT_THRESHOLD )
+            {
+                for (int i = from; i < to; i++) {
+                    sessions.get(i).step();
+                }
+                return;
+            }
+            final int mid = (from + to) >>> 1;
+            invokeAll(new StepTask(from, mid), new StepTask(mid, to));
+        }
+    }
+
+    /**
+     * Creates an engine.
+     *
+     * @param threads number of worker threads
+     * @param sessionCount number of sessions
+     * @param sessionFactory creates the session with a given ID
+     */
+    public SessionEngine(int threads, int sessionCount, IntFunction<Session> sessionFactory)
+    {
+        if ( threads < 1 ) {
+            throw new IllegalArgumentException("Need at least one thread");
+        }
+        final List<Session> tmp = new ArrayList<>(sessionCount);
+        for (int i = 0; i < sessionCount; i++) {
+            tmp.add(sessionFactory.apply(i));
+        }
+        this.sessions = Collections.unmodifiableList(tmp);
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Advances all sessions by their tick budget and blocks until all of them are done.
+     */
+    public void step()
+    {
+        final long start = System.nanoTime();
+        pool.invoke(new StepTask(0, sessions.size()));
+        elapsedNanos += System.nanoTime() - start;
+    }
+
+    public List<Session> getSessions() {
+        return sessions;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    public long getTotalTicks()
+    {
+        long result = 0;
+        for (Session s : sessions) {
+            result += s.ticks;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the wall-clock time spent inside {@link #step()}.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the aggregate number of ticks per second (wall-clock) across all sessions.
+     */
+    public double ticksPerSecond() {
+        return elapsedNanos == 0 ? 0 : getTotalTicks() / (elapsedNanos / 1_000_000_000d);
+    }
+
+    /**
+     * Returns the statistics of all finished games across all sessions.
+     */
+    public GameStatistics getStatistics()
+    {
+        final GameStatistics result = new GameStatistics();
+        for (Session s : sessions) {
+            result.merge(s.stats);
+        }
+        result.elapsedNanos = elapsedNanos;
+        return result;
+    }
+
+    @Override
+    public void close()
+    {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void printUsage()
+    {
+        System.out.println("Usage: SessionEngine [options]\n\n" +
+            "--sessions <count>       number of concurrent sessions (default: 1000)\n" +
+            "--threads <count>        number of worker threads (default: number of CPU cores)\n" +
+            "--steps <count>          number of engine steps to run (default: 100)\n" +
+            "--tick-budget <count>    ticks per session per step (default: 600)\n" +
+            "--max-ticks <count>      max. ticks per game (default: 100000)\n" +
+            "--seed <number>          base seed for games and random input (default: 0xdeadbeef)\n" +
+            "--help                   print this help");
+    }
+
+    public static void main(String[] args)
+    {
+        System.setProperty("java.awt.headless", "true");
+
+        int sessionCount = 1000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int steps = 100;
+        int tickBudget = 600;
+        int maxTicks = 100_000;
+        long seed = 0xdeadbeef;
+
+        for (int i = 0; i < args.length; i++)
+        {
+            switch (args[i])
+            {
+                case "--sessions":    sessionCount = Integer.parseInt(args[++i]); break;
+                case "--threads":     threads = Integer.parseInt(args[++i]); break;
+                case "--steps":       steps = Integer.parseInt(args[++i]); break;
+                case "--tick-budget": tickBudget = Integer.parseInt(args[++i]); break;
+                case "--max-ticks":   maxTicks = Integer.parseInt(args[++i]); break;
+                case "--seed":        seed = Long.decode(args[++i]); break;
+                case "--help":
+                    printUsage();
+                    return;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    printUsage();
+                    System.exit(1);
+            }
+        }
+
+        final long baseSeed = seed;
+        final int budget = tickBudget;
+        final int maxTicksPerGame = maxTicks;
+        try ( SessionEngine engine = new SessionEngine(threads, sessionCount,
+            id -> new Session(id, new HeadlessRunner(new GameState(baseSeed + id), InputSource.random(baseSeed + id, 30), maxTicksPerGame), budget)) )
+        {
+            for (int i = 0; i < steps; i++) {
+                engine.step();
+            }
+            System.out.println("Threads      : " + engine.getParallelism());
+            System.out.println("Sessions     : " + engine.getSessions().size());
+            System.out.println("Total ticks  : " + engine.getTotalTicks());
+            System.out.println(engine.getStatistics());
+            System.out.println(String.format("Aggregate ticks/s : %.0f", engine.ticksPerSecond()));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package de.codesourcery.jpacman;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+/**
+ * Pre-rendered images of all animation frames of the player and the ghosts
+ * for a given tile size.
+ *
+ * Sprites are square with an edge length of <code>2 * size</code> and centered
+ * on the entity's location, so drawing an entity is a single image blit.
+ * A new cache needs to be created whenever the tile size changes.
+ */
+public final class SpriteCache
+{
+    // ghost looks besides the four personalities
+    private static final int FRIGHTENED = Ghost.Personality.values().length;
+    private static final int EYES_ONLY = FRIGHTENED + 1;
+
+    private static final int DIRECTIONS = NavGrid.Direction.values().length;
+
+    public final int size;
+    public final int animationStates;
+
+    // [orientation * animationStates + animationState]
+    private final BufferedImage[] player;
+    // [look * DIRECTIONS + heading]
+    private final BufferedImage[] ghosts;
+
+    public SpriteCache(GraphicsConfiguration config, int size, int animationStates)
+    {
+        if ( size < 1 ) {
+            throw new IllegalArgumentException("Sprite size must be >= 1");
+        }
+        this.size = size;
+        this.animationStates = animationStates;
+
+        player = new BufferedImage[DIRECTIONS * animationStates];
+        for (NavGrid.Direction orientation : NavGrid.Direction.values())
+        {
+            for (int state = 0; state < animationStates; state++)
+            {
+                final BufferedImage image = createImage(config);
+                final Graphics2D g = createGraphics(image);
+                try {
+                    drawPlayer(size, size, size, orientation, state, g);
+                } finally {
+                    g.dispose();
+                }
+                player[orientation.ordinal() * animationStates + state] = image;
+            }
+        }
+
+        ghosts = new BufferedImage[(EYES_ONLY + 1) * DIRECTIONS];
+        for (int look = 0; look <= EYES_ONLY; look++)
+        {
+            for (NavGrid.Direction heading : NavGrid.Direction.values())
+            {
+                final BufferedImage image = createImage(config);
+                final Graphics2D g = createGraphics(image);
+                try {
+                    drawGhost(size, size, size, look, heading, g);
+                } finally {
+                    g.dispose();
+                }
+                ghosts[look * DIRECTIONS + heading.ordinal()] = image;
+            }
+        }
+    }
+
+    private BufferedImage createImage(GraphicsConfiguration config)
+    {
+        if ( config != null ) {
+            return config.createCompatibleImage(2 * size, 2 * size, Transparency.TRANSLUCENT);
+        }
+        return new BufferedImage(2 * size, 2 * size, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    private static Graphics2D createGraphics(BufferedImage image)
+    {
+        final Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        return g;
+    }
+
+    /**
+     * Draws the player centered on a given location.
+     */
+    public void drawPlayer(int x, int y, NavGrid.Direction orientation, int animationState, Graphics g)
+    {
+        g.drawImage(player[orientation.ordinal() * animationStates + animationState], x - size, y - size, null);
+    }
+
+    /**
+     * Draws a ghost centered on a given location.
+     */
+    public void drawGhost(int x, int y, Ghost.Personality personality, Ghost.Mode mode, NavGrid.Direction heading, Graphics g)
+    {
+        final int look;
+        if ( mode == Ghost.Mode.RETURNING_TO_SPAWN ) {
+            look = EYES_ONLY;
+        } else if ( mode == Ghost.Mode.FRIGHTENED ) {
+            look = FRIGHTENED;
+        } else {
+            look = personality.ordinal();
+        }
+        g.drawImage(ghosts[look * DIRECTIONS + heading.ordinal()], x - size, y - size, null);
+    }
+
+    private static Color ghostColor(int look)
+    {
+        if ( look == FRIGHTENED ) {
+            return Color.BLUE;
+        }
+        final Ghost.Personality personality = Ghost.Personality.values()[look];
+        switch( personality ) {
+            case BLINKY: return Color.RED;
+            case PINKY:  return Color.PINK;
+            case INKY:   return Color.CYAN;
+            case CLYDE:  return Color.ORANGE;
+            default:
+                throw new IllegalStateException("Unexpected value: " + personality);
+        }
+    }
+
+    private static void drawGhost(int x, int y, int size, int look, NavGrid.Direction dir, Graphics2D g)
+    {
+        if ( look != EYES_ONLY )
+        {
+            // body
+            g.setColor( ghostColor(look) );
+            g.fillArc(x - size, y - size, size * 2, size * 2, 0, 180);
+            g.fillRect(x - size, y, size * 2, size);
+        }
+        // eyes, looking in the direction of travel
+        final int eyeSize = Math.max(2, size / 2);
+        g.setColor(Color.WHITE);
+        g.fillOval(x - size / 2 - eyeSize / 2, y - eyeSize / 2, eyeSize, eyeSize);
+        g.fillOval(x + size / 2 - eyeSize / 2, y - eyeSize / 2, eyeSize, eyeSize);
+        g.setColor(Color.BLACK);
+        final int pupil = Math.max(1, eyeSize / 2);
+        final int dx = dir.dx * pupil / 2 - pupil / 2;
+        final int dy = dir.dy * pupil / 2 - pupil / 2;
+        g.fillOval(x - size / 2 + dx, y + dy, pupil, pupil);
+        g.fillOval(x + size / 2 + dx, y + dy, pupil, pupil);
+    }
+
+    private void drawPlayer(int x, int y, int radius, NavGrid.Direction orientation, int animationState, Graphics2D g)
+    {
+        g.setColor(Color.YELLOW);
+
+        float maxMouthAngle = 90f;
+        float anglePerState = maxMouthAngle / animationStates;
+        float angle = anglePerState * animationState;
+
+        final double rotation;
+        switch ( orientation ) {
+            case UP:    rotation = -90+22.5; break;
+            case DOWN:  rotation = 90+22.5; break;
+            case LEFT:  rotation = 180+22.5; break;
+            case RIGHT: rotation = 22.5; break;
+            default:
+                throw new IllegalStateException("Unexpected value: " + orientation);
+        }
+
+        final AffineTransform t = AffineTransform.getTranslateInstance(x,y);
+        t.rotate(Math.toRadians(rotation));
+        t.translate(-x,-y );
+        g.setTransform(t);
+        radius *= 2;
+        g.fillArc(x - radius / 2, y - radius / 2, radius, radius, (int) (angle), (int) (360 - angle));
+    }
+}
@@ -0,0 +1,181 @@
+package de.codesourcery.jpacman;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Steps a batch of {@link GameEnv}s at once.
+ *
+ * Observations of all environments are written into a single direct buffer holding a
+ * <code>float32</code> tensor of shape <code>[environments][channels][rows][columns]</code> in
+ * native byte order, which can be handed to native ML frameworks without copying.
+ *
+ * Environments whose episode ended are reset automatically with a new seed, the
+ * observation written for them is the first one of the new episode. Whether the episode
+ * was cut off by the step limit rather than ended by the game is reported by
+ * {@link #step(int[], float[], boolean[], boolean[])} before the reset.
+ */
+public final class VectorEnv implements AutoCloseable
+{
+    // number of environments below which a task stops splitting
+    private static final int SPLIT_THRESHOLD = 8;
+
+    private final GameEnv[] envs;
+    private final ByteBuffer observations;
+    // may be null if stepping on the calling thread
+    private final ForkJoinPool pool;
+    // built once and reused by every step, null if stepping on the calling thread
+    private final StepTask root;
+
+    private final GameRandom seeds = new GameRandom(0);
+
+    // arguments of the current step()
+    private int[] actions;
+    private float[] rewards;
+    private boolean[] dones;
+    private boolean[] truncated;
+
+    private final class StepTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        // both null if this task steps its range itself
+        private final StepTask left;
+        private final StepTask right;
+
+        private StepTask(int from, int to)
+        {
+            this.from = from;
+            this.to = to;
+            if ( to - from > SPLIT_THRESHOLD )
+            {
+                final int mid = (from + to) >>> 1;
+                left = new StepTask(from, mid);
+                right = new StepTask(mid, to);
+            } else {
+                left = right = null;
+            }
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( left == null )
+            {
+                step(from, to);
+                return;
+            }
+            // completed tasks must be reinitialized before they can run again
+            left.reinitialize();
+            right.reinitialize();
+            invokeAll(left, right);
+        }
+    }
+
+    /**
+     * @param threads number of threads to step environments on, 1 steps them on the calling thread
+     * @see GameEnv#GameEnv(Maze, int, int)
+     */
+    public VectorEnv(Maze maze, int count, int ticksPerStep, int maxSteps, int threads)
+    {
+        if ( count < 1 || threads < 1 ) {
+            throw new IllegalArgumentException("Need at least one environment and thread");
+        }
+        envs = new GameEnv[count];
+        for (int i = 0; i < count; i++) {
+            envs[i] = new GameEnv(maze, ticksPerStep, maxSteps);
+        }
+        final int observationBytes = 4 * envs[0].getEncoder().size();
+        observations = ByteBuffer.allocateDirect(count * observationBytes).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < count; i++) {
+            envs[i].bind(observations, i * observationBytes);
+        }
+        pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        root = threads > 1 ? new StepTask(0, count) : null;
+    }
+
+    public int size() {
+        return envs.length;
+    }
+
+    public GameEnv get(int index) {
+        return envs[index];
+    }
+
+    /**
+     * Returns the buffer holding the current observations of all environments.
+     */
+    public ByteBuffer getObservations() {
+        return observations;
+    }
+
+    /**
+     * Resets all environments, the seeds of all episodes played are derived from the given seed.
+     */
+    public void reset(long seed)
+    {
+        seeds.setSeed(seed);
+        for (GameEnv env : envs) {
+            env.reset(seeds.nextLong());
+        }
+    }
+
+    /**
+     * Performs one action in each environment.
+     *
+     * @param actions action for each environment
+     * @param rewards receives the reward of each environment
+     * @param dones receives whether the episode of each environment ended (and the environment got reset)
+     * @param truncated receives whether the episode of each environment ended only because of the step
+     * limit (see {@link GameEnv#isTruncated()}), so its value can still be bootstrapped
+     */
+    public void step(int[] actions, float[] rewards, boolean[] dones, boolean[] truncated)
+    {
+        if ( actions.length < envs.length || rewards.length < envs.length || dones.length < envs.length ||
+             truncated.length < envs.length )
+        {
+            throw new IllegalArgumentException("Arrays must hold at least "+envs.length+" elements");
+        }
+        this.actions = actions;
+        this.rewards = rewards;
+        this.dones = dones;
+        this.truncated = truncated;
+        if ( pool != null )
+        {
+            root.reinitialize();
+            pool.invoke(root);
+        } else {
+            step(0, envs.length);
+        }
+
+        // seeds are assigned in order so results do not depend on the number of threads
+        for (int i = 0; i < envs.length; i++)
+        {
+            if ( dones[i] ) {
+                envs[i].reset(seeds.nextLong());
+            }
+        }
+    }
+
+    private void step(int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            rewards[i] = envs[i].step(actions[i]);
+            dones[i] = envs[i].isDone();
+            truncated[i] = envs[i].isTruncated();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if ( pool != null ) {
+            pool.shutdown();
+        }
+    }
+}
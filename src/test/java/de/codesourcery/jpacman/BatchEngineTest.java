@@ -0,0 +1,21 @@
+package de.codesourcery.jpacman;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Games in a batch must play out exactly like {@link GameState}s, see {@link BatchEngine#verify(Maze, int, int, long)}.
+ */
+class BatchEngineTest
+{
+    private static final int GAMES = 300;
+    private static final int TICKS = 2000;
+
+    @ParameterizedTest
+    @ValueSource(longs = { 1, 42, 7777, 0xdeadbeefL })
+    void batchBehavesLikeGameState(long seed) {
+        assertEquals(0, BatchEngine.verify(Maze.getDefault(), GAMES, TICKS, seed), "Mismatches against GameState");
+    }
+}
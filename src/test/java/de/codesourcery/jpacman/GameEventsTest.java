@@ -0,0 +1,141 @@
+package de.codesourcery.jpacman;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Delivery, overwriting and skipping of {@link GameEvents}.
+ */
+class GameEventsTest
+{
+    private static final int CAPACITY = 8;
+
+    // events carry their sequence number as tick, arguments derived from it to detect torn reads
+    private static void publish(GameEvents events, int from, int to)
+    {
+        for (int i = from; i < to; i++) {
+            events.publish(GameEvents.Type.DOT_EATEN, i, i, ~i);
+        }
+    }
+
+    private static List<Long> poll(GameEvents.Reader reader, int limit)
+    {
+        final List<Long> ticks = new ArrayList<>();
+        reader.poll((type, tick, arg1, arg2) ->
+        {
+            assertEquals(GameEvents.Type.DOT_EATEN, type);
+            assertEquals((int) tick, arg1);
+            assertEquals(~(int) tick, arg2);
+            ticks.add(tick);
+        }, limit);
+        return ticks;
+    }
+
+    private static List<Long> range(long from, long to)
+    {
+        final List<Long> result = new ArrayList<>();
+        for (long i = from; i < to; i++) {
+            result.add(i);
+        }
+        return result;
+    }
+
+    @Test
+    void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(8, new GameEvents(5).getCapacity());
+    }
+
+    @Test
+    void deliversEventsInOrder()
+    {
+        final GameEvents events = new GameEvents(CAPACITY);
+        final GameEvents.Reader reader = events.newReader();
+        publish(events, 0, 5);
+        assertEquals(5, reader.getLag());
+        assertEquals(range(0, 3), poll(reader, 3));
+        assertEquals(2, reader.getLag());
+        assertEquals(range(3, 5), poll(reader, 100));
+        assertEquals(0, reader.getLag());
+        assertEquals(0, reader.getLostEvents());
+    }
+
+    @Test
+    void readerOnlySeesEventsPublishedAfterItWasCreated()
+    {
+        final GameEvents events = new GameEvents(CAPACITY);
+        publish(events, 0, 3);
+        final GameEvents.Reader reader = events.newReader();
+        publish(events, 3, 4);
+        assertEquals(range(3, 4), poll(reader, 100));
+    }
+
+    @Test
+    void lappedReaderSkipsOverwrittenEvents()
+    {
+        final GameEvents events = new GameEvents(CAPACITY);
+        final GameEvents.Reader reader = events.newReader();
+        publish(events, 0, 2);
+        assertEquals(range(0, 2), poll(reader, 100));
+
+        // 2.5 times the capacity between two polls, only the newest CAPACITY events are still intact
+        publish(events, 2, 22);
+        assertEquals(20, reader.getLag());
+        assertEquals(range(22 - CAPACITY, 22), poll(reader, 100));
+        assertEquals(20 - CAPACITY, reader.getLostEvents());
+        assertEquals(0, reader.getLag());
+
+        // keeps going normally afterwards
+        publish(events, 22, 25);
+        assertEquals(range(22, 25), poll(reader, 100));
+        assertEquals(20 - CAPACITY, reader.getLostEvents());
+    }
+
+    @Test
+    void readersAreIndependent()
+    {
+        final GameEvents events = new GameEvents(CAPACITY);
+        final GameEvents.Reader fast = events.newReader();
+        final GameEvents.Reader slow = events.newReader();
+        for (int i = 0; i < 4; i++)
+        {
+            publish(events, i * 5, i * 5 + 5);
+            assertEquals(range(i * 5, i * 5 + 5), poll(fast, 100));
+        }
+        assertEquals(0, fast.getLostEvents());
+        assertEquals(range(20 - CAPACITY, 20), poll(slow, 100));
+        assertEquals(20 - CAPACITY, slow.getLostEvents());
+    }
+
+    @Test
+    void concurrentReaderSeesOrderedIntactEvents() throws InterruptedException
+    {
+        final int count = 2_000_000;
+        final GameEvents events = new GameEvents(64);
+        final GameEvents.Reader reader = events.newReader();
+        final Thread producer = new Thread(() -> publish(events, 0, count), "producer");
+        producer.start();
+
+        final long[] last = { -1 };
+        long delivered = 0;
+        while ( producer.isAlive() || reader.getLag() > 0 )
+        {
+            delivered += reader.poll((type, tick, arg1, arg2) ->
+            {
+                // checks the arguments belong to the tick, overwritten slots must have been skipped
+                if ( tick <= last[0] || arg1 != (int) tick || arg2 != ~(int) tick ) {
+                    throw new AssertionError("Event "+tick+"/"+arg1+"/"+arg2+" after "+last[0]);
+                }
+                last[0] = tick;
+            }, 16);
+        }
+        producer.join();
+        assertEquals(count - 1, last[0]);
+        assertEquals(count, delivered + reader.getLostEvents());
+        assertTrue(delivered > 0);
+    }
+}
@@ -0,0 +1,36 @@
+package de.codesourcery.jpacman;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Steady-state ticks must not allocate, see {@link HeadlessRunner#checkZeroAllocation(int, int, int)}.
+ */
+class GameStateAllocationTest
+{
+    private static final int WARMUP_TICKS = 200_000;
+    private static final int TICKS = 100_000;
+    // the JIT can take a while to settle on a single CPU, see checkZeroAllocation()
+    private static final int ATTEMPTS = 10;
+
+    private static HeadlessRunner runner(GameState state) {
+        return new HeadlessRunner(state, InputSource.random(42, 30), 100_000);
+    }
+
+    @Test
+    void ticksDoNotAllocate()
+    {
+        final HeadlessRunner runner = runner(new GameState(42));
+        assertEquals(0, runner.checkZeroAllocation(WARMUP_TICKS, TICKS, ATTEMPTS), "Bytes allocated by steady-state ticks");
+    }
+
+    @Test
+    void ticksDoNotAllocateWithEventsEnabled()
+    {
+        final GameState state = new GameState(42);
+        state.enableEvents(GameEvents.DEFAULT_CAPACITY);
+        final HeadlessRunner runner = runner(state);
+        assertEquals(0, runner.checkZeroAllocation(WARMUP_TICKS, TICKS, ATTEMPTS), "Bytes allocated by steady-state ticks");
+    }
+}
@@ -0,0 +1,113 @@
+package de.codesourcery.jpacman;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Point;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Mazes too large for all-pairs {@link DistanceTable}s must load and play.
+ */
+class LargeMazeTest
+{
+    private static final int SIZE = 300;
+    // corridors run along every third row and column, the ghost house (13,11) and tunnel row 14 are on them
+    private static final int SPACING = 3;
+    private static final int MIN = 2;
+    private static final int MAX = SIZE - 4;
+
+    private static Maze maze;
+
+    @BeforeAll
+    static void generate() throws IOException
+    {
+        final List<Line> lines = new ArrayList<>();
+        for (int y = MIN; y <= MAX; y += SPACING)
+        {
+            if ( y == 14 )
+            {
+                // the tunnel exits the nav grid expects, see NavGrid#isLineToLeftExit()
+                lines.add(line(0, y, 9, y));
+                lines.add(line(9, y, 18, y));
+                lines.add(line(18, y, 27, y));
+                lines.add(line(27, y, MAX + 1, y));
+            } else {
+                lines.add(line(0, y, MAX + 1, y));
+            }
+        }
+        for (int x = 0; x <= MAX + 1; x += SPACING) {
+            lines.add(line(x, MIN, x, MAX));
+        }
+
+        final StringBuilder dots = new StringBuilder();
+        for (int x = 0; x <= MAX + 1; x++) {
+            dots.append(x).append(',').append(MIN).append('\n');
+        }
+        dots.append("1,").append(MIN + SPACING).append(",E\n");
+        final DotGrid.Layout layout = DotGrid.Layout.load(new ByteArrayInputStream(dots.toString().getBytes(StandardCharsets.US_ASCII)));
+        maze = new Maze(List.of(), new NavGrid(lines), layout);
+    }
+
+    private static Line line(int x0, int y0, int x1, int y1) {
+        return new Line(new Point(x0, y0), new Point(x1, y1));
+    }
+
+    @Test
+    void hasNoAllPairsTables()
+    {
+        assertTrue(maze.distances.getNodeCount() > Short.MAX_VALUE, "Walkable tiles: "+maze.distances.getNodeCount());
+        assertFalse(maze.distances.hasAllPairs());
+    }
+
+    @Test
+    void compilesWithoutAllPairsTables() throws IOException
+    {
+        final ByteBuffer compiled = MazeFile.write(maze);
+        final Maze loaded = MazeFile.read(compiled);
+        assertFalse(loaded.distances.hasAllPairs());
+        assertEquals(maze.distances.getNodeCount(), loaded.distances.getNodeCount());
+        assertEquals(compiled, MazeFile.write(loaded));
+    }
+
+    @Test
+    void eyesFindTheWayHomeFromTheFarCorner()
+    {
+        final DistanceTable table = maze.distances;
+        final int home = table.nodeAt(GameState.GHOST_SPAWN_X, GameState.GHOST_SPAWN_Y);
+        int node = table.nodeAt(MAX + 1, MAX);
+        assertNotEquals(-1, node);
+
+        int steps = 0;
+        for (NavGrid.Direction hop; (hop = table.nextHopHome(node)) != null; steps++) {
+            node = table.neighbour(node, hop);
+        }
+        assertEquals(home, node);
+        // the start and home tiles share corridors, so the shortest path is as long as the Manhattan distance
+        assertEquals((MAX + 1 - GameState.GHOST_SPAWN_X) + (MAX - GameState.GHOST_SPAWN_Y), steps);
+        assertNull(table.nextHopHome(home));
+    }
+
+    @Test
+    void targetsAreComparedByStraightLineDistance()
+    {
+        final DistanceTable table = maze.distances;
+        assertEquals(3 * 3 + 4 * 4, table.distanceToTarget(table.nodeAt(0, MIN), 3, MIN + 4));
+    }
+
+    @Test
+    void gamesPlayTheSameInBatchesAndGameStates() {
+        assertEquals(0, BatchEngine.verify(maze, 20, 2000, 1), "Mismatches against GameState");
+    }
+}
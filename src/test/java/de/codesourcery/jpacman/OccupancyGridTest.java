@@ -0,0 +1,149 @@
+package de.codesourcery.jpacman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Collision rules of {@link OccupancyGrid#findCollisions(int, int, int[], byte[])}, see GameState#resolveCollisions().
+ */
+class OccupancyGridTest
+{
+    private static final int GHOSTS = 4;
+
+    // tiles in a row, neighbours differ by one
+    private static final int A = 100;
+    private static final int B = 101;
+    private static final int C = 102;
+    private static final int FAR = 500;
+
+    private OccupancyGrid grid;
+    private final int[] entities = new int[GHOSTS];
+    private final byte[] kinds = new byte[GHOSTS];
+
+    @BeforeEach
+    void setUp()
+    {
+        grid = new OccupancyGrid(GHOSTS);
+        for (int ghost = 0; ghost < GHOSTS; ghost++) {
+            grid.place(ghost, FAR + 10 * ghost);
+        }
+        grid.beginTick();
+    }
+
+    // returns "entity:kind" for each collision
+    private String[] collisions(int playerFrom, int playerTo)
+    {
+        final int count = grid.findCollisions(playerFrom, playerTo, entities, kinds);
+        final String[] result = new String[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = entities[i] + ":" + kinds[i];
+        }
+        return result;
+    }
+
+    private static String sameTile(int ghost) {
+        return ghost + ":" + OccupancyGrid.SAME_TILE;
+    }
+
+    private static String crossing(int ghost) {
+        return ghost + ":" + OccupancyGrid.CROSSING;
+    }
+
+    @Test
+    void ghostMovingOntoPlayerCollides()
+    {
+        grid.place(1, B);
+        grid.beginTick();
+        grid.move(1, A);
+        assertArrayEquals(new String[] { sameTile(1) }, collisions(A, A));
+    }
+
+    @Test
+    void playerMovingOntoGhostCollides()
+    {
+        grid.place(2, B);
+        grid.beginTick();
+        assertArrayEquals(new String[] { sameTile(2) }, collisions(A, B));
+    }
+
+    @Test
+    void swappingTilesCollides()
+    {
+        grid.place(0, B);
+        grid.beginTick();
+        grid.move(0, A);
+        assertArrayEquals(new String[] { crossing(0) }, collisions(A, B));
+    }
+
+    @Test
+    void movingInTheSameDirectionDoesNotCollide()
+    {
+        grid.place(0, B);
+        grid.beginTick();
+        grid.move(0, C);
+        assertEquals(0, collisions(A, B).length);
+    }
+
+    @Test
+    void ghostStayingOnPlayerThatDidNotMoveDoesNotCollideAgain()
+    {
+        // the collision was already resolved when the ghost arrived
+        grid.place(1, A);
+        grid.beginTick();
+        assertEquals(0, collisions(A, A).length);
+    }
+
+    @Test
+    void ghostMovingAwayFromPlayerThatDidNotMoveDoesNotCollide()
+    {
+        grid.place(1, A);
+        grid.beginTick();
+        grid.move(1, B);
+        assertEquals(0, collisions(A, A).length);
+    }
+
+    @Test
+    void ghostLeavingTheGameDoesNotCollide()
+    {
+        grid.place(1, B);
+        grid.beginTick();
+        grid.move(1, OccupancyGrid.NONE);
+        assertEquals(0, collisions(A, B).length);
+    }
+
+    @Test
+    void playerTeleportedAtLevelAdvanceDoesNotCrossGhostsThatWereReset()
+    {
+        // the player moves from A onto B while the ghost on B is put back onto A (its spawn), both without walking
+        grid.place(2, B);
+        grid.beginTick();
+        grid.move(2, C);
+        grid.place(2, A);
+        assertEquals(0, collisions(A, B).length);
+    }
+
+    @Test
+    void playerTeleportedAtLevelAdvanceCollidesWithGhostOnNewTile()
+    {
+        grid.beginTick();
+        grid.place(3, B);
+        assertArrayEquals(new String[] { sameTile(3) }, collisions(FAR + 100, B));
+    }
+
+    @Test
+    void collisionsAreSortedByEntity()
+    {
+        grid.place(3, C);
+        grid.place(0, A);
+        grid.beginTick();
+        grid.move(3, B);
+        grid.move(1, B);
+        final String[] result = collisions(B, B);
+        assertArrayEquals(new String[] { sameTile(1), sameTile(3) }, result, Arrays.toString(result));
+    }
+}